@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import com.enablens.dfa.datastructures.Node;
+
+/**
+ * The result of listing a node's children against an earlier listing. When
+ * the listing has not changed, the children are not read again and the
+ * earlier ones still hold.
+ */
+public final class ChildListing {
+
+    /** Whether the listing changed. */
+    private final boolean modified;
+
+    /** The ETag of the listing, or null if DCNM sent none. */
+    private final String etag;
+
+    /** The digest of the listing. */
+    private final String digest;
+
+    /** The children, or null if the listing did not change. */
+    private final Node[] children;
+
+    /**
+     * Instantiates a new child listing.
+     *
+     * @param newModified
+     *            whether the listing changed
+     * @param newEtag
+     *            the ETag, or null
+     * @param newDigest
+     *            the digest
+     * @param newChildren
+     *            the children, or null if the listing did not change
+     */
+    ChildListing(final boolean newModified, final String newEtag,
+            final String newDigest, final Node[] newChildren) {
+        modified = newModified;
+        etag = newEtag;
+        digest = newDigest;
+        children = newChildren;
+    }
+
+    /**
+     * Checks if the listing changed since the earlier one.
+     *
+     * @return true, if the children were read again
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Gets the ETag of the listing, to send with the next listing.
+     *
+     * @return the ETag, or null if DCNM sent none
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Gets the digest of the listing, to compare with the next listing.
+     *
+     * @return the digest
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Gets the children.
+     *
+     * @return the children, or null if the listing did not change
+     */
+    public Node[] getChildren() {
+        return children;
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops requests to a DCNM server that keeps failing, so that bulk jobs do not
+ * pile more load onto an overloaded controller.
+ *
+ * After a run of consecutive failures (connection errors or busy responses)
+ * the breaker opens and requests fail at once. Once the open interval has
+ * passed, one probe request is let through: if it succeeds the breaker closes,
+ * otherwise it opens again. There is one breaker per server, shared by all
+ * tokens for that server.
+ *
+ * Each admitted request gets a ticket, and its outcome only counts if the
+ * breaker has not opened since it was admitted. A slow request sent before
+ * the breaker opened therefore cannot close it; only the probe can.
+ */
+public final class CircuitBreaker {
+
+    /** Default consecutive failures before the breaker opens. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time the breaker stays open, in msec. */
+    public static final long DEFAULT_OPEN_INTERVAL = 30000L;
+
+    /** Breakers by server. */
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Breaker states.
+     */
+    public enum State {
+
+        /** Requests flow. */
+        CLOSED,
+
+        /** Requests fail fast. */
+        OPEN,
+
+        /** One probe request is in flight. */
+        HALF_OPEN
+    }
+
+    /** The server. */
+    private final String server;
+
+    /** Consecutive failures before the breaker opens. */
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    /** Time the breaker stays open. */
+    private volatile long openInterval = DEFAULT_OPEN_INTERVAL;
+
+    /** The state. */
+    private State state = State.CLOSED;
+
+    /** Consecutive failures. */
+    private int failures;
+
+    /** When the breaker last opened. */
+    private long openedAt;
+
+    /** Times the breaker has opened; the ticket of requests admitted now. */
+    private int generation;
+
+    /**
+     * Instantiates a new breaker.
+     *
+     * @param newServer
+     *            the server
+     */
+    private CircuitBreaker(final String newServer) {
+        server = newServer;
+    }
+
+    /**
+     * Gets the breaker for a server.
+     *
+     * @param server
+     *            the DCNM server
+     * @return the breaker
+     */
+    public static CircuitBreaker forServer(final String server) {
+        CircuitBreaker breaker = BREAKERS.get(server);
+        if (breaker == null) {
+            final CircuitBreaker created = new CircuitBreaker(server);
+            breaker = BREAKERS.putIfAbsent(server, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Asks whether a request may be sent. Every admitted request must be
+     * followed by recordSuccess or recordFailure with its ticket.
+     *
+     * @return the ticket, or -1 if the request may not be sent
+     */
+    public synchronized int admit() {
+        switch (state) {
+        case CLOSED:
+            return generation;
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt >= openInterval) {
+                state = State.HALF_OPEN;
+                return generation;
+            }
+            return -1;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Records a request that DCNM answered normally. It is ignored if the
+     * breaker has opened since the request was admitted.
+     *
+     * @param ticket
+     *            the ticket the request was admitted with
+     */
+    public synchronized void recordSuccess(final int ticket) {
+        if (ticket != generation) {
+            return;
+        }
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a request that failed to connect or found DCNM busy. It is
+     * ignored if the breaker has opened since the request was admitted.
+     *
+     * @param ticket
+     *            the ticket the request was admitted with
+     */
+    public synchronized void recordFailure(final int ticket) {
+        if (ticket != generation) {
+            return;
+        }
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            generation++;
+        }
+    }
+
+    /**
+     * Closes the breaker and clears the failure count.
+     */
+    public synchronized void reset() {
+        failures = 0;
+        state = State.CLOSED;
+        generation++;
+    }
+
+    /**
+     * Gets the state.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the server.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the failure threshold.
+     *
+     * @return the consecutive failures before the breaker opens
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Sets the failure threshold.
+     *
+     * @param newFailureThreshold
+     *            the consecutive failures before the breaker opens
+     */
+    public void setFailureThreshold(final int newFailureThreshold) {
+        if (newFailureThreshold < 1) {
+            throw new IllegalArgumentException(
+                    "Failure threshold must be at least 1.");
+        }
+        failureThreshold = newFailureThreshold;
+    }
+
+    /**
+     * Gets the open interval.
+     *
+     * @return the time the breaker stays open, in msec
+     */
+    public long getOpenInterval() {
+        return openInterval;
+    }
+
+    /**
+     * Sets the open interval.
+     *
+     * @param newOpenInterval
+     *            the time the breaker stays open, in msec
+     */
+    public void setOpenInterval(final long newOpenInterval) {
+        if (newOpenInterval < 0) {
+            throw new IllegalArgumentException(
+                    "Open interval must not be negative.");
+        }
+        openInterval = newOpenInterval;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker[server=" + server + ",state=" + state
+                + ",failures=" + failures + "]";
+    }
+}
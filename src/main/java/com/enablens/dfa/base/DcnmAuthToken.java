@@ -10,18 +10,34 @@
  ******************************************************************************/
 package com.enablens.dfa.base;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.enablens.dfa.datastructures.NodeJson;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
 
 /**
  * The Class DcnmAuthToken.
@@ -29,7 +45,7 @@ import com.mashape.unirest.http.exceptions.UnirestException;
  * @author Terry Pattinson <terry@enablens.com>
  * @since 2014/02/01
  */
-public class DcnmAuthToken {
+public class DcnmAuthToken implements Closeable {
 
     /** Argument counter used in main(). */
     private static final int ARGCOUNT = 4;
@@ -37,7 +53,6 @@ public class DcnmAuthToken {
     /**
      * LOG logging constant.
      */
-    @SuppressWarnings("unused")
     private static final Log LOG = LogFactory.getLog(DcnmAuthToken.class);
 
     /** DCNM Token Key constant used in JSON parsing. */
@@ -46,26 +61,71 @@ public class DcnmAuthToken {
     /** OK HTTP Response Code. */
     private static final int HTTP_OK = 200;
 
-    /** Token authentication time. */
-    private Long authTime = -1L;
+    /**
+     * Times background renewals. Shared by all tokens; the logons themselves
+     * run on each token's client.
+     */
+    private static final ScheduledExecutorService RENEWER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("dfa-token-renewer").setDaemon(true)
+                    .build());
+
+    /** Takes the token from a session. */
+    private static final Function<Session, String> TOKEN =
+            new Function<Session, String>() {
+        @Override
+        public String apply(final Session current) {
+            return current.token;
+        }
+    };
 
     /** DCNM account password. */
-    private String password = "";
+    private volatile String password = "";
 
     /** DCNM server. Can be FQDN or IP Address */
-    private String server = "";
+    private volatile String server = "";
 
-    /** State of the DCNM Authentication Token. */
-    private transient DcnmResponseStates state = DcnmResponseStates.UNINITIALISED;
+    /**
+     * Result of the latest logon. Replaced as a whole so that readers never
+     * see a token from one logon with the state of another.
+     */
+    private transient volatile Session session = new Session("",
+            DcnmResponseStates.UNINITIALISED, -1L);
+
+    /** The logon in flight, if any. */
+    private final transient AtomicReference<CompletableFuture<Session>> logon =
+            new AtomicReference<CompletableFuture<Session>>();
+
+    /** HTTP client for this DCNM server. Created on first use. */
+    private transient DcnmClient client;
 
-    /** Authentication Token. */
-    private transient String token = "";
+    /** Whether the client was created by this token, which closes it. */
+    private transient boolean ownsClient;
+
+    /**
+     * Whether the token is closed. A closed token schedules no renewals, so
+     * nothing creates a client behind the caller's back.
+     */
+    private transient volatile boolean closed;
+
+    /**
+     * Fraction of the token life after which the token is renewed in the
+     * background. 0 disables renewal.
+     */
+    private transient volatile double renewalFraction;
+
+    /** Outcome of the latest background renewal. */
+    private transient volatile DcnmResponseStates renewalState =
+            DcnmResponseStates.UNINITIALISED;
+
+    /** The next scheduled renewal, if any. */
+    private transient ScheduledFuture<?> renewal;
 
     /** Authentication token life. */
-    private Long tokenLife = 0L;
+    private volatile Long tokenLife = 0L;
 
     /** DCNM username. */
-    private String username = "";
+    private volatile String username = "";
 
     /**
      * Instantiates a new dcnm auth token.
@@ -89,42 +149,276 @@ public class DcnmAuthToken {
     }
 
     /**
-     * Authenticate.
+     * Authenticate and wait for the result.
+     * 
+     * @param seen
+     *            the session the caller found not to be VALID
+     * @return the session after authentication
      */
-    private void authenticate() {
-        authTime = System.currentTimeMillis();
-        HttpResponse<String> response;
-        int responseCode;
+    private Session authenticate(final Session seen) {
         try {
-            response = Unirest.post("http://" + server + "/rest/logon/")
-                    .basicAuth(username, password)
-                    .body("{expiration: " + tokenLife + "}").asString();
-            responseCode = response.getCode();
-        } catch (final UnirestException e) {
-            token = "";
-            state = DcnmResponseStates.NET_ERROR;
-            return;
+            return authenticateAsync(seen, false).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-        responseCode = response.getCode();
-        if (responseCode == HTTP_OK) {
-            final JsonParser parser = new JsonParser();
-            final JsonObject jsonObject = parser.parse(
-                    response.getBody().trim()).getAsJsonObject();
-            if (jsonObject.has(DCNM_TOKEN_KEY)) {
-                token = jsonObject.get(DCNM_TOKEN_KEY).getAsString();
-                state = DcnmResponseStates.VALID;
-            } else {
-                // No token returned - DCNM returns {}
-                // if credentials are incorrect
-                token = "";
-                state = DcnmResponseStates.SERVERSIDE_ERROR;
+    }
+
+    /**
+     * Authenticate without blocking. Only one logon is in flight at a time;
+     * callers arriving while one is in flight share its result instead of
+     * starting another. The logon runs on the client's I/O threads, so a slow
+     * DCNM holds up only the callers of this token.
+     * 
+     * A failed renewal does not replace a session that is still VALID, so
+     * callers keep using the current token until it expires.
+     * 
+     * @param seen
+     *            the session the caller found not to be VALID, or is renewing
+     * @param renewing
+     *            true for a background renewal
+     * @return the session after authentication
+     */
+    private CompletableFuture<Session> authenticateAsync(final Session seen,
+            final boolean renewing) {
+        while (true) {
+            final CompletableFuture<Session> inFlight = logon.get();
+            if (inFlight != null) {
+                return inFlight;
             }
-        } else {
-            // Not Response Code 200
-            token = "";
-            state = DcnmResponseStates.WEB_FAILURE;
+            final CompletableFuture<Session> mine =
+                    new CompletableFuture<Session>();
+            if (!logon.compareAndSet(null, mine)) {
+                continue;
+            }
+            final Session current = session;
+            // Another caller may have just finished a logon
+            if (current != seen
+                    && currentState(current) == DcnmResponseStates.VALID) {
+                logon.set(null);
+                mine.complete(current);
+                return mine;
+            }
+            final CompletableFuture<Session> attempt;
+            try {
+                final DcnmClient http;
+                if (renewing) {
+                    http = getOpenClient();
+                } else {
+                    http = getClient();
+                }
+                if (http == null) {
+                    // Closed while the renewal was due
+                    logon.set(null);
+                    mine.complete(current);
+                    return mine;
+                }
+                attempt = logonAsync(http);
+            } catch (final RuntimeException e) {
+                logon.set(null);
+                mine.completeExceptionally(e);
+                return mine;
+            }
+            attempt.whenComplete(new BiConsumer<Session, Throwable>() {
+                @Override
+                public void accept(final Session fresh,
+                        final Throwable failure) {
+                    Session result = null;
+                    try {
+                        if (failure == null) {
+                            result = apply(current, fresh, renewing);
+                        }
+                    } catch (final RuntimeException e) {
+                        logon.set(null);
+                        mine.completeExceptionally(e);
+                        return;
+                    }
+                    logon.set(null);
+                    if (failure != null) {
+                        mine.completeExceptionally(failure);
+                    } else {
+                        mine.complete(result);
+                    }
+                }
+            });
+            return mine;
+        }
+    }
+
+    /**
+     * Applies the outcome of a logon.
+     * 
+     * @param current
+     *            the session in use when the logon started
+     * @param fresh
+     *            the outcome of the logon
+     * @param renewing
+     *            true for a background renewal
+     * @return the session after authentication
+     */
+    private Session apply(final Session current, final Session fresh,
+            final boolean renewing) {
+        if (renewing) {
+            renewalState = fresh.state;
+        }
+        if (fresh.state == DcnmResponseStates.VALID) {
+            session = fresh;
+            scheduleRenewal(fresh);
+            return fresh;
         }
+        if (renewing && currentState(current) == DcnmResponseStates.VALID) {
+            LOG.warn("Token renewal for " + server + " failed with "
+                    + fresh.state);
+            retryRenewal(current);
+            return current;
+        }
+        session = fresh;
+        return fresh;
+    }
 
+    /**
+     * Logs on to the DCNM.
+     * 
+     * @param http
+     *            the client, already started
+     * @return the resulting session future
+     */
+    private CompletableFuture<Session> logonAsync(final DcnmClient http) {
+        // Start the token life once the client is up, not while it starts
+        final long authTime = System.currentTimeMillis();
+        final HttpPost logon = new HttpPost("http://" + server
+                + "/rest/logon/");
+        logon.setHeader("Authorization", "Basic "
+                + Base64.encodeBase64String((username + ":" + password)
+                        .getBytes(StandardCharsets.UTF_8)));
+        logon.setEntity(new StringEntity("{expiration: " + tokenLife + "}",
+                StandardCharsets.UTF_8));
+        return http.execute(logon).handle(
+                new BiFunction<HttpResponse<String>, Throwable, Session>() {
+            @Override
+            public Session apply(final HttpResponse<String> response,
+                    final Throwable failure) {
+                if (failure != null) {
+                    return new Session("", DcnmResponseStates.NET_ERROR,
+                            authTime);
+                }
+                if (response.getCode() == HTTP_OK) {
+                    final JsonNode jsonObject;
+                    try {
+                        jsonObject = NodeJson.readTree(response.getBody());
+                    } catch (final RuntimeException e) {
+                        // A body that is not JSON carries no token
+                        return new Session("",
+                                DcnmResponseStates.SERVERSIDE_ERROR,
+                                authTime);
+                    }
+                    if (jsonObject != null
+                            && jsonObject.has(DCNM_TOKEN_KEY)) {
+                        return new Session(jsonObject.get(DCNM_TOKEN_KEY)
+                                .asText(), DcnmResponseStates.VALID,
+                                authTime);
+                    }
+                    // No token returned - DCNM returns {}
+                    // if credentials are incorrect
+                    return new Session("",
+                            DcnmResponseStates.SERVERSIDE_ERROR, authTime);
+                }
+                // Not Response Code 200
+                return new Session("", DcnmResponseStates.WEB_FAILURE,
+                        authTime);
+            }
+        });
+    }
+
+    /**
+     * Gets the HTTP client for this token's DCNM server, creating one with
+     * default settings on first use. A client created here is closed with
+     * the token, and creating one opens a closed token again.
+     * 
+     * @return the client
+     */
+    public final synchronized DcnmClient getClient() {
+        if (client == null) {
+            client = new DcnmClient();
+            ownsClient = true;
+            closed = false;
+        }
+        return client;
+    }
+
+    /**
+     * Gets the HTTP client for a background renewal, which must not open a
+     * closed token again.
+     * 
+     * @return the client, or null if the token is closed
+     */
+    private synchronized DcnmClient getOpenClient() {
+        if (closed) {
+            return null;
+        }
+        return getClient();
+    }
+
+    /**
+     * Sets the HTTP client. Tokens for the same DCNM server may share one; a
+     * client set here belongs to the caller, who closes it. A client the
+     * token created itself is closed when replaced.
+     * 
+     * @param newClient
+     *            the new client
+     */
+    public final void setClient(final DcnmClient newClient) {
+        DcnmClient owned = null;
+        synchronized (this) {
+            if (ownsClient && client != newClient) {
+                owned = client;
+            }
+            client = newClient;
+            ownsClient = false;
+        }
+        if (owned != null) {
+            closeClient(owned);
+        }
+    }
+
+    /**
+     * Stops background renewal and closes the client if the token created
+     * it. A token used after closing creates a new client.
+     * 
+     * The client is closed outside the token's lock, as its I/O threads may
+     * be waiting on that lock to finish a logon.
+     */
+    @Override
+    public final void close() {
+        DcnmClient owned = null;
+        synchronized (this) {
+            closed = true;
+            cancelRenewal();
+            if (ownsClient) {
+                owned = client;
+                client = null;
+                ownsClient = false;
+            }
+        }
+        if (owned != null) {
+            closeClient(owned);
+        }
+    }
+
+    /**
+     * Closes a client, logging a failure to shut down cleanly.
+     * 
+     * @param old
+     *            the client to close
+     */
+    private void closeClient(final DcnmClient old) {
+        try {
+            old.close();
+        } catch (final IOException e) {
+            LOG.warn("Unable to close the client for " + server, e);
+        }
     }
 
     /**
@@ -136,43 +430,220 @@ public class DcnmAuthToken {
         return server;
     }
 
+    /**
+     * Gets the username.
+     * 
+     * @return the username
+     */
+    public final String getUsername() {
+        return username;
+    }
+
     /**
      * Gets the state.
      * 
      * @return the Authentication Token state
      */
     public final DcnmResponseStates getState() {
-        refreshState();
-        return state;
+        return currentState(session);
     }
 
     /**
-     * Gets the token.
+     * Gets the token, logging on first if it is not VALID. Safe to call from
+     * many threads; once the token is VALID this does not lock.
      * 
      * @return the token
      */
     public final String getToken() {
-        refreshState();
-        if (state != DcnmResponseStates.VALID) {
-            authenticate();
+        final Session current = session;
+        if (currentState(current) == DcnmResponseStates.VALID) {
+            return current.token;
         }
-        return token;
+        return authenticate(current).token;
     }
 
     /**
-     * Refresh state.
+     * Gets the token without blocking. A VALID token is returned at once;
+     * otherwise the future completes when the logon does.
+     * 
+     * @return the token future
      */
-    private void refreshState() {
-        if (state.compareTo(DcnmResponseStates.STALE) > -1) {
-            if ("".equals(token)) {
-                state = DcnmResponseStates.UNINITIALISED;
-            } else if (authTime + tokenLife < System.currentTimeMillis()) {
-                state = DcnmResponseStates.STALE;
-                return;
+    public final CompletableFuture<String> getTokenAsync() {
+        final Session current = session;
+        if (currentState(current) == DcnmResponseStates.VALID) {
+            return CompletableFuture.completedFuture(current.token);
+        }
+        return authenticateAsync(current, false).thenApply(TOKEN);
+    }
+
+    /**
+     * Logs on again after DCNM rejected a token, for example because it
+     * restarted before the token life ran out. Callers reporting the same
+     * rejected token share one logon; once a new token is in place they get
+     * it without another logon.
+     * 
+     * @param rejected
+     *            the token DCNM rejected
+     * @return the token to retry with
+     */
+    public final String renew(final String rejected) {
+        final Session current = session;
+        if (!current.token.equals(rejected)
+                && currentState(current) == DcnmResponseStates.VALID) {
+            return current.token;
+        }
+        return authenticate(current).token;
+    }
+
+    /**
+     * Renews without blocking, for use from I/O threads.
+     * 
+     * @param rejected
+     *            the token DCNM rejected
+     * @return the token to retry with
+     */
+    public final CompletableFuture<String> renewAsync(final String rejected) {
+        final Session current = session;
+        if (!current.token.equals(rejected)
+                && currentState(current) == DcnmResponseStates.VALID) {
+            return CompletableFuture.completedFuture(current.token);
+        }
+        return authenticateAsync(current, false).thenApply(TOKEN);
+    }
+
+    /**
+     * Gets the renewal fraction.
+     * 
+     * @return the fraction of the token life after which the token is renewed
+     *         in the background, or 0 if renewal is disabled
+     */
+    public final double getRenewalFraction() {
+        return renewalFraction;
+    }
+
+    /**
+     * Sets the renewal fraction. When set, a VALID token is renewed in the
+     * background once this fraction of its life has passed, so callers do not
+     * wait for a logon when it would otherwise go STALE. A failed renewal is
+     * retried while the current token is still VALID and is reported by
+     * getRenewalState.
+     * 
+     * @param newRenewalFraction
+     *            a fraction between 0 and 1; 0 disables renewal
+     */
+    public final void setRenewalFraction(final double newRenewalFraction) {
+        if (newRenewalFraction < 0 || newRenewalFraction >= 1) {
+            throw new IllegalArgumentException(
+                    "Renewal fraction must be at least 0 and less than 1.");
+        }
+        renewalFraction = newRenewalFraction;
+        final Session current = session;
+        if (currentState(current) == DcnmResponseStates.VALID) {
+            scheduleRenewal(current);
+        } else {
+            cancelRenewal();
+        }
+    }
+
+    /**
+     * Gets the outcome of the latest background renewal.
+     * 
+     * @return VALID if the last renewal succeeded, the failure state if it
+     *         failed, or UNINITIALISED if no renewal has run
+     */
+    public final DcnmResponseStates getRenewalState() {
+        return renewalState;
+    }
+
+    /**
+     * Schedules the renewal of a freshly authenticated session, replacing any
+     * earlier schedule.
+     * 
+     * @param renewed
+     *            the session to renew
+     */
+    private void scheduleRenewal(final Session renewed) {
+        final double fraction = renewalFraction;
+        if (fraction == 0 || closed) {
+            cancelRenewal();
+            return;
+        }
+        schedule(renewed, renewed.authTime + (long) (tokenLife * fraction)
+                - System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules another attempt after a failed renewal, half way to the
+     * current session's expiry.
+     * 
+     * @param current
+     *            the session still in use
+     */
+    private void retryRenewal(final Session current) {
+        if (renewalFraction == 0) {
+            return;
+        }
+        final long remaining = current.authTime + tokenLife
+                - System.currentTimeMillis();
+        if (remaining > 1) {
+            schedule(current, remaining / 2);
+        }
+    }
+
+    /**
+     * Schedules a renewal, unless the token is closed.
+     * 
+     * @param renewed
+     *            the session to renew
+     * @param delay
+     *            the delay in msec
+     */
+    private synchronized void schedule(final Session renewed,
+            final long delay) {
+        if (closed) {
+            return;
+        }
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+        renewal = RENEWER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                authenticateAsync(renewed, true);
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled renewal, if any.
+     */
+    private synchronized void cancelRenewal() {
+        if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+    }
+
+    /**
+     * Works out the current state of a session. Error states other than
+     * WEB_FAILURE stick until the next logon.
+     * 
+     * @param current
+     *            the session
+     * @return the state
+     */
+    private DcnmResponseStates currentState(final Session current) {
+        if (current.state.compareTo(DcnmResponseStates.STALE) > -1) {
+            if ("".equals(current.token)) {
+                return DcnmResponseStates.UNINITIALISED;
+            } else if (current.authTime + tokenLife < System
+                    .currentTimeMillis()) {
+                return DcnmResponseStates.STALE;
             } else {
-                state = DcnmResponseStates.VALID;
+                return DcnmResponseStates.VALID;
             }
         }
+        return current.state;
     }
 
     /**
@@ -246,6 +717,38 @@ public class DcnmAuthToken {
                 ToStringStyle.SHORT_PREFIX_STYLE);
     }
 
+    /**
+     * The outcome of one logon.
+     */
+    private static final class Session {
+
+        /** Authentication Token. */
+        private final String token;
+
+        /** State of the DCNM Authentication Token. */
+        private final DcnmResponseStates state;
+
+        /** Token authentication time. */
+        private final long authTime;
+
+        /**
+         * Instantiates a new session.
+         * 
+         * @param newToken
+         *            the token
+         * @param newState
+         *            the state
+         * @param newAuthTime
+         *            the authentication time
+         */
+        Session(final String newToken, final DcnmResponseStates newState,
+                final long newAuthTime) {
+            token = newToken;
+            state = newState;
+            authTime = newAuthTime;
+        }
+    }
+
     /**
      * The main method.
      * 
@@ -0,0 +1,517 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * A pooled, keep-alive HTTP client for one DCNM server.
+ *
+ * Each DcnmAuthToken owns a client, created on first use with default
+ * settings, so requests to one server reuse connections instead of paying a
+ * TCP handshake each. Tokens for the same server can share a client with
+ * DcnmAuthToken.setClient. Idle and expired connections are closed in the
+ * background.
+ */
+public class DcnmClient implements Closeable {
+
+    /**
+     * Builds clients, evicts idle connections and times retry delays. Clients
+     * are built on this daemon thread so that their I/O reactor threads are
+     * daemons too and do not keep the JVM alive.
+     */
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("dfa-client-housekeeper").setDaemon(true)
+                    .build());
+
+    /** The settings. */
+    private final DcnmClientConfig config;
+
+    /** The connection pool. */
+    private final PoolingNHttpClientConnectionManager pool;
+
+    /** The HTTP client. */
+    private final CloseableHttpAsyncClient client;
+
+    /** The idle connection evictor. */
+    private final ScheduledFuture<?> evictor;
+
+    /** Whether the client has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Requests not yet answered. The client drops these silently when it
+     * stops, so close fails them instead.
+     */
+    private final Set<CompletableFuture<?>> unanswered = Collections
+            .newSetFromMap(new ConcurrentHashMap<CompletableFuture<?>,
+                    Boolean>());
+
+    /**
+     * Instantiates a new client with default settings.
+     */
+    public DcnmClient() {
+        this(new DcnmClientConfig());
+    }
+
+    /**
+     * Instantiates a new client.
+     *
+     * @param newConfig
+     *            the settings
+     */
+    public DcnmClient(final DcnmClientConfig newConfig) {
+        config = newConfig;
+        try {
+            pool = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                            .setConnectTimeout(config.getConnectTimeout())
+                            .setSoTimeout(config.getReadTimeout())
+                            .setTcpNoDelay(true).build(),
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("dfa-client-io-%d")
+                                    .setDaemon(true).build()));
+        } catch (final IOReactorException e) {
+            throw new IllegalStateException("Unable to start I/O reactor", e);
+        }
+        pool.setMaxTotal(config.getMaxConnections());
+        pool.setDefaultMaxPerRoute(config.getMaxConnections());
+        client = onHousekeeper(new Callable<CloseableHttpAsyncClient>() {
+            @Override
+            public CloseableHttpAsyncClient call() {
+                final CloseableHttpAsyncClient newClient =
+                        HttpAsyncClientBuilder.create()
+                        .setConnectionManager(pool)
+                        .setKeepAliveStrategy(new KeepAliveStrategy())
+                        .setDefaultRequestConfig(RequestConfig.custom()
+                                .setConnectTimeout(config.getConnectTimeout())
+                                .setSocketTimeout(config.getReadTimeout())
+                                .build()).build();
+                newClient.start();
+                return newClient;
+            }
+        });
+        evictor = HOUSEKEEPER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pool.closeExpiredConnections();
+                pool.closeIdleConnections(config.getIdleTimeout(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }, config.getIdleTimeout(), config.getIdleTimeout() / 2 + 1,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task on the housekeeper thread and waits for it.
+     *
+     * @param task
+     *            the task
+     * @param <T>
+     *            the result type
+     * @return the result
+     */
+    private static <T> T onHousekeeper(final Callable<T> task) {
+        try {
+            return HOUSEKEEPER.submit(task).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted starting client", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Unable to start client",
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param request
+     *            the request
+     * @return the response future; fails with an IOException if the request
+     *         could not be made
+     */
+    final CompletableFuture<HttpResponse<String>> execute(
+            final HttpUriRequest request) {
+        final CompletableFuture<HttpResponse<String>> future =
+                track(new CompletableFuture<HttpResponse<String>>());
+        client.execute(request,
+                new FutureCallback<org.apache.http.HttpResponse>() {
+            @Override
+            public void completed(final org.apache.http.HttpResponse response) {
+                unanswered.remove(future);
+                try {
+                    future.complete(new HttpResponse<String>(response,
+                            String.class));
+                } catch (final RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                unanswered.remove(future);
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                unanswered.remove(future);
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Sends a request and streams the response body.
+     *
+     * @param request
+     *            the request
+     * @return the response future, completed once the response headers have
+     *         arrived; fails with an IOException if the request could not be
+     *         made
+     */
+    final CompletableFuture<StreamedResponse> stream(
+            final HttpUriRequest request) {
+        final CompletableFuture<StreamedResponse> future =
+                track(new CompletableFuture<StreamedResponse>());
+        final StreamConsumer consumer = new StreamConsumer(future);
+        consumer.exchange = client.execute(HttpAsyncMethods.create(request),
+                consumer, new FutureCallback<Void>() {
+            @Override
+            public void completed(final Void result) {
+                // The future completed when the headers arrived
+                unanswered.remove(future);
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                unanswered.remove(future);
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                unanswered.remove(future);
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Tracks a request future until it is answered. A request started while
+     * the client closes fails at once.
+     *
+     * @param <T>
+     *            the response type
+     * @param future
+     *            the request future
+     * @return the future
+     */
+    private <T> CompletableFuture<T> track(final CompletableFuture<T> future) {
+        unanswered.add(future);
+        if (closed) {
+            fail(future);
+        }
+        return future;
+    }
+
+    /**
+     * Fails a request the client will no longer answer.
+     *
+     * @param future
+     *            the request future
+     */
+    private void fail(final CompletableFuture<?> future) {
+        unanswered.remove(future);
+        future.completeExceptionally(new IOException("Client closed"));
+    }
+
+    /**
+     * Completes after a delay, without holding a thread while waiting.
+     *
+     * @param millis
+     *            the delay in msec
+     * @return a future completed after the delay
+     */
+    final CompletableFuture<Void> delay(final long millis) {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        HOUSEKEEPER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(null);
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Gets the settings.
+     *
+     * @return the settings
+     */
+    public final DcnmClientConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the number of connections currently carrying a request.
+     *
+     * @return the leased connections
+     */
+    public final int getLeased() {
+        return pool.getTotalStats().getLeased();
+    }
+
+    /**
+     * Gets the number of open connections waiting for reuse.
+     *
+     * @return the idle connections
+     */
+    public final int getIdle() {
+        return pool.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Gets the number of connections the pool is opening for waiting
+     * requests. Requests queued behind connections that are all leased are
+     * not counted.
+     *
+     * @return the connections being opened
+     */
+    public final int getPending() {
+        return pool.getTotalStats().getPending();
+    }
+
+    /**
+     * Closes all connections and stops the client. Requests not yet answered
+     * fail with an IOException.
+     *
+     * @throws IOException
+     *             if the client does not shut down cleanly
+     */
+    @Override
+    public final void close() throws IOException {
+        closed = true;
+        evictor.cancel(false);
+        try {
+            client.close();
+        } finally {
+            for (CompletableFuture<?> future : unanswered) {
+                fail(future);
+            }
+        }
+    }
+
+    /**
+     * Checks if the client has been closed.
+     *
+     * @return true, if closed
+     */
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Honours the server's Keep-Alive header, capped at the configured
+     * keep-alive.
+     */
+    private final class KeepAliveStrategy extends
+            DefaultConnectionKeepAliveStrategy {
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy
+         * #getKeepAliveDuration(org.apache.http.HttpResponse,
+         * org.apache.http.protocol.HttpContext)
+         */
+        @Override
+        public long getKeepAliveDuration(
+                final org.apache.http.HttpResponse response,
+                final HttpContext context) {
+            final long duration = super.getKeepAliveDuration(response,
+                    context);
+            if (duration > 0) {
+                return Math.min(duration, config.getKeepAlive());
+            }
+            return config.getKeepAlive();
+        }
+    }
+
+    /**
+     * Hands the response body to a reader thread through a bounded buffer.
+     * Input from the socket is suspended while the buffer is full and resumed
+     * as the reader drains it.
+     */
+    private static final class StreamConsumer extends
+            AbstractAsyncResponseConsumer<Void> {
+
+        /** Body buffer size. */
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        /** The response future. */
+        private final CompletableFuture<StreamedResponse> future;
+
+        /** The body buffer. */
+        private final SharedInputBuffer buffer = new SharedInputBuffer(
+                BUFFER_SIZE, HeapByteBufferAllocator.INSTANCE);
+
+        /** The exchange, cancelled if the body is closed early. */
+        private volatile Future<Void> exchange;
+
+        /**
+         * Instantiates a new consumer.
+         *
+         * @param newFuture
+         *            the response future
+         */
+        StreamConsumer(final CompletableFuture<StreamedResponse> newFuture) {
+            future = newFuture;
+        }
+
+        @Override
+        protected void onResponseReceived(
+                final org.apache.http.HttpResponse response) {
+            future.complete(new StreamedResponse(response.getStatusLine()
+                    .getStatusCode(), new BodyStream()));
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder,
+                final IOControl ioctrl) throws IOException {
+            buffer.consumeContent(decoder, ioctrl);
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity,
+                final ContentType contentType) {
+        }
+
+        @Override
+        protected Void buildResult(final HttpContext context) {
+            return null;
+        }
+
+        @Override
+        protected void releaseResources() {
+            if (getException() == null) {
+                buffer.close();
+            } else {
+                buffer.shutdown();
+            }
+        }
+
+        /**
+         * Reads the body from the buffer.
+         */
+        private final class BodyStream extends InputStream {
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    return buffer.read();
+                } catch (final IOException e) {
+                    throw failure(e);
+                }
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len)
+                    throws IOException {
+                try {
+                    return buffer.read(b, off, len);
+                } catch (final IOException e) {
+                    throw failure(e);
+                }
+            }
+
+            /**
+             * Reports why the body could not be read.
+             *
+             * @param e
+             *            the buffer's exception
+             * @return the exception to throw
+             */
+            private IOException failure(final IOException e) {
+                final Exception cause = getException();
+                if (cause == null) {
+                    return e;
+                }
+                return new IOException("Response body failed", cause);
+            }
+
+            @Override
+            public void close() {
+                if (!isDone()) {
+                    buffer.shutdown();
+                    final Future<Void> pending = exchange;
+                    if (pending != null) {
+                        pending.cancel(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public final String toString() {
+        final PoolStats stats = pool.getTotalStats();
+        return "DcnmClient[leased=" + stats.getLeased() + ",idle="
+                + stats.getAvailable() + ",pending=" + getPending() + ",max="
+                + stats.getMax() + "]";
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Connection settings for a DcnmClient. Changes only take effect for
+ * clients created afterwards.
+ */
+public class DcnmClientConfig {
+
+    /** Default pool size. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /** Default keep-alive in msec. */
+    public static final long DEFAULT_KEEP_ALIVE = 30000L;
+
+    /** Default idle timeout in msec. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10000L;
+
+    /** Default connect timeout in msec. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** Default read timeout in msec. */
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    /** Maximum pooled connections to the DCNM server. */
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    /**
+     * Longest time a connection is kept for reuse, unless the server asks
+     * for less.
+     */
+    private long keepAlive = DEFAULT_KEEP_ALIVE;
+
+    /** Idle connections are closed after this long. */
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /** Connect timeout. */
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /** Read (socket) timeout. */
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /** Retry policy for idempotent requests. */
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    /**
+     * Gets the pool size.
+     *
+     * @return the maximum pooled connections
+     */
+    public final int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the pool size.
+     *
+     * @param newMaxConnections
+     *            the maximum pooled connections
+     */
+    public final void setMaxConnections(final int newMaxConnections) {
+        if (newMaxConnections < 1) {
+            throw new IllegalArgumentException(
+                    "Pool size must be at least 1.");
+        }
+        maxConnections = newMaxConnections;
+    }
+
+    /**
+     * Gets the keep-alive.
+     *
+     * @return the keep-alive in msec
+     */
+    public final long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets the keep-alive.
+     *
+     * @param newKeepAlive
+     *            the keep-alive in msec
+     */
+    public final void setKeepAlive(final long newKeepAlive) {
+        keepAlive = newKeepAlive;
+    }
+
+    /**
+     * Gets the idle timeout.
+     *
+     * @return the idle timeout in msec
+     */
+    public final long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the idle timeout.
+     *
+     * @param newIdleTimeout
+     *            the idle timeout in msec
+     */
+    public final void setIdleTimeout(final long newIdleTimeout) {
+        if (newIdleTimeout < 1) {
+            throw new IllegalArgumentException(
+                    "Idle timeout must be positive.");
+        }
+        idleTimeout = newIdleTimeout;
+    }
+
+    /**
+     * Gets the connect timeout.
+     *
+     * @return the connect timeout in msec
+     */
+    public final int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout.
+     *
+     * @param newConnectTimeout
+     *            the connect timeout in msec
+     */
+    public final void setConnectTimeout(final int newConnectTimeout) {
+        connectTimeout = newConnectTimeout;
+    }
+
+    /**
+     * Gets the read timeout.
+     *
+     * @return the read timeout in msec
+     */
+    public final int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the read timeout.
+     *
+     * @param newReadTimeout
+     *            the read timeout in msec
+     */
+    public final void setReadTimeout(final int newReadTimeout) {
+        readTimeout = newReadTimeout;
+    }
+
+    /**
+     * Gets the retry policy.
+     *
+     * @return the retry policy for idempotent requests
+     */
+    public final RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the retry policy. Unlike the other settings, changes to the policy
+     * apply to clients already created.
+     *
+     * @param newRetryPolicy
+     *            the retry policy for idempotent requests
+     */
+    public final void setRetryPolicy(final RetryPolicy newRetryPolicy) {
+        if (newRetryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy is required.");
+        }
+        retryPolicy = newRetryPolicy;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public final String toString() {
+        return ToStringBuilder.reflectionToString(this,
+                ToStringStyle.SHORT_PREFIX_STYLE);
+    }
+}
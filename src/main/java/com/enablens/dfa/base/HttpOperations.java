@@ -1,12 +1,60 @@
 package com.enablens.dfa.base;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
 
+/**
+ * HTTP operations against the DCNM REST API.
+ *
+ * Every operation has a non-blocking variant returning a CompletableFuture.
+ * These run on the token's pooled asynchronous (NIO) DcnmClient, so many
+ * requests can be in flight against several DCNM servers without a thread
+ * per request. Dependent stages attached to the returned futures run on the
+ * client's I/O thread unless an executor is supplied, and must not block.
+ *
+ * The blocking variants wait on the asynchronous ones and return null if the
+ * request could not be made; the cause is logged.
+ *
+ * GET, PUT and DELETE requests that fail to connect or find DCNM busy (429,
+ * 502, 503, 504) are retried according to the client's RetryPolicy. Every
+ * request passes through the server's CircuitBreaker, and fails with an
+ * IllegalStateException without being sent while the breaker is open.
+ * Requests over the server's RateLimiter limits are queued, not rejected.
+ *
+ * A request rejected with 401, as happens when DCNM restarts and forgets its
+ * tokens, is sent once more after the token logs on again. A burst of 401s for
+ * the same token triggers a single logon.
+ *
+ * A GET issued while an identical GET to the same server and URI is in flight
+ * is not sent; it gets the response of the one in flight. The response object
+ * is then shared between callers. Streamed GETs are never coalesced.
+ *
+ * A GET can carry the ETag of a copy already held, so that DCNM answers 304
+ * without a body when the resource has not changed.
+ */
 public class HttpOperations {
     static {
         // change boolean to enable debug output
@@ -24,19 +72,614 @@ public class HttpOperations {
     private static final Logger LOG = LoggerFactory
             .getLogger(HttpOperations.class);
 
-    private static void debugLog(HttpResponse<String> response) {
+    /** Unauthorized HTTP Response Code. */
+    private static final int HTTP_UNAUTHORIZED = 401;
+
+    /** GETs in flight, by user, URL and ETag. */
+    private static final ConcurrentMap<String,
+            CompletableFuture<HttpResponse<String>>> GETS_IN_FLIGHT =
+            new ConcurrentHashMap<String,
+                    CompletableFuture<HttpResponse<String>>>();
+
+    /** GETs answered by an identical GET already in flight. */
+    private static final AtomicLong COALESCED = new AtomicLong();
+
+    private static void debugLog(final String operation,
+            final HttpResponse<String> response) {
         if (LOG.isDebugEnabled()) {
-            LOG.debug(
-                    "*** "
-                            + Thread.currentThread().getStackTrace()[2]
-                                    .getMethodName()
-                            + " *** debug output: {}", response.getCode());
+            LOG.debug("*** " + operation + " *** debug output: {}",
+                    response.getCode());
+        }
+    }
+
+    /**
+     * Builds the URL for a DCNM URI.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @return the url
+     */
+    private static String url(final DcnmAuthToken dt, final String uri) {
+        return "http://" + dt.getServer() + uri;
+    }
+
+    /**
+     * Sends a request on the token's client, retrying idempotent requests
+     * as the retry policy allows.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param body
+     *            the body, or null for none
+     * @return the response future
+     */
+    private static CompletableFuture<HttpResponse<String>> execute(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final String body) {
+        if (body != null) {
+            request.setHeader("Content-Type", "application/json");
+            ((HttpEntityEnclosingRequestBase) request).setEntity(
+                    new StringEntity(body, StandardCharsets.UTF_8));
+        }
+        return attempt(operation, dt, request,
+                !(request instanceof HttpPost), 1);
+    }
+
+    /**
+     * Makes one attempt at a request, unless the server's breaker is open,
+     * once the server's rate limiter allows.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param idempotent
+     *            whether the request may be retried
+     * @param attempt
+     *            the attempt number, starting at 1
+     * @return the response future
+     */
+    private static CompletableFuture<HttpResponse<String>> attempt(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final boolean idempotent,
+            final int attempt) {
+        final CircuitBreaker breaker = CircuitBreaker.forServer(dt
+                .getServer());
+        final int ticket = breaker.admit();
+        if (ticket < 0) {
+            return failed(new IllegalStateException("Circuit open for "
+                    + dt.getServer()));
+        }
+        return permit(dt, request).thenCompose(
+                new Function<String, CompletionStage<HttpResponse<String>>>() {
+                    @Override
+                    public CompletionStage<HttpResponse<String>> apply(
+                            final String token) {
+                        return sendOnce(operation, dt, request, token);
+                    }
+                }).handle(
+                new BiFunction<HttpResponse<String>, Throwable,
+                        CompletionStage<HttpResponse<String>>>() {
+                    @Override
+                    public CompletionStage<HttpResponse<String>> apply(
+                            final HttpResponse<String> response,
+                            final Throwable failure) {
+                        return retry(operation, dt, request, idempotent,
+                                attempt, breaker, ticket, response, failure);
+                    }
+                }).thenCompose(
+                Function.<CompletionStage<HttpResponse<String>>>identity());
+    }
+
+    /**
+     * Waits for the server's rate limiter to admit a request, then gets the
+     * token to send it with. Never throws, so that a breaker ticket taken
+     * before the call is always settled by its outcome.
+     *
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @return the token future, failed if no permit could be had
+     */
+    private static CompletableFuture<String> permit(final DcnmAuthToken dt,
+            final HttpRequestBase request) {
+        try {
+            final long wait = RateLimiter.forServer(dt.getServer()).reserve(
+                    request.getMethod());
+            if (wait == 0) {
+                return dt.getTokenAsync();
+            }
+            return dt.getClient().delay(wait).thenCompose(
+                    new Function<Void, CompletionStage<String>>() {
+                        @Override
+                        public CompletionStage<String> apply(
+                                final Void ignored) {
+                            return dt.getTokenAsync();
+                        }
+                    });
+        } catch (final RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Sends a request, replaying it once with a new token if DCNM rejects
+     * the current one.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param token
+     *            the token to send
+     * @return the response future
+     */
+    private static CompletableFuture<HttpResponse<String>> sendOnce(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final String token) {
+        return send(operation, dt, request, token).thenCompose(
+                new Function<HttpResponse<String>,
+                        CompletionStage<HttpResponse<String>>>() {
+                    @Override
+                    public CompletionStage<HttpResponse<String>> apply(
+                            final HttpResponse<String> response) {
+                        if (response.getCode() != HTTP_UNAUTHORIZED) {
+                            return CompletableFuture.completedFuture(
+                                    response);
+                        }
+                        return replay(operation, dt, request, token);
+                    }
+                });
+    }
+
+    /**
+     * Records the outcome of an attempt and schedules the next one if the
+     * request failed and may be retried.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param idempotent
+     *            whether the request may be retried
+     * @param attempt
+     *            the attempt number, starting at 1
+     * @param breaker
+     *            the server's breaker
+     * @param ticket
+     *            the ticket the breaker admitted the attempt with
+     * @param response
+     *            the response, or null if the request failed
+     * @param failure
+     *            the failure, or null if there is a response
+     * @return the final response future
+     */
+    private static CompletionStage<HttpResponse<String>> retry(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final boolean idempotent,
+            final int attempt, final CircuitBreaker breaker, final int ticket,
+            final HttpResponse<String> response, final Throwable failure) {
+        if (failure == null && !RetryPolicy.isRetryable(response.getCode())) {
+            breaker.recordSuccess(ticket);
+            return CompletableFuture.completedFuture(response);
+        }
+        breaker.recordFailure(ticket);
+        final RetryPolicy policy = dt.getClient().getConfig()
+                .getRetryPolicy();
+        if (!idempotent || attempt >= policy.getMaxAttempts()) {
+            if (failure != null) {
+                return failed(failure);
+            }
+            return CompletableFuture.completedFuture(response);
         }
+        final long delay = policy.delay(attempt, retryAfter(response));
+        LOG.debug("*** " + operation + " *** attempt {} failed, retrying"
+                + " in {} msec", attempt, delay);
+        return dt.getClient().delay(delay).thenCompose(
+                new Function<Void, CompletionStage<HttpResponse<String>>>() {
+                    @Override
+                    public CompletionStage<HttpResponse<String>> apply(
+                            final Void ignored) {
+                        return attempt(operation, dt, request, idempotent,
+                                attempt + 1);
+                    }
+                });
+    }
+
+    /**
+     * Gets the Retry-After header of a response.
+     *
+     * @param response
+     *            the response, or null
+     * @return the header value, or null if there is none
+     */
+    private static String retryAfter(final HttpResponse<String> response) {
+        if (response == null) {
+            return null;
+        }
+        return header(response, "Retry-After");
+    }
+
+    /**
+     * Gets a response header, ignoring the case of its name.
+     *
+     * @param response
+     *            the response
+     * @param name
+     *            the header name
+     * @return the header value, or null if there is none
+     */
+    static String header(final HttpResponse<String> response,
+            final String name) {
+        for (Map.Entry<String, String> header : response.getHeaders()
+                .entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a failed future.
+     *
+     * @param failure
+     *            the failure; a CompletionException is unwrapped
+     * @param <T>
+     *            the result type
+     * @return the failed future
+     */
+    private static <T> CompletableFuture<T> failed(final Throwable failure) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        if (failure instanceof CompletionException
+                && failure.getCause() != null) {
+            future.completeExceptionally(failure.getCause());
+        } else {
+            future.completeExceptionally(failure);
+        }
+        return future;
+    }
+
+    /**
+     * Sends a rejected request again once the token has logged on again.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param rejected
+     *            the token DCNM rejected
+     * @return the response future
+     */
+    private static CompletableFuture<HttpResponse<String>> replay(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final String rejected) {
+        LOG.debug("*** " + operation + " *** token rejected, replaying");
+        return dt.renewAsync(rejected).thenCompose(
+                new Function<String, CompletionStage<HttpResponse<String>>>() {
+                    @Override
+                    public CompletionStage<HttpResponse<String>> apply(
+                            final String renewed) {
+                        return send(operation, dt, request, renewed);
+                    }
+                });
+    }
+
+    /**
+     * Sends a request once.
+     *
+     * @param operation
+     *            the operation name, used for logging
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param token
+     *            the token to send
+     * @return the response future
+     */
+    private static CompletableFuture<HttpResponse<String>> send(
+            final String operation, final DcnmAuthToken dt,
+            final HttpRequestBase request, final String token) {
+        request.setHeader("Dcnm-Token", token);
+        return dt.getClient().execute(request).whenComplete(
+                new BiConsumer<HttpResponse<String>, Throwable>() {
+                    @Override
+                    public void accept(final HttpResponse<String> response,
+                            final Throwable failure) {
+                        if (response != null) {
+                            debugLog(operation, response);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Waits for a response.
+     *
+     * @param future
+     *            the response future
+     * @param <T>
+     *            the response type
+     * @return the response, or null if the request failed
+     */
+    private static <T> T await(final CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            LOG.warn("Request failed: {}", String.valueOf(e.getCause()));
+            return null;
+        }
+    }
+
+    /**
+     * Sends a GET and streams the response.
+     *
+     * @param dt
+     *            the dt
+     * @param request
+     *            the request
+     * @param token
+     *            the token to send
+     * @param replay
+     *            whether to renew the token and replay on 401
+     * @return the response future
+     */
+    private static CompletableFuture<StreamedResponse> stream(
+            final DcnmAuthToken dt, final HttpGet request, final String token,
+            final boolean replay) {
+        request.setHeader("Dcnm-Token", token);
+        return dt.getClient().stream(request).thenCompose(
+                new Function<StreamedResponse,
+                        CompletionStage<StreamedResponse>>() {
+                    @Override
+                    public CompletionStage<StreamedResponse> apply(
+                            final StreamedResponse response) {
+                        if (!replay
+                                || response.getCode() != HTTP_UNAUTHORIZED) {
+                            return CompletableFuture.completedFuture(
+                                    response);
+                        }
+                        try {
+                            response.close();
+                        } catch (final IOException e) {
+                            LOG.debug("Unable to close rejected response");
+                        }
+                        return dt.renewAsync(token).thenCompose(
+                                new Function<String,
+                                        CompletionStage<StreamedResponse>>() {
+                                    @Override
+                                    public CompletionStage<StreamedResponse>
+                                            apply(final String renewed) {
+                                        return stream(dt, request, renewed,
+                                                false);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /**
+     * Gets the operation without blocking.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @return the response future
+     */
+    public static CompletableFuture<HttpResponse<String>> getOperationAsync(
+            final DcnmAuthToken dt, final String uri) {
+        return getOperationAsync(dt, uri, null);
+    }
+
+    /**
+     * Gets the operation without blocking, unless it has not changed. DCNM
+     * answers 304 with no body if the resource still has the given ETag;
+     * servers that do not support ETags answer 200 as usual.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @param etag
+     *            the ETag of the copy already held, or null for none
+     * @return the response future
+     */
+    public static CompletableFuture<HttpResponse<String>> getOperationAsync(
+            final DcnmAuthToken dt, final String uri, final String etag) {
+        final String url = url(dt, uri);
+        final HttpGet request = new HttpGet(url);
+        // Only the same user may share a response
+        final String key = dt.getUsername() + "\n" + url + "\n" + etag;
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+        final CompletableFuture<HttpResponse<String>> shared =
+                new CompletableFuture<HttpResponse<String>>();
+        final CompletableFuture<HttpResponse<String>> inFlight = GETS_IN_FLIGHT
+                .putIfAbsent(key, shared);
+        if (inFlight != null) {
+            COALESCED.incrementAndGet();
+            return copy(inFlight);
+        }
+        execute("getOperation", dt, request, null).whenComplete(
+                new BiConsumer<HttpResponse<String>, Throwable>() {
+                    @Override
+                    public void accept(final HttpResponse<String> response,
+                            final Throwable failure) {
+                        // Later GETs must not get this response
+                        GETS_IN_FLIGHT.remove(key, shared);
+                        if (failure != null) {
+                            shared.completeExceptionally(failure);
+                        } else {
+                            shared.complete(response);
+                        }
+                    }
+                });
+        return copy(shared);
+    }
+
+    /**
+     * Gets a caller's own view of a shared future, so that completing or
+     * cancelling it does not affect other callers.
+     *
+     * @param shared
+     *            the shared future
+     * @return the copy
+     */
+    private static CompletableFuture<HttpResponse<String>> copy(
+            final CompletableFuture<HttpResponse<String>> shared) {
+        return shared.thenApply(Function.<HttpResponse<String>>identity());
+    }
+
+    /**
+     * Gets the number of GETs answered by an identical GET already in flight
+     * instead of being sent.
+     *
+     * @return the coalesced GETs
+     */
+    public static long getCoalescedCount() {
+        return COALESCED.get();
+    }
+
+    /**
+     * Clears the coalesced GET counter.
+     */
+    public static void resetCoalescedCount() {
+        COALESCED.set(0);
+    }
+
+    /**
+     * Delete operation without blocking.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @param body
+     *            the body
+     * @return the response future
+     */
+    public static CompletableFuture<HttpResponse<String>>
+            deleteOperationAsync(final DcnmAuthToken dt, final String uri,
+                    final String body) {
+        return execute("deleteOperation", dt, new HttpDeleteWithBody(url(dt,
+                uri)), body);
+    }
+
+    /**
+     * Put operation without blocking.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @param body
+     *            the body
+     * @return the response future
+     */
+    public static CompletableFuture<HttpResponse<String>> putOperationAsync(
+            final DcnmAuthToken dt, final String uri, final String body) {
+        return execute("putOperation", dt, new HttpPut(url(dt, uri)), body);
+    }
+
+    /**
+     * Post operation without blocking.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @param body
+     *            the body
+     * @return the response future
+     */
+    public static CompletableFuture<HttpResponse<String>> postOperationAsync(
+            final DcnmAuthToken dt, final String uri, final String body) {
+        return execute("postOperation", dt, new HttpPost(url(dt, uri)), body);
+    }
+
+    /**
+     * Gets a resource without blocking, streaming the response body instead
+     * of holding it in memory. The request passes through the rate limiter
+     * and circuit breaker and is replayed once on 401, but is not retried.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @return the response future, completed once the response headers have
+     *         arrived
+     */
+    public static CompletableFuture<StreamedResponse> getStreamAsync(
+            final DcnmAuthToken dt, final String uri) {
+        final HttpGet request = new HttpGet(url(dt, uri));
+        final CircuitBreaker breaker = CircuitBreaker.forServer(dt
+                .getServer());
+        final int ticket = breaker.admit();
+        if (ticket < 0) {
+            return failed(new IllegalStateException("Circuit open for "
+                    + dt.getServer()));
+        }
+        return permit(dt, request).thenCompose(
+                new Function<String, CompletionStage<StreamedResponse>>() {
+                    @Override
+                    public CompletionStage<StreamedResponse> apply(
+                            final String token) {
+                        return stream(dt, request, token, true);
+                    }
+                }).whenComplete(
+                new BiConsumer<StreamedResponse, Throwable>() {
+                    @Override
+                    public void accept(final StreamedResponse response,
+                            final Throwable failure) {
+                        if (failure != null || RetryPolicy.isRetryable(
+                                response.getCode())) {
+                            breaker.recordFailure(ticket);
+                        } else {
+                            breaker.recordSuccess(ticket);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Gets a resource, streaming the response body.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @return the response, which must be closed, or null if the request
+     *         could not be made
+     */
+    public static StreamedResponse getStream(final DcnmAuthToken dt,
+            final String uri) {
+        return await(getStreamAsync(dt, uri));
     }
 
     /**
      * Gets the operation.
-     * 
+     *
      * @param dt
      *            the dt
      * @param uri
@@ -45,20 +688,28 @@ public class HttpOperations {
      */
     public static HttpResponse<String> getOperation(final DcnmAuthToken dt,
             final String uri) {
-        HttpResponse<String> response = null;
-        try {
-            response = Unirest.get("http://" + dt.getServer() + uri)
-                    .header("Dcnm-Token", dt.getToken()).asString();
-        } catch (UnirestException e) {
-            return null;
-        }
-        debugLog(response);
-        return response;
+        return await(getOperationAsync(dt, uri));
+    }
+
+    /**
+     * Gets the operation unless it has not changed.
+     *
+     * @param dt
+     *            the dt
+     * @param uri
+     *            the uri
+     * @param etag
+     *            the ETag of the copy already held, or null for none
+     * @return the response, 304 if unchanged
+     */
+    public static HttpResponse<String> getOperation(final DcnmAuthToken dt,
+            final String uri, final String etag) {
+        return await(getOperationAsync(dt, uri, etag));
     }
 
     /**
      * Delete operation.
-     * 
+     *
      * @param dt
      *            the dt
      * @param uri
@@ -69,22 +720,12 @@ public class HttpOperations {
      */
     public static HttpResponse<String> deleteOperation(DcnmAuthToken dt,
             String uri, String body) {
-        HttpResponse<String> response = null;
-        try {
-            response = Unirest.delete("http://" + dt.getServer() + uri)
-                    .header("Dcnm-Token", dt.getToken())
-                    .header("Content-Type", "application/json").body(body)
-                    .asString();
-        } catch (UnirestException e) {
-            return null;
-        }
-        debugLog(response);
-        return response;
+        return await(deleteOperationAsync(dt, uri, body));
     }
 
     /**
      * Put operation.
-     * 
+     *
      * @param dt
      *            the dt
      * @param uri
@@ -95,22 +736,12 @@ public class HttpOperations {
      */
     public static HttpResponse<String> putOperation(DcnmAuthToken dt,
             String uri, String body) {
-        HttpResponse<String> response = null;
-        try {
-            response = Unirest.put("http://" + dt.getServer() + uri)
-                    .header("Dcnm-Token", dt.getToken())
-                    .header("Content-Type", "application/json").body(body)
-                    .asString();
-        } catch (UnirestException e) {
-            return null;
-        }
-        debugLog(response);
-        return response;
+        return await(putOperationAsync(dt, uri, body));
     }
 
     /**
      * Post operation.
-     * 
+     *
      * @param dt
      *            the dt
      * @param uri
@@ -121,19 +752,33 @@ public class HttpOperations {
      */
     public static HttpResponse<String> postOperation(DcnmAuthToken dt,
             String uri, String body) {
-        HttpResponse<String> response = null;
-        String url = "http://" + dt.getServer() + uri;
+        return await(postOperationAsync(dt, uri, body));
+    }
 
-        try {
-            response = Unirest.post(url)
-                    .header("Dcnm-Token", dt.getToken())
-                    .header("Content-Type", "application/json")
-                    .body(body)
-                    .asString();
-        } catch (UnirestException e) {
+    /**
+     * DELETE request carrying a body.
+     */
+    private static final class HttpDeleteWithBody extends
+            HttpEntityEnclosingRequestBase {
+
+        /**
+         * Instantiates a new delete request.
+         *
+         * @param url
+         *            the url
+         */
+        HttpDeleteWithBody(final String url) {
+            setURI(URI.create(url));
         }
-        debugLog(response);
-        return response;
-    }
 
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.http.client.methods.HttpRequestBase#getMethod()
+         */
+        @Override
+        public String getMethod() {
+            return "DELETE";
+        }
+    }
 }
@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeType;
+
+/**
+ * A read-through cache of the nodes and child lists read from one DCNM
+ * server, used by Utils.getNode and Utils.getChildArray. Entries are keyed
+ * by node identity and expire after the TTL; when the cache is full the least
+ * recently used entry is evicted. Writes made through Utils invalidate the
+ * node and its parent's child list.
+ *
+ * There is one cache per server, shared by all tokens for that server. It is
+ * off until a TTL is set. Nodes are copied on the way in and out, so callers
+ * may change the nodes they pass in or get back.
+ *
+ * A read that started before an invalidation must not put its answer back:
+ * callers take a stamp from getGeneration before sending the GET and pass it
+ * when caching the result, which is dropped if an entry it would fill has
+ * been invalidated since.
+ */
+public final class InventoryCache {
+
+    /** Default most entries. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** Initial capacity of the entry map. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of the entry map. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Topology assumed when an identity does not name one. */
+    private static final String DEFAULT_TOPOLOGY = "default";
+
+    /** Caches by server. */
+    private static final ConcurrentMap<String, InventoryCache> CACHES =
+            new ConcurrentHashMap<String, InventoryCache>();
+
+    /** The server. */
+    private final String server;
+
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<Key, Cached> entries =
+            new LinkedHashMap<Key, Cached>(INITIAL_CAPACITY, LOAD_FACTOR,
+                    true) {
+
+                /** Serial version. */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<Key, Cached> eldest) {
+                    if (size() > maxEntries) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * The generation at which each recently invalidated entry was dropped,
+     * oldest first. Bounded like the entries; see floor.
+     */
+    private final LinkedHashMap<Key, Long> invalidated =
+            new LinkedHashMap<Key, Long>(INITIAL_CAPACITY, LOAD_FACTOR) {
+
+                /** Serial version. */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<Key, Long> eldest) {
+                    if (size() > maxEntries) {
+                        floor = eldest.getValue();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /** Invalidations so far. */
+    private long generation;
+
+    /**
+     * The generation of the latest invalidation no longer held in
+     * invalidated. Results stamped before it are dropped, as they may be
+     * stale.
+     */
+    private long floor;
+
+    /** Time to live, in nsec; 0 when the cache is off. */
+    private long ttl;
+
+    /** Most entries. */
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /** Lookups answered from the cache. */
+    private long hits;
+
+    /** Lookups sent to DCNM. */
+    private long misses;
+
+    /** Entries evicted to make room. */
+    private long evictions;
+
+    /**
+     * Instantiates a new cache.
+     *
+     * @param newServer
+     *            the server
+     */
+    private InventoryCache(final String newServer) {
+        server = newServer;
+    }
+
+    /**
+     * Gets the cache for a server.
+     *
+     * @param server
+     *            the DCNM server
+     * @return the cache
+     */
+    public static InventoryCache forServer(final String server) {
+        InventoryCache cache = CACHES.get(server);
+        if (cache == null) {
+            final InventoryCache created = new InventoryCache(server);
+            cache = CACHES.putIfAbsent(server, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Gets the identity an id map names, as a cache key.
+     *
+     * @param id
+     *            the id, with or without a topology name
+     * @return the identity, or null if the id does not name a node
+     */
+    static NodeIdentity identityOf(final Map<String, String> id) {
+        final NodeType type = Node.getType(id);
+        final List<String> attributes = type.getIdentityAttributes();
+        for (final String attribute : attributes) {
+            final String value = id.get(attribute);
+            if ((value == null || value.length() == 0)
+                    && !"topologyName".equals(attribute)) {
+                return null;
+            }
+        }
+        final String topology = id.get("topologyName");
+        if (topology != null && topology.length() > 0) {
+            return new NodeIdentity(type, id);
+        }
+        final Map<String, String> named = new HashMap<String, String>(id);
+        named.put("topologyName", DEFAULT_TOPOLOGY);
+        return new NodeIdentity(type, named);
+    }
+
+    /**
+     * Sets the time to live. A TTL of 0 turns the cache off and empties it.
+     *
+     * @param millis
+     *            the time to live, in msec
+     */
+    public synchronized void setTtl(final long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("TTL cannot be negative.");
+        }
+        ttl = TimeUnit.MILLISECONDS.toNanos(millis);
+        if (ttl == 0) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Gets the time to live.
+     *
+     * @return the time to live, in msec
+     */
+    public synchronized long getTtl() {
+        return TimeUnit.NANOSECONDS.toMillis(ttl);
+    }
+
+    /**
+     * Checks if the cache is on.
+     *
+     * @return true, if a TTL is set
+     */
+    public synchronized boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * Sets the most entries held. Nodes and child lists count one each.
+     *
+     * @param newMaxEntries
+     *            the most entries
+     */
+    public synchronized void setMaxEntries(final int newMaxEntries) {
+        if (newMaxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "Cache must hold at least one entry.");
+        }
+        maxEntries = newMaxEntries;
+        while (entries.size() > maxEntries) {
+            final Key eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            evictions++;
+        }
+        while (invalidated.size() > maxEntries) {
+            final Key eldest = invalidated.keySet().iterator().next();
+            floor = invalidated.remove(eldest);
+        }
+    }
+
+    /**
+     * Gets the most entries held.
+     *
+     * @return the most entries
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Looks up a node.
+     *
+     * @param id
+     *            the node's identity
+     * @return a copy of the node, or null if it is not cached
+     */
+    public Node getNode(final NodeIdentity id) {
+        final Node node = (Node) lookup(new Key(id, false));
+        return node == null ? null : new Node(node);
+    }
+
+    /**
+     * Looks up a child list.
+     *
+     * @param parent
+     *            the parent's identity
+     * @return copies of the children, or null if they are not cached
+     */
+    public Node[] getChildren(final NodeIdentity parent) {
+        final Node[] children = (Node[]) lookup(new Key(parent, true));
+        return children == null ? null : copy(children);
+    }
+
+    /**
+     * Gets the current generation, to stamp a read from DCNM with before it
+     * is sent.
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a node read from DCNM.
+     *
+     * @param node
+     *            the node
+     * @param stamp
+     *            the generation taken before the node was read
+     */
+    public synchronized void cacheNode(final Node node, final long stamp) {
+        store(new Key(node.getIdentity(), false), new Node(node), stamp);
+    }
+
+    /**
+     * Caches a child list read from DCNM, and each child as a node.
+     *
+     * @param parent
+     *            the parent's identity
+     * @param children
+     *            the children
+     * @param stamp
+     *            the generation taken before the children were read
+     */
+    public synchronized void cacheChildren(final NodeIdentity parent,
+            final Node[] children, final long stamp) {
+        final Node[] copies = copy(children);
+        store(new Key(parent, true), copies, stamp);
+        for (final Node child : copies) {
+            store(new Key(child.getIdentity(), false), child, stamp);
+        }
+    }
+
+    /**
+     * Invalidates a node after it is written: the node, its child list and
+     * its parent's child list are dropped.
+     *
+     * @param id
+     *            the node's identity
+     */
+    public synchronized void invalidate(final NodeIdentity id) {
+        generation++;
+        drop(new Key(id, false));
+        drop(new Key(id, true));
+        if (id.getParent() != null) {
+            drop(new Key(id.getParent(), true));
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        invalidated.clear();
+        floor = generation;
+    }
+
+    /**
+     * Drops an entry and records the generation at which it was dropped.
+     *
+     * @param key
+     *            the key
+     */
+    private void drop(final Key key) {
+        entries.remove(key);
+        // Re-inserted so that the most recent invalidations are kept
+        invalidated.remove(key);
+        invalidated.put(key, generation);
+    }
+
+    /**
+     * Copies nodes.
+     *
+     * @param nodes
+     *            the nodes
+     * @return the copies
+     */
+    private static Node[] copy(final Node[] nodes) {
+        final Node[] copies = new Node[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            copies[i] = new Node(nodes[i]);
+        }
+        return copies;
+    }
+
+    /**
+     * Looks up an entry, dropping it if it has expired.
+     *
+     * @param key
+     *            the key
+     * @return the value, or null on a miss
+     */
+    private synchronized Object lookup(final Key key) {
+        final Cached entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expires < 0) {
+            hits++;
+            return entry.value;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores an entry if the cache is on and the entry has not been
+     * invalidated since the value was read.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param stamp
+     *            the generation taken before the value was read
+     */
+    private void store(final Key key, final Object value, final long stamp) {
+        final Long dropped = invalidated.get(key);
+        if (ttl > 0 && stamp >= floor
+                && (dropped == null || stamp >= dropped)) {
+            entries.put(key, new Cached(value, System.nanoTime() + ttl));
+        }
+    }
+
+    /**
+     * Gets the server.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups not answered from the cache.
+     *
+     * @return the misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of entries evicted to make room.
+     *
+     * @return the evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of entries held, including any expired but not yet
+     * dropped.
+     *
+     * @return the size
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Clears the hit, miss and eviction counters.
+     */
+    public synchronized void resetMetrics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "InventoryCache[server=" + server + ",ttl=" + getTtl()
+                + ",size=" + entries.size() + ",hits=" + hits + ",misses="
+                + misses + ",evictions=" + evictions + "]";
+    }
+
+    /**
+     * A cache key: a node, or a parent's child list.
+     */
+    private static final class Key {
+
+        /** The identity. */
+        private final NodeIdentity id;
+
+        /** Whether this is the child list of the node. */
+        private final boolean children;
+
+        /**
+         * Instantiates a new key.
+         *
+         * @param newId
+         *            the identity
+         * @param newChildren
+         *            whether this is the child list of the node
+         */
+        Key(final NodeIdentity newId, final boolean newChildren) {
+            id = newId;
+            children = newChildren;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return children ? ~id.hashCode() : id.hashCode();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return children == other.children && id.equals(other.id);
+        }
+    }
+
+    /**
+     * A cached value and its expiry time.
+     */
+    private static final class Cached {
+
+        /** The value. */
+        private final Object value;
+
+        /** The expiry time, in nsec. */
+        private final long expires;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param newValue
+         *            the value
+         * @param newExpires
+         *            the expiry time, in nsec
+         */
+        Cached(final Object newValue, final long newExpires) {
+            value = newValue;
+            expires = newExpires;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeJson;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a JSON array of DCNM objects one Node at a time, so that only the
+ * current Node is held in memory however long the array is.
+ *
+ * Values are read as NodeJson reads them. Read errors, an element that is not
+ * an object and an array that is not closed are thrown as
+ * IllegalStateException, so a listing is never silently cut short.
+ */
+public class NodeReader implements Iterator<Node>, Closeable {
+
+    /** The JSON parser. */
+    private final JsonParser parser;
+
+    /** Whether the opening bracket has been read. */
+    private boolean started;
+
+    /** Whether the parser is positioned at the next object. */
+    private boolean ready;
+
+    /** Whether the closing bracket has been read. */
+    private boolean ended;
+
+    /**
+     * Instantiates a new node reader.
+     *
+     * @param in
+     *            the JSON array
+     */
+    public NodeReader(final Reader in) {
+        try {
+            parser = NodeJson.parser(in);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read nodes", e);
+        }
+    }
+
+    /**
+     * Instantiates a new node reader.
+     *
+     * @param in
+     *            the JSON array, in UTF-8
+     */
+    public NodeReader(final InputStream in) {
+        try {
+            parser = NodeJson.parser(in);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read nodes", e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public final boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        try {
+            if (!started) {
+                started = true;
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IllegalStateException(
+                            "Expected a JSON array of nodes");
+                }
+            }
+            final JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY) {
+                ended = true;
+                return false;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("Expected a node but found "
+                        + token);
+            }
+            ready = true;
+            return true;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read nodes", e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public final Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        try {
+            return new Node(NodeJson.readData(parser));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read nodes", e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public final void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public final void close() throws IOException {
+        parser.close();
+    }
+}
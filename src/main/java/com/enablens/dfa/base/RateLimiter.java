@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limits on the requests sent to one DCNM server.
+ *
+ * A limit can be set for all verbs together (ALL_VERBS) and for each HTTP
+ * verb; a request must get a permit from both. Requests over the limit are
+ * not rejected but delayed until a permit is free, and the delays are
+ * counted so the queue wait can be watched. Up to the burst size of permits
+ * are saved while the server is quiet. There is one limiter per server, shared
+ * by all tokens for that server; no limit is set by default.
+ */
+public final class RateLimiter {
+
+    /** Verb key for the limit shared by all verbs. */
+    public static final String ALL_VERBS = "*";
+
+    /** Limiters by server. */
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS =
+            new ConcurrentHashMap<String, RateLimiter>();
+
+    /** The server. */
+    private final String server;
+
+    /** Buckets by verb. */
+    private final ConcurrentMap<String, Bucket> buckets =
+            new ConcurrentHashMap<String, Bucket>();
+
+    /** Requests that had to wait for a permit. */
+    private final AtomicLong queued = new AtomicLong();
+
+    /** Total queue wait, in nsec. */
+    private final AtomicLong totalWait = new AtomicLong();
+
+    /** Longest queue wait, in nsec. */
+    private final AtomicLong maxWait = new AtomicLong();
+
+    /**
+     * Instantiates a new limiter.
+     *
+     * @param newServer
+     *            the server
+     */
+    private RateLimiter(final String newServer) {
+        server = newServer;
+    }
+
+    /**
+     * Gets the limiter for a server.
+     *
+     * @param server
+     *            the DCNM server
+     * @return the limiter
+     */
+    public static RateLimiter forServer(final String server) {
+        RateLimiter limiter = LIMITERS.get(server);
+        if (limiter == null) {
+            final RateLimiter created = new RateLimiter(server);
+            limiter = LIMITERS.putIfAbsent(server, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets a rate limit.
+     *
+     * @param verb
+     *            the HTTP verb, e.g. GET, or ALL_VERBS
+     * @param permitsPerSecond
+     *            the sustained request rate
+     * @param burst
+     *            the most requests sent at once after a quiet period
+     */
+    public void setRate(final String verb, final double permitsPerSecond,
+            final int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive.");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1.");
+        }
+        buckets.put(verb.toUpperCase(), new Bucket(permitsPerSecond, burst));
+    }
+
+    /**
+     * Removes a rate limit.
+     *
+     * @param verb
+     *            the HTTP verb, e.g. GET, or ALL_VERBS
+     */
+    public void removeRate(final String verb) {
+        buckets.remove(verb.toUpperCase());
+    }
+
+    /**
+     * Reserves a permit for a request.
+     *
+     * @param verb
+     *            the HTTP verb
+     * @return the time to wait before sending, in msec
+     */
+    public long reserve(final String verb) {
+        long wait = 0;
+        final Bucket all = buckets.get(ALL_VERBS);
+        if (all != null) {
+            wait = all.reserve();
+        }
+        final Bucket own = buckets.get(verb.toUpperCase());
+        if (own != null) {
+            wait = Math.max(wait, own.reserve());
+        }
+        if (wait > 0) {
+            queued.incrementAndGet();
+            totalWait.addAndGet(wait);
+            long max;
+            do {
+                max = maxWait.get();
+            } while (wait > max && !maxWait.compareAndSet(max, wait));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(wait);
+    }
+
+    /**
+     * Gets the server.
+     *
+     * @return the server
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the number of requests that waited for a permit.
+     *
+     * @return the queued requests
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Gets the total queue wait.
+     *
+     * @return the total wait in msec
+     */
+    public long getTotalWait() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWait.get());
+    }
+
+    /**
+     * Gets the longest queue wait.
+     *
+     * @return the longest wait in msec
+     */
+    public long getMaxWait() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWait.get());
+    }
+
+    /**
+     * Clears the queue wait counters.
+     */
+    public void resetMetrics() {
+        queued.set(0);
+        totalWait.set(0);
+        maxWait.set(0);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "RateLimiter[server=" + server + ",limits=" + buckets.keySet()
+                + ",queued=" + getQueued() + ",totalWait=" + getTotalWait()
+                + ",maxWait=" + getMaxWait() + "]";
+    }
+
+    /**
+     * A token bucket. A request arriving when the bucket is empty reserves
+     * the next permit to be added and waits for it, so waiting requests are
+     * served in arrival order.
+     */
+    private static final class Bucket {
+
+        /** Nsec per second. */
+        private static final double NSEC_PER_SEC = 1e9;
+
+        /** Nsec between permits. */
+        private final double interval;
+
+        /** Most permits saved. */
+        private final double burst;
+
+        /** Saved permits. */
+        private double stored;
+
+        /** When the next permit is free, in System.nanoTime terms. */
+        private long nextFree = System.nanoTime();
+
+        /**
+         * Instantiates a new bucket, initially full.
+         *
+         * @param permitsPerSecond
+         *            the rate
+         * @param newBurst
+         *            the most permits saved
+         */
+        Bucket(final double permitsPerSecond, final int newBurst) {
+            interval = NSEC_PER_SEC / permitsPerSecond;
+            burst = newBurst;
+            stored = newBurst;
+        }
+
+        /**
+         * Takes a permit.
+         *
+         * @return the wait until the permit is free, in nsec
+         */
+        synchronized long reserve() {
+            final long now = System.nanoTime();
+            if (now > nextFree) {
+                stored = Math.min(burst, stored + (now - nextFree)
+                        / interval);
+                nextFree = now;
+            }
+            final double spent = Math.min(1.0, stored);
+            stored -= spent;
+            nextFree += (long) ((1.0 - spent) * interval);
+            return nextFree - now;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * When and how long to wait before resending an idempotent request (GET, PUT,
+ * DELETE) that failed to connect or was refused because DCNM is busy.
+ *
+ * Delays grow exponentially from the base delay up to the maximum, and the
+ * actual delay is picked at random below that bound ("full jitter") so that
+ * many clients backing off together do not retry in step. A Retry-After
+ * header from DCNM is honoured, up to the maximum delay.
+ */
+public class RetryPolicy {
+
+    /** Default attempts, including the first. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+    /** Default base delay in msec. */
+    public static final long DEFAULT_BASE_DELAY = 100L;
+
+    /** Default maximum delay in msec. */
+    public static final long DEFAULT_MAX_DELAY = 10000L;
+
+    /** Too Many Requests HTTP Response Code. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** Bad Gateway HTTP Response Code. */
+    private static final int HTTP_BAD_GATEWAY = 502;
+
+    /** Service Unavailable HTTP Response Code. */
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    /** Gateway Timeout HTTP Response Code. */
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    /** Msec per second, for Retry-After. */
+    private static final long MSEC_PER_SEC = 1000L;
+
+    /** Longest shift before the exponential delay would overflow. */
+    private static final int MAX_SHIFT = 30;
+
+    /** Attempts, including the first. 1 disables retries. */
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    /** Delay bound before the first retry. */
+    private long baseDelay = DEFAULT_BASE_DELAY;
+
+    /** Upper bound on any delay. */
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    /**
+     * Checks whether a response means DCNM is busy or unavailable and the
+     * request may succeed later.
+     *
+     * @param code
+     *            the HTTP response code
+     * @return true if the request may be retried
+     */
+    public static boolean isRetryable(final int code) {
+        return code == HTTP_TOO_MANY_REQUESTS || code == HTTP_BAD_GATEWAY
+                || code == HTTP_UNAVAILABLE || code == HTTP_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Works out the delay before a retry.
+     *
+     * @param attempt
+     *            the attempt that failed, starting at 1
+     * @param retryAfter
+     *            the Retry-After header value, or null
+     * @return the delay in msec
+     */
+    public final long delay(final int attempt, final String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return Math.min(maxDelay, Math.max(0L,
+                        Long.parseLong(retryAfter.trim()) * MSEC_PER_SEC));
+            } catch (final NumberFormatException e) {
+                // An HTTP date; fall back to backoff
+            }
+        }
+        final long bound = Math.min(maxDelay,
+                baseDelay << Math.min(attempt - 1, MAX_SHIFT));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Gets the attempts.
+     *
+     * @return the attempts, including the first
+     */
+    public final int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the attempts.
+     *
+     * @param newMaxAttempts
+     *            the attempts, including the first; 1 disables retries
+     */
+    public final void setMaxAttempts(final int newMaxAttempts) {
+        if (newMaxAttempts < 1) {
+            throw new IllegalArgumentException(
+                    "Attempts must be at least 1.");
+        }
+        maxAttempts = newMaxAttempts;
+    }
+
+    /**
+     * Gets the base delay.
+     *
+     * @return the base delay in msec
+     */
+    public final long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Sets the base delay.
+     *
+     * @param newBaseDelay
+     *            the base delay in msec
+     */
+    public final void setBaseDelay(final long newBaseDelay) {
+        if (newBaseDelay < 0) {
+            throw new IllegalArgumentException(
+                    "Base delay must not be negative.");
+        }
+        baseDelay = newBaseDelay;
+    }
+
+    /**
+     * Gets the maximum delay.
+     *
+     * @return the maximum delay in msec
+     */
+    public final long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Sets the maximum delay.
+     *
+     * @param newMaxDelay
+     *            the maximum delay in msec
+     */
+    public final void setMaxDelay(final long newMaxDelay) {
+        if (newMaxDelay < 0) {
+            throw new IllegalArgumentException(
+                    "Maximum delay must not be negative.");
+        }
+        maxDelay = newMaxDelay;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public final String toString() {
+        return ToStringBuilder.reflectionToString(this,
+                ToStringStyle.SHORT_PREFIX_STYLE);
+    }
+}
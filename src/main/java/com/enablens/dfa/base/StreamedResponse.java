@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An HTTP response whose body is read as it arrives instead of being held in
+ * memory. Only a small buffer of the body is held at any time; reading is
+ * paused at the socket while the buffer is full. The body must be read or the
+ * response closed, or the connection is not released.
+ */
+public class StreamedResponse implements Closeable {
+
+    /** The HTTP response code. */
+    private final int code;
+
+    /** The body. */
+    private final InputStream body;
+
+    /**
+     * Instantiates a new streamed response.
+     *
+     * @param newCode
+     *            the HTTP response code
+     * @param newBody
+     *            the body
+     */
+    StreamedResponse(final int newCode, final InputStream newBody) {
+        code = newCode;
+        body = newBody;
+    }
+
+    /**
+     * Gets the HTTP response code.
+     *
+     * @return the code
+     */
+    public final int getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the body. Reads block until data arrives, so they must not be made
+     * on the client's I/O thread.
+     *
+     * @return the body stream
+     */
+    public final InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Closes the body, abandoning any part not yet read.
+     *
+     * @throws IOException
+     *             if the body cannot be closed
+     */
+    @Override
+    public final void close() throws IOException {
+        body.close();
+    }
+}
@@ -3,17 +3,25 @@
  */
 package com.enablens.dfa.base;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeFingerprint;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeJson;
 import com.enablens.dfa.datastructures.NodeType;
-import com.google.gson.Gson;
 import com.mashape.unirest.http.HttpResponse;
 
 /**
@@ -36,6 +44,15 @@ public final class Utils {
         }
     }
 
+    /** OK HTTP Response Code. */
+    private static final int HTTP_OK = 200;
+
+    /** Lowest HTTP Response Code that is not a success. */
+    private static final int HTTP_NOT_SUCCESS = 300;
+
+    /** Not Modified HTTP Response Code. */
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     /** The Constant log. */
     private static final Logger LOG = LoggerFactory.getLogger(Utils.class);
 
@@ -108,10 +125,13 @@ public final class Utils {
      * Uri builder.
      * 
      * @param operation
-     *            the operation
+     *            the operation: "list" or "create" for the node's children,
+     *            or "get", "update" or "delete" for the node itself
      * @param identity
      *            the identity
      * @return the string
+     * @throws IllegalArgumentException
+     *             if the operation is not one of these
      */
     public static String uriBuilder(final String operation,
             final Map<String, String> identity) {
@@ -121,23 +141,19 @@ public final class Utils {
         if (!("null".equals(idString))) {
             uri.append(idString);
         }
-        if (operation.equals("list")) {
-            uri.append("/");
-            uri.append(Node.getType(identity).getChildType().toString()
-                    .toLowerCase());
-            uri.append("s?detail=true");
-        }
-        if (operation.equals("create")) {
+        if (operation.equals("list") || operation.equals("create")) {
             uri.append("/");
             uri.append(Node.getType(identity).getChildType().toString()
                     .toLowerCase());
             uri.append("s");
-        }
-
-        if (operation.equals("get")) {
-        }
-
-        if (operation.equals("delete")) {
+            if (operation.equals("list")) {
+                uri.append("?detail=true");
+            }
+        } else if (!operation.equals("get") && !operation.equals("update")
+                && !operation.equals("delete")) {
+            // get, update and delete all address the node itself
+            throw new IllegalArgumentException("Unknown operation: "
+                    + operation);
         }
         debugLog(String.valueOf(uri));
 
@@ -158,15 +174,151 @@ public final class Utils {
         return getChildArray(dt, parent.getId());
     }
 
+    /**
+     * List children, from the inventory cache when it is on.
+     * 
+     * @param dt
+     *            the dt
+     * @param parentId
+     *            the parent id
+     * @return the node[]
+     */
     public static Node[] getChildArray(final DcnmAuthToken dt,
             final Map<String, String> parentId) {
+        final InventoryCache cache = InventoryCache.forServer(dt.getServer());
+        final NodeIdentity parent = cache.isEnabled() ? InventoryCache
+                .identityOf(parentId) : null;
+        if (parent != null) {
+            final Node[] cached = cache.getChildren(parent);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final long stamp = cache.getGeneration();
         String uri = uriBuilder("list", parentId);
-        String nodesInJson = HttpOperations.getOperation(dt, uri).getBody();
+        final HttpResponse<String> response = HttpOperations.getOperation(dt,
+                uri);
+        if (response == null || response.getCode() != HTTP_OK) {
+            throw new IllegalStateException("Unable to list " + uri + ": "
+                    + (response == null ? "no response" : response.getCode()));
+        }
+        String nodesInJson = response.getBody();
         Node[] nodes = getNodesFromJson(nodesInJson);
+        if (parent != null) {
+            cache.cacheChildren(parent, nodes, stamp);
+        }
         debugLog(Arrays.toString(nodes));
         return nodes;
     }
 
+    /**
+     * Lists children again, unless the listing is unchanged since an earlier
+     * one. The earlier ETag is sent so that DCNM can answer 304 without a
+     * body; where DCNM does not support ETags, the body's digest is compared
+     * instead and the children are only read if it differs. The inventory
+     * cache is not used.
+     * 
+     * @param dt
+     *            the dt
+     * @param parentId
+     *            the parent id
+     * @param etag
+     *            the earlier listing's ETag, or null
+     * @param digest
+     *            the earlier listing's digest, or null
+     * @return the listing
+     */
+    public static ChildListing getChildListing(final DcnmAuthToken dt,
+            final Map<String, String> parentId, final String etag,
+            final String digest) {
+        final String uri = uriBuilder("list", parentId);
+        final HttpResponse<String> response = HttpOperations.getOperation(dt,
+                uri, etag);
+        if (response != null && response.getCode() == HTTP_NOT_MODIFIED
+                && etag != null) {
+            return new ChildListing(false, etag, digest, null);
+        }
+        if (response == null || response.getCode() != HTTP_OK) {
+            throw new IllegalStateException("Unable to list " + uri + ": "
+                    + (response == null ? "no response" : response.getCode()));
+        }
+        final String newEtag = HttpOperations.header(response, "ETag");
+        final String newDigest = DigestUtils.md5Hex(response.getBody());
+        if (newDigest.equals(digest)) {
+            return new ChildListing(false, newEtag, newDigest, null);
+        }
+        return new ChildListing(true, newEtag, newDigest,
+                getNodesFromJson(response.getBody()));
+    }
+
+    /**
+     * Streams the children of a node to a consumer as they are read, holding
+     * only one child in memory at a time. The inventory cache is not used.
+     * 
+     * @param dt
+     *            the dt
+     * @param parentId
+     *            the parent id
+     * @param consumer
+     *            receives each child
+     * @return the number of children
+     */
+    public static int forEachChild(final DcnmAuthToken dt,
+            final Map<String, String> parentId, final Consumer<Node> consumer) {
+        int count = 0;
+        final NodeReader children = childIterator(dt, parentId);
+        try {
+            while (children.hasNext()) {
+                consumer.accept(children.next());
+                count++;
+            }
+        } finally {
+            closeQuietly(children);
+        }
+        debugLog(String.valueOf(count));
+        return count;
+    }
+
+    /**
+     * Lists the children of a node, reading them from the response as the
+     * iterator is advanced. The iterator must be closed.
+     * 
+     * @param dt
+     *            the dt
+     * @param parentId
+     *            the parent id
+     * @return the children
+     */
+    public static NodeReader childIterator(final DcnmAuthToken dt,
+            final Map<String, String> parentId) {
+        final String uri = uriBuilder("list", parentId);
+        final StreamedResponse response = HttpOperations.getStream(dt, uri);
+        if (response == null) {
+            throw new IllegalStateException("Unable to list " + uri
+                    + ": no response");
+        }
+        if (response.getCode() != HTTP_OK) {
+            closeQuietly(response);
+            throw new IllegalStateException("Unable to list " + uri + ": "
+                    + response.getCode());
+        }
+        return new NodeReader(response.getBody());
+    }
+
+    /**
+     * Closes a stream, logging any failure.
+     * 
+     * @param closeable
+     *            the stream
+     */
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            LOG.debug("Unable to close: {}", e.getMessage());
+        }
+    }
+
     /**
      * 
      * @param nodesAsJson
@@ -174,15 +326,14 @@ public final class Utils {
      * @return array of new Nodes
      */
     public static Node[] getNodesFromJson(final String nodesAsJson) {
-        @SuppressWarnings("unchecked")
-        Map<String, String>[] datas = new Gson().fromJson(nodesAsJson.trim(),
-                HashMap[].class);
-        Node[] nodes = new Node[datas.length];
-        for (int i = 0; i < datas.length; i++) {
-            nodes[i] = new Node(datas[i]);
+        final List<Node> nodes = new ArrayList<Node>();
+        final NodeReader reader = new NodeReader(new StringReader(
+                nodesAsJson));
+        while (reader.hasNext()) {
+            nodes.add(reader.next());
         }
-        debugLog(Arrays.toString(nodes));
-        return nodes;
+        debugLog(String.valueOf(nodes));
+        return nodes.toArray(new Node[nodes.size()]);
     }
 
     /**
@@ -193,9 +344,7 @@ public final class Utils {
      * @return new Node
      */
     public static Node getNodeFromJson(final String nodeAsJson) {
-        @SuppressWarnings("unchecked")
-        Map<String, String> rawNode = new Gson().fromJson(nodeAsJson.trim(),
-                HashMap.class);
+        Map<String, String> rawNode = NodeJson.readData(nodeAsJson);
         Node node = new Node(rawNode);
         LOG.debug(Thread.currentThread().getStackTrace()[1].getMethodName()
                 + " debug output");
@@ -216,7 +365,8 @@ public final class Utils {
      *            the parent id
      * @param node
      *            the child
-     * @return true, if successful
+     * @return the node as created on DCNM, or null if DCNM did not accept the
+     *         create, e.g. because the node already exists
      */
     public static Node putNode(final DcnmAuthToken dt, Node node) {
         Map<String, String> parentId = node.getParentId();
@@ -224,7 +374,14 @@ public final class Utils {
             return null;
         }
         final String uri = uriBuilder("create", parentId);
-        HttpOperations.postOperation(dt, uri, node.getDataAsJson());
+        final HttpResponse<String> response = HttpOperations.postOperation(dt,
+                uri, node.getDataAsJson());
+        if (response == null || response.getCode() < HTTP_OK
+                || response.getCode() >= HTTP_NOT_SUCCESS) {
+            return null;
+        }
+        InventoryCache.forServer(dt.getServer()).invalidate(
+                node.getIdentity());
         node = getNode(dt, node.getId());
         debugLog(String.valueOf(node));
         return node;
@@ -232,7 +389,7 @@ public final class Utils {
     }
 
     /**
-     * Gets the node.
+     * Gets the node, from the inventory cache when it is on.
      * 
      * @param dt
      *            the dt
@@ -242,13 +399,22 @@ public final class Utils {
      */
     public static Node getNode(final DcnmAuthToken dt,
             final Map<String, String> id) {
-        Node node = null;
+        final InventoryCache cache = InventoryCache.forServer(dt.getServer());
+        final NodeIdentity identity = cache.isEnabled() ? InventoryCache
+                .identityOf(id) : null;
+        Node node = identity == null ? null : cache.getNode(identity);
+        if (node != null) {
+            return node;
+        }
+        final long stamp = cache.getGeneration();
         final String uri = uriBuilder("get", id);
         final HttpResponse<String> response = HttpOperations.getOperation(dt,
                 uri);
-        final String nodeAsJson = response.getBody();
-        if (response.getCode() == 200) {
-            node = getNodeFromJson(nodeAsJson);
+        if (response != null && response.getCode() == HTTP_OK) {
+            node = getNodeFromJson(response.getBody());
+            if (identity != null) {
+                cache.cacheNode(node, stamp);
+            }
         }
         debugLog(String.valueOf(node));
         return node;
@@ -268,24 +434,39 @@ public final class Utils {
         String uri = uriBuilder("delete", nodeId);
         HttpResponse<String> response = HttpOperations.deleteOperation(dt, uri,
                 "");
+        if (response == null) {
+            throw new IllegalStateException("Unable to delete " + uri);
+        }
         responseCode = response.getCode();
+        final NodeIdentity identity = InventoryCache.identityOf(nodeId);
+        if (identity != null) {
+            InventoryCache.forServer(dt.getServer()).invalidate(identity);
+        }
         debugLog(String.valueOf(responseCode));
         return responseCode;
     }
 
     /**
-     * The main method.
+     * Gets the MD5 of a node's JSON, as earlier versions gave it; see
+     * Md5Fingerprint. NodeFingerprint.MURMUR is much faster where only a
+     * change is to be seen.
      * 
-     * @param args
-     *            the arguments
+     * @param node
+     *            the node
+     * @return the MD5, as hex
      */
-
     public static String nodeMd5(Node node) {
-        String md5String = DigestUtils.md5Hex(node.getDataAsJson());
+        String md5String = NodeFingerprint.MD5.fingerprint(node);
         debugLog(String.valueOf(md5String));
         return md5String;
     }
 
+    /**
+     * The main method.
+     * 
+     * @param args
+     *            the arguments
+     */
     public static void main(final String[] args) {
         DcnmAuthToken dt = new DcnmAuthToken("192.168.22.3", "admin",
                 "Abcd1234", 10000L);
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A network's configArg, such as
+ * "$vlanId=101;$segmentId=34000;$vrfName=Green:Data1", parsed into a map of
+ * parameter names, without the "$", to values. Parameters are split on ";"
+ * and each at its first "=".
+ *
+ * Parsing does not copy the string: only the bounds of each value are kept,
+ * and a value is cut out when it is read. getInt reads a number in place.
+ * Parameter names are interned, and a name seen before is found without
+ * copying it, so a fabric's configArgs share one copy of each name.
+ *
+ * This is a read-only Map in the order of the configArg. It is immutable
+ * and thread safe. Node.getConfigArgs keeps the parsed form of its node's
+ * configArg.
+ */
+public final class ConfigArgs extends AbstractMap<String, String> {
+
+    /** The empty configArg. */
+    public static final ConfigArgs EMPTY = new ConfigArgs("", new String[0],
+            new int[0]);
+
+    /** Slots in the name table; a power of two. */
+    private static final int NAME_SLOTS = 512;
+
+    /** Slots probed for a name before falling back to the interner. */
+    private static final int MAX_PROBES = 8;
+
+    /** Most digits read as an int, so that no value can overflow. */
+    private static final int MAX_DIGITS = 9;
+
+    /** Names seen so far, by hash. Names are added but never removed. */
+    private static final AtomicReferenceArray<String> NAMES =
+            new AtomicReferenceArray<String>(NAME_SLOTS);
+
+    /** The interner for names. */
+    private static final Interner<String> INTERNER = Interners
+            .newWeakInterner();
+
+    /** The configArg. */
+    private final String source;
+
+    /** The parameter names, interned. */
+    private final String[] names;
+
+    /** The start and end of each value in source. */
+    private final int[] bounds;
+
+    /**
+     * Instantiates parsed configArgs.
+     *
+     * @param newSource
+     *            the configArg
+     * @param newNames
+     *            the parameter names
+     * @param newBounds
+     *            the start and end of each value
+     */
+    private ConfigArgs(final String newSource, final String[] newNames,
+            final int[] newBounds) {
+        source = newSource;
+        names = newNames;
+        bounds = newBounds;
+    }
+
+    /**
+     * Parses a configArg.
+     *
+     * @param configArg
+     *            the configArg, or null
+     * @return the parameters
+     */
+    public static ConfigArgs parse(final String configArg) {
+        if (configArg == null || configArg.length() == 0) {
+            return EMPTY;
+        }
+        final int length = configArg.length();
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (configArg.charAt(i) == ';') {
+                count++;
+            }
+        }
+        final String[] names = new String[count];
+        final int[] bounds = new int[count * 2];
+        int n = 0;
+        int start = 0;
+        while (start < length) {
+            int end = configArg.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+            int nameStart = start;
+            if (nameStart < end && configArg.charAt(nameStart) == '$') {
+                nameStart++;
+            }
+            int equals = configArg.indexOf('=', nameStart);
+            if (equals < 0 || equals > end) {
+                equals = end;
+            }
+            if (equals > nameStart) {
+                names[n] = name(configArg, nameStart, equals);
+                bounds[2 * n] = Math.min(equals + 1, end);
+                bounds[2 * n + 1] = end;
+                n++;
+            }
+            start = end + 1;
+        }
+        if (n == count) {
+            return new ConfigArgs(configArg, names, bounds);
+        }
+        final String[] trimmedNames = new String[n];
+        final int[] trimmedBounds = new int[2 * n];
+        System.arraycopy(names, 0, trimmedNames, 0, n);
+        System.arraycopy(bounds, 0, trimmedBounds, 0, 2 * n);
+        return new ConfigArgs(configArg, trimmedNames, trimmedBounds);
+    }
+
+    /**
+     * Formats parameters as a configArg, in the map's order. Null values are
+     * written as empty.
+     *
+     * @param parameters
+     *            the parameter names, without the "$", and values
+     * @return the configArg
+     */
+    public static String format(final Map<String, String> parameters) {
+        if (parameters instanceof ConfigArgs) {
+            return ((ConfigArgs) parameters).source;
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append('$').append(entry.getKey()).append('=');
+            if (entry.getValue() != null) {
+                sb.append(entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the interned name in part of a string, copying it only the first
+     * time it is seen.
+     *
+     * @param s
+     *            the string
+     * @param start
+     *            the start of the name
+     * @param end
+     *            the end of the name
+     * @return the name
+     */
+    static String name(final String s, final int start, final int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        h ^= h >>> 16;
+        final int length = end - start;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int slot = (h + probe) & (NAME_SLOTS - 1);
+            String name = NAMES.get(slot);
+            if (name == null) {
+                final String interned = INTERNER.intern(s.substring(start,
+                        end));
+                if (NAMES.compareAndSet(slot, null, interned)) {
+                    return interned;
+                }
+                name = NAMES.get(slot);
+            }
+            if (name.length() == length
+                    && s.regionMatches(start, name, 0, length)) {
+                return name;
+            }
+        }
+        return INTERNER.intern(s.substring(start, end));
+    }
+
+    /**
+     * Gets a parameter's index.
+     *
+     * @param name
+     *            the parameter name
+     * @return the index, or -1 if there is no such parameter
+     */
+    private int indexOf(final Object name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cuts out a value.
+     *
+     * @param i
+     *            the parameter's index
+     * @return the value
+     */
+    private String value(final int i) {
+        return source.substring(bounds[2 * i], bounds[2 * i + 1]);
+    }
+
+    /**
+     * Gets the configArg these parameters were parsed from.
+     *
+     * @return the configArg
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Gets a parameter as an int, read in place.
+     *
+     * @param name
+     *            the parameter name
+     * @param defaultValue
+     *            the value if the parameter is missing or not a number
+     * @return the value
+     */
+    public int getInt(final String name, final int defaultValue) {
+        final int i = indexOf(name);
+        if (i < 0) {
+            return defaultValue;
+        }
+        final int start = bounds[2 * i];
+        final int end = bounds[2 * i + 1];
+        if (end == start || end - start > MAX_DIGITS) {
+            return defaultValue;
+        }
+        int n = 0;
+        for (int c = start; c < end; c++) {
+            final int digit = source.charAt(c) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            n = n * 10 + digit;
+        }
+        return n;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public String get(final Object name) {
+        final int i = indexOf(name);
+        return i < 0 ? null : value(i);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(final Object name) {
+        return indexOf(name) >= 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+
+                    /** The next index. */
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < names.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final int i = next++;
+                        return new SimpleImmutableEntry<String, String>(
+                                names[i], value(i));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException(
+                                "ConfigArgs are read-only.");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.HashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.google.gson.Gson;
+
+/**
+ * Fingerprints a node as the MD5 of its JSON, written as versions before the
+ * shared Jackson mapper and the compact slot layout wrote it: by Gson, with
+ * its escaping, from a HashMap of the data in that map's order. MD5s stored
+ * by those versions still match. It is slow, as the data is copied and
+ * written out as JSON before it is hashed.
+ */
+public final class Md5Fingerprint implements NodeFingerprint {
+
+    /** Writes the JSON as earlier versions did. */
+    private static final Gson GSON = new Gson();
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.enablens.dfa.datastructures.NodeFingerprint#fingerprint(
+     * com.enablens.dfa.datastructures.Node)
+     */
+    @Override
+    public String fingerprint(final Node node) {
+        return DigestUtils.md5Hex(GSON.toJson(new HashMap<String, String>(
+                node.getData())));
+    }
+}
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.Map;
+
+/**
+ * Fingerprints a node with a 64-bit hash in the style of MurmurHash3, taken
+ * straight over the attribute names and values without writing out JSON.
+ * Each attribute is hashed on its own and the attribute hashes are summed,
+ * so the order of the data does not matter. Numeric values held as ints are
+ * hashed as their digits, so a Node and a plain map of the same data give
+ * the same hash. A null value hashes differently from an empty one.
+ *
+ * This is not a cryptographic hash and must not be used where data may be
+ * crafted to collide.
+ */
+public final class MurmurFingerprint implements NodeFingerprint {
+
+    /** The seed. */
+    private static final long SEED = 0x9747b28cL;
+
+    /** First block multiplier. */
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    /** Second block multiplier. */
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /** First finalizer multiplier. */
+    private static final long F1 = 0xff51afd7ed558ccdL;
+
+    /** Second finalizer multiplier. */
+    private static final long F2 = 0xc4ceb9fe1a85ec53L;
+
+    /** Block rotation. */
+    private static final int R1 = 31;
+
+    /** State rotation. */
+    private static final int R2 = 27;
+
+    /** State multiplier. */
+    private static final int M = 5;
+
+    /** State addend. */
+    private static final int N = 0x52dce729;
+
+    /** Finalizer shift. */
+    private static final int SHIFT = 33;
+
+    /** Bits per char. */
+    private static final int CHAR_BITS = 16;
+
+    /** Chars per block. */
+    private static final int BLOCK_CHARS = 4;
+
+    /** Tail mixed in for a null value. */
+    private static final long NULL_TAIL = 0xffffL;
+
+    /** Nibbles in a hash. */
+    private static final int NIBBLES = 16;
+
+    /** Bits per nibble. */
+    private static final int NIBBLE_BITS = 4;
+
+    /** Mask of a nibble. */
+    private static final int NIBBLE = 0xf;
+
+    /** Hex digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Largest power of ten an int holds. */
+    private static final int MAX_POWER = 1000000000;
+
+    /** Ten. */
+    private static final int TEN = 10;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.enablens.dfa.datastructures.NodeFingerprint#fingerprint(
+     * com.enablens.dfa.datastructures.Node)
+     */
+    @Override
+    public String fingerprint(final Node node) {
+        final long hash = hash(node);
+        final char[] hex = new char[NIBBLES];
+        for (int i = 0; i < NIBBLES; i++) {
+            hex[i] = HEX[(int) (hash >>> (NIBBLES - 1 - i) * NIBBLE_BITS)
+                    & NIBBLE];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Hashes a node's data.
+     *
+     * @param node
+     *            the node
+     * @return the hash
+     */
+    public long hash(final Node node) {
+        final Map<String, String> data = node.getData();
+        if (data instanceof NodeData) {
+            return ((NodeData) data).hash();
+        }
+        return hash(data);
+    }
+
+    /**
+     * Hashes data held in any map. The hash equals that of a Node holding
+     * the same data.
+     *
+     * @param data
+     *            the data
+     * @return the hash
+     */
+    public long hash(final Map<String, String> data) {
+        long sum = 0;
+        for (final Map.Entry<String, String> entry : data.entrySet()) {
+            sum += hashValue(hashName(entry.getKey()), entry.getValue());
+        }
+        return finish(sum, data.size());
+    }
+
+    /**
+     * Hashes an attribute name. The result is where the value's hash starts,
+     * so it can be worked out once per name.
+     *
+     * @param name
+     *            the name
+     * @return the state after the name
+     */
+    static long hashName(final String name) {
+        long h = SEED;
+        long block = 0;
+        int chars = 0;
+        for (int i = 0; i < name.length(); i++) {
+            block |= (long) name.charAt(i) << CHAR_BITS * chars;
+            if (++chars == BLOCK_CHARS) {
+                h = mixBlock(h, block);
+                block = 0;
+                chars = 0;
+            }
+        }
+        return mixTail(h, block ^ name.length());
+    }
+
+    /**
+     * Hashes an attribute.
+     *
+     * @param name
+     *            the state after the attribute's name
+     * @param value
+     *            the value, or null
+     * @return the attribute's hash
+     */
+    static long hashValue(final long name, final String value) {
+        if (value == null) {
+            return fmix(mixTail(name, NULL_TAIL));
+        }
+        long h = name;
+        long block = 0;
+        int chars = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            block |= (long) value.charAt(i) << CHAR_BITS * chars;
+            if (++chars == BLOCK_CHARS) {
+                h = mixBlock(h, block);
+                block = 0;
+                chars = 0;
+            }
+        }
+        return fmix(mixTail(h, block) ^ length);
+    }
+
+    /**
+     * Hashes an attribute whose value is a non-negative int, as its decimal
+     * digits, without making a String.
+     *
+     * @param name
+     *            the state after the attribute's name
+     * @param value
+     *            the value
+     * @return the attribute's hash, equal to that of the value as text
+     */
+    static long hashValue(final long name, final int value) {
+        int power = MAX_POWER;
+        while (power > 1 && power > value) {
+            power /= TEN;
+        }
+        long h = name;
+        long block = 0;
+        int chars = 0;
+        int length = 0;
+        for (int rest = value; power > 0; power /= TEN, length++) {
+            block |= (long) ('0' + rest / power) << CHAR_BITS * chars;
+            rest %= power;
+            if (++chars == BLOCK_CHARS) {
+                h = mixBlock(h, block);
+                block = 0;
+                chars = 0;
+            }
+        }
+        return fmix(mixTail(h, block) ^ length);
+    }
+
+    /**
+     * Combines attribute hashes.
+     *
+     * @param sum
+     *            the sum of the attribute hashes
+     * @param count
+     *            the number of attributes
+     * @return the hash
+     */
+    static long finish(final long sum, final int count) {
+        return fmix(sum ^ count);
+    }
+
+    /**
+     * Mixes a full block into the state.
+     *
+     * @param h
+     *            the state
+     * @param block
+     *            the block
+     * @return the new state
+     */
+    private static long mixBlock(final long h, final long block) {
+        final long mixed = mixTail(h, block);
+        return Long.rotateLeft(mixed, R2) * M + N;
+    }
+
+    /**
+     * Mixes a last, possibly partial, block into the state.
+     *
+     * @param h
+     *            the state
+     * @param block
+     *            the block
+     * @return the new state
+     */
+    private static long mixTail(final long h, final long block) {
+        return h ^ Long.rotateLeft(block * C1, R1) * C2;
+    }
+
+    /**
+     * Avalanches the bits of a state.
+     *
+     * @param h
+     *            the state
+     * @return the hash
+     */
+    private static long fmix(final long h) {
+        long k = h;
+        k ^= k >>> SHIFT;
+        k *= F1;
+        k ^= k >>> SHIFT;
+        k *= F2;
+        k ^= k >>> SHIFT;
+        return k;
+    }
+}
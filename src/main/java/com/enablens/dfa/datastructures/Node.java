@@ -10,30 +10,25 @@
  ******************************************************************************/
 package com.enablens.dfa.datastructures;
 
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
-import com.google.common.base.Predicates;
-import com.google.common.collect.Maps;
-import com.google.gson.Gson;
-
 /**
  * The Node class is the central data object used in this DFA interface toolset.
  */
 public class Node {
 
-    /** All data is held in the data map. */
-    private Map<String, String> data;
+    /** All data is held in the data map, in a compact per-type layout. */
+    private NodeData data;
 
     /** The type. */
     private NodeType type;
 
+    /** The parsed configArg, kept until the configArg changes. */
+    private ConfigArgs configArgs = ConfigArgs.EMPTY;
+
     /**
      * Instantiates a new node.
      */
@@ -49,6 +44,9 @@ public class Node {
      * 2. only Mandatory and Optional Keys allowed for this node type.
      * 3. Identity values have values
      * 
+     * The data is copied into a compact store, so later changes to the map
+     * passed in are not seen.
+     * 
      * @param type
      *            the type parameter determines which NodeType this node is.
      * 
@@ -60,38 +58,37 @@ public class Node {
     }
 
     public Node(final Map<String, String> data, String topology) {
-        final Set<String> hashKeys = data.keySet();
         this.type = getType(data);
-        this.data = data;
+        // Keys that are not Mandatory or Optional are refused by the store
+        this.data = new NodeData(type, data);
         this.data.put("topologyName", topology);
-        final List<String> allAttributes = type.getAllAttributes();
-        List<String> identityAttributes = getType().getIdentityAttributes();
 
         // Ensure that all mandatory keys are present in data
-        for (final String mandatory : type.getMandatoryAttributes()) {
-            if (!data.containsKey(mandatory)) {
-                throw new IllegalArgumentException("Missing mandatory key");
-            }
-        }
-
-        // Ensure that only mandatory and optional keys are present in data
-        for (final String key : hashKeys) {
-            if (!allAttributes.contains(key)) {
-                throw new IllegalArgumentException(key
-                        + " is not a Mandatory or Optional key.");
-            }
+        if (!this.data.hasAll(type.getMandatoryMask())) {
+            throw new IllegalArgumentException("Missing mandatory key");
         }
 
         // Ensure that identity keys have a value
-        for (String idAttribute : identityAttributes) {
-            final String id = data.get(idAttribute);
-            if (id == null || id.length() == 0) {
-                throw new IllegalArgumentException(idAttribute
-                        + " is used for identity; cannot be blank.");
-            }
+        final int blank = this.data.findBlank(type.getIdentityMask());
+        if (blank >= 0) {
+            throw new IllegalArgumentException(type.getAllAttributes().get(
+                    blank) + " is used for identity; cannot be blank.");
         }
     }
 
+    /**
+     * Instantiates a copy of a node. Later changes to either node are not
+     * seen by the other.
+     * 
+     * @param other
+     *            the node to copy
+     */
+    public Node(final Node other) {
+        this.type = other.type;
+        this.data = new NodeData(other.type, other.data);
+        this.configArgs = other.configArgs;
+    }
+
     /**
      * Gets the type.
      * 
@@ -115,6 +112,8 @@ public class Node {
     }
 
     /**
+     * Gets the data. The map only takes this node type's attributes.
+     * 
      * @return the data
      */
     public final Map<String, String> getData() {
@@ -127,15 +126,36 @@ public class Node {
      * @return the data as json
      */
     public final String getDataAsJson() {
-        return (new Gson().toJson(data));
+        return NodeJson.toJson(data);
     }
 
     /**
+     * Sets the data, which is copied and may change the node type.
+     * 
      * @param newData
      *            the data to set
      */
     public final void setData(final Map<String, String> newData) {
-        this.data = newData;
+        this.type = getType(newData);
+        this.data = new NodeData(type, newData);
+    }
+
+    /**
+     * Gets the configArg parsed into parameters. The parsed form is kept and
+     * only parsed again when the configArg changes.
+     * 
+     * @return the parameters, empty if there is no configArg
+     */
+    public final ConfigArgs getConfigArgs() {
+        final String configArg = data.get("configArg");
+        ConfigArgs parsed = configArgs;
+        // The data keeps the String it was given, so a new one is a change
+        if (parsed.getSource() != configArg
+                && (configArg != null || parsed != ConfigArgs.EMPTY)) {
+            parsed = ConfigArgs.parse(configArg);
+            configArgs = parsed;
+        }
+        return parsed;
     }
 
     /**
@@ -146,13 +166,22 @@ public class Node {
     }
 
     /**
-     * Gets the identity.
+     * Gets the identity. It is built once and kept until an identity value
+     * changes.
+     * 
+     * @return the identity
+     */
+    public final NodeIdentity getIdentity() {
+        return data.getIdentity();
+    }
+
+    /**
+     * Gets the identity as a map.
      * 
      * @return the identity
      */
     public final Map<String, String> getId() {
-        return Maps.filterKeys(data,
-                Predicates.in(type.getIdentityAttributes()));
+        return getIdentity().getIdentity();
     }
 
     /**
@@ -166,8 +195,7 @@ public class Node {
         if (type == NodeType.TOPOLOGY) {
             return null;
         }
-        return Maps.filterKeys(data,
-                Predicates.in(type.getParentType().getIdentityAttributes()));
+        return getIdentity().getParent().getIdentity();
     }
 
     /*
@@ -177,7 +205,8 @@ public class Node {
      */
     @Override
     public final int hashCode() {
-        return HashCodeBuilder.reflectionHashCode(this);
+        // Equal nodes have equal identities
+        return getIdentity().hashCode();
     }
 
     /*
@@ -187,7 +216,14 @@ public class Node {
      */
     @Override
     public final boolean equals(final Object obj) {
-        return EqualsBuilder.reflectionEquals(this, obj);
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Node)) {
+            return false;
+        }
+        final Node other = (Node) obj;
+        return type == other.type && data.equals(other.data);
     }
 
     /*
@@ -197,8 +233,8 @@ public class Node {
      */
     @Override
     public final String toString() {
-        return ToStringBuilder.reflectionToString(this,
-                ToStringStyle.SHORT_PREFIX_STYLE);
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("data", data).append("type", type).toString();
     }
 
 }
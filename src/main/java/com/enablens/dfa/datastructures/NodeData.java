@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The compact store behind a Node's data. Each NodeType has a fixed layout of
+ * slots, one per attribute in NodeType slot order, so no keys or map entries
+ * are held per Node. Numeric identifiers are held as ints, and
+ * low-cardinality values such as profile names are interned so that a
+ * fabric's nodes share one copy.
+ *
+ * This is a Map for compatibility. Keys that are not attributes of the type
+ * are refused with IllegalArgumentException. Numeric values are held as ints
+ * only when the int gives back the same text, so values read back exactly as
+ * they were put. Not thread safe.
+ */
+final class NodeData extends AbstractMap<String, String> {
+
+    /** Attributes held as ints. */
+    private static final Set<String> NUMERIC = ImmutableSet.of("segmentId",
+            "vlanId", "partitionSegmentId");
+
+    /** Attributes whose values are shared across the fabric. */
+    private static final Set<String> SHARED = ImmutableSet.of("topologyName",
+            "organizationName", "partitionName", "mobilityDomainId",
+            "profileName", "dvsId", "vSwitchControllerId",
+            "orchestrationSource");
+
+    /** The interner for shared values. */
+    private static final Interner<String> VALUES = Interners
+            .newWeakInterner();
+
+    /** Most digits held as an int, so that no value can overflow. */
+    private static final int MAX_DIGITS = 9;
+
+    /** The layouts, by NodeType ordinal. */
+    private static final Layout[] LAYOUTS =
+            new Layout[NodeType.values().length];
+
+    static {
+        for (final NodeType type : NodeType.values()) {
+            LAYOUTS[type.ordinal()] = new Layout(type);
+        }
+    }
+
+    /** The layout. */
+    private final Layout layout;
+
+    /** Slots that hold a key, which may have a null value. */
+    private int present;
+
+    /** Slots whose value is held in numbers. */
+    private int numeric;
+
+    /** The values, by slot. */
+    private final String[] values;
+
+    /** The numeric values, by numeric slot. */
+    private final int[] numbers;
+
+    /** The identity, built when first asked for and dropped on change. */
+    private NodeIdentity identity;
+
+    /**
+     * Instantiates empty node data.
+     *
+     * @param type
+     *            the node type
+     */
+    NodeData(final NodeType type) {
+        layout = LAYOUTS[type.ordinal()];
+        values = new String[layout.names.length];
+        numbers = layout.numbers == 0 ? null : new int[layout.numbers];
+    }
+
+    /**
+     * Instantiates node data holding a copy of a map.
+     *
+     * @param type
+     *            the node type
+     * @param data
+     *            the data
+     */
+    NodeData(final NodeType type, final Map<String, String> data) {
+        this(type);
+        for (final Map.Entry<String, String> entry : data.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Gets a key's slot.
+     *
+     * @param key
+     *            the key
+     * @return the slot, or -1 if the key is not an attribute
+     */
+    private int slot(final Object key) {
+        return layout.type.getSlot(key);
+    }
+
+    /**
+     * Gets the identity.
+     *
+     * @return the identity
+     */
+    NodeIdentity getIdentity() {
+        NodeIdentity id = identity;
+        if (id == null) {
+            id = new NodeIdentity(layout.type, this);
+            identity = id;
+        }
+        return id;
+    }
+
+    /**
+     * Checks that slots all hold a key.
+     *
+     * @param mask
+     *            the slots, as a bitmask
+     * @return true, if every slot holds a key
+     */
+    boolean hasAll(final int mask) {
+        return (present & mask) == mask;
+    }
+
+    /**
+     * Finds a slot with no value or an empty one.
+     *
+     * @param mask
+     *            the slots to look at, as a bitmask
+     * @return the first blank slot, or -1 if none is blank
+     */
+    int findBlank(final int mask) {
+        for (int rest = mask & ~numeric; rest != 0; rest &= rest - 1) {
+            final int slot = Integer.numberOfTrailingZeros(rest);
+            if (values[slot] == null || values[slot].length() == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the value
+     */
+    private String read(final int slot) {
+        if ((numeric & 1 << slot) != 0) {
+            return Integer.toString(numbers[layout.numberSlots[slot]]);
+        }
+        return values[slot];
+    }
+
+    /**
+     * Parses a value that an int holds exactly.
+     *
+     * @param value
+     *            the value
+     * @return the int, or -1 if the value is not plain decimal digits
+     */
+    private static int parse(final String value) {
+        final int length = value.length();
+        if (length == 0 || length > MAX_DIGITS
+                || length > 1 && value.charAt(0) == '0') {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + c - '0';
+        }
+        return n;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public String get(final Object key) {
+        final int slot = slot(key);
+        return slot < 0 ? null : read(slot);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(final Object key) {
+        final int slot = slot(key);
+        return slot >= 0 && (present & 1 << slot) != 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public String put(final String key, final String value) {
+        final int slot = slot(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException(key
+                    + " is not a Mandatory or Optional key.");
+        }
+        final String old = read(slot);
+        final int bit = 1 << slot;
+        clear(slot);
+        present |= bit;
+        if (value == null) {
+            return old;
+        }
+        final int numberSlot = layout.numberSlots[slot];
+        if (numberSlot >= 0) {
+            final int n = parse(value);
+            if (n >= 0) {
+                numbers[numberSlot] = n;
+                numeric |= bit;
+                return old;
+            }
+        }
+        values[slot] = layout.shared[slot] ? VALUES.intern(value) : value;
+        return old;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#remove(java.lang.Object)
+     */
+    @Override
+    public String remove(final Object key) {
+        final int slot = slot(key);
+        if (slot < 0) {
+            return null;
+        }
+        final String old = read(slot);
+        clear(slot);
+        return old;
+    }
+
+    /**
+     * Clears a slot.
+     *
+     * @param slot
+     *            the slot
+     */
+    private void clear(final int slot) {
+        present &= ~(1 << slot);
+        numeric &= ~(1 << slot);
+        values[slot] = null;
+        if ((layout.type.getIdentityMask() & 1 << slot) != 0) {
+            identity = null;
+        }
+        if (layout.numberSlots[slot] >= 0) {
+            numbers[layout.numberSlots[slot]] = 0;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#clear()
+     */
+    @Override
+    public void clear() {
+        present = 0;
+        numeric = 0;
+        Arrays.fill(values, null);
+        identity = null;
+        if (numbers != null) {
+            Arrays.fill(numbers, 0);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return Integer.bitCount(present);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return NodeData.this.size();
+            }
+        };
+    }
+
+    /**
+     * Hashes the data as MurmurFingerprint does, from the slots, without
+     * making Strings of numeric values.
+     *
+     * @return the hash
+     */
+    long hash() {
+        long sum = 0;
+        for (int rest = present; rest != 0; rest &= rest - 1) {
+            final int slot = Integer.numberOfTrailingZeros(rest);
+            final long name = layout.nameHashes[slot];
+            if ((numeric & 1 << slot) != 0) {
+                sum += MurmurFingerprint.hashValue(name,
+                        numbers[layout.numberSlots[slot]]);
+            } else {
+                sum += MurmurFingerprint.hashValue(name, values[slot]);
+            }
+        }
+        return MurmurFingerprint.finish(sum, Integer.bitCount(present));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.AbstractMap#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj instanceof NodeData) {
+            // Values are held the same way whenever they are equal
+            final NodeData other = (NodeData) obj;
+            return layout == other.layout && present == other.present
+                    && numeric == other.numeric
+                    && Arrays.equals(numbers, other.numbers)
+                    && Arrays.equals(values, other.values);
+        }
+        return super.equals(obj);
+    }
+
+    /**
+     * Iterates over the slots that hold a key.
+     */
+    private final class Entries
+            implements Iterator<Map.Entry<String, String>> {
+
+        /** The slots not yet returned. */
+        private int remaining = present;
+
+        /** The slot last returned. */
+        private int last = -1;
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            return remaining != 0;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public Map.Entry<String, String> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            last = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            return new AbstractMap.SimpleImmutableEntry<String, String>(
+                    layout.names[last], read(last));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.Iterator#remove()
+         */
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            clear(last);
+            last = -1;
+        }
+    }
+
+    /**
+     * How the slots of one NodeType are held.
+     */
+    private static final class Layout {
+
+        /** The node type. */
+        private final NodeType type;
+
+        /** The attribute names, by slot. */
+        private final String[] names;
+
+        /** The numeric slot of each slot, or -1 if it is not numeric. */
+        private final int[] numberSlots;
+
+        /** Whether each slot's values are shared. */
+        private final boolean[] shared;
+
+        /** The fingerprint state after each slot's name. */
+        private final long[] nameHashes;
+
+        /** The number of numeric slots. */
+        private final int numbers;
+
+        /**
+         * Instantiates a new layout.
+         *
+         * @param newType
+         *            the node type
+         */
+        Layout(final NodeType newType) {
+            type = newType;
+            names = type.getAllAttributes().toArray(new String[0]);
+            numberSlots = new int[names.length];
+            shared = new boolean[names.length];
+            nameHashes = new long[names.length];
+            int n = 0;
+            for (int slot = 0; slot < names.length; slot++) {
+                numberSlots[slot] = NUMERIC.contains(names[slot]) ? n++ : -1;
+                shared[slot] = SHARED.contains(names[slot]);
+                nameHashes[slot] = MurmurFingerprint.hashName(names[slot]);
+            }
+            numbers = n;
+        }
+    }
+}
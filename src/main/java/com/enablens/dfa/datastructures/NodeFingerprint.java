@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+/**
+ * Fingerprints a Node's data so that a change can be seen by comparing
+ * fingerprints, without keeping or comparing the data itself. Equal data
+ * gives equal fingerprints whatever order it was put in; different data
+ * gives different fingerprints with high probability. Fingerprints from
+ * different implementations cannot be compared.
+ */
+public interface NodeFingerprint {
+
+    /** MD5 of the node's JSON, as Utils.nodeMd5 gives. */
+    NodeFingerprint MD5 = new Md5Fingerprint();
+
+    /** A fast 64-bit hash of the node's attributes. */
+    NodeFingerprint MURMUR = new MurmurFingerprint();
+
+    /**
+     * Fingerprints a node.
+     *
+     * @param node
+     *            the node
+     * @return the fingerprint, as hex
+     */
+    String fingerprint(Node node);
+}
@@ -3,55 +3,187 @@
  */
 package com.enablens.dfa.datastructures;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import com.google.common.collect.ImmutableMap;
+
 /**
- * The Class NodeIdentity.
+ * The identity of a Node: its type and the values of the type's identity
+ * attributes. It is immutable and its hash is worked out once, so it is cheap
+ * to use as a key in maps and sets. Two identities are equal when their types
+ * and identity values are equal; no other data is compared.
  */
-public class NodeIdentity {
+public final class NodeIdentity {
 
     /** The type. */
-    private NodeType type;
+    private final NodeType type;
+
+    /** The identity values, in the order of the type's identity attributes. */
+    private final String[] values;
 
-    /** The identity. */
+    /** The hash. */
+    private final int hash;
+
+    /** The identity as a map, built when first asked for. */
     private Map<String, String> identity;
 
+    /** The parent's identity, built when first asked for. */
+    private NodeIdentity parent;
+
+    /**
+     * Instantiates a new node identity.
+     *
+     * @param newType
+     *            the type
+     * @param newIdentity
+     *            the identity values, and possibly others, which are ignored
+     */
+    public NodeIdentity(final NodeType newType,
+            final Map<String, String> newIdentity) {
+        this(newType, valuesOf(newType, newIdentity));
+    }
+
     /**
-     * Gets the identity.
-     * 
+     * Instantiates a new node identity.
+     *
+     * @param newType
+     *            the type
+     * @param newValues
+     *            the identity values, not copied
+     */
+    private NodeIdentity(final NodeType newType, final String[] newValues) {
+        type = newType;
+        values = newValues;
+        int h = type.ordinal();
+        for (final String value : values) {
+            h = 31 * h + value.hashCode();
+        }
+        hash = h;
+    }
+
+    /**
+     * Reads the identity values from data.
+     *
+     * @param type
+     *            the type
+     * @param data
+     *            the data
+     * @return the identity values
+     */
+    private static String[] valuesOf(final NodeType type,
+            final Map<String, String> data) {
+        final List<String> attributes = type.getIdentityAttributes();
+        final String[] values = new String[attributes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.get(attributes.get(i));
+            if (values[i] == null || values[i].length() == 0) {
+                throw new IllegalArgumentException(attributes.get(i)
+                        + " is used for identity; cannot be blank.");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the identity as a map of identity attributes to values.
+     *
      * @return the identity
      */
-    public final Map<String, String> getIdentity() {
-        return identity;
+    public Map<String, String> getIdentity() {
+        Map<String, String> map = identity;
+        if (map == null) {
+            final ImmutableMap.Builder<String, String> builder = ImmutableMap
+                    .builder();
+            final List<String> attributes = type.getIdentityAttributes();
+            for (int i = 0; i < values.length; i++) {
+                builder.put(attributes.get(i), values[i]);
+            }
+            map = builder.build();
+            identity = map;
+        }
+        return map;
     }
 
     /**
-     * Sets the identity.
-     * 
-     * @param identity
-     *            the new identity
+     * Gets an identity value.
+     *
+     * @param attribute
+     *            the identity attribute
+     * @return the value, or null if it is not an identity attribute
      */
-    public final void setIdentity(final Map<String, String> identity) {
-        this.identity = identity;
+    public String get(final String attribute) {
+        final int i = type.getIdentityAttributes().indexOf(attribute);
+        return i < 0 ? null : values[i];
     }
 
     /**
      * Gets the type.
-     * 
+     *
      * @return the type
      */
-    public final NodeType getType() {
+    public NodeType getType() {
         return type;
     }
 
     /**
-     * Sets the type.
-     * 
-     * @param type
-     *            the new type
+     * Gets the identity of the parent node.
+     *
+     * @return the parent's identity, or null for a topology
+     */
+    public NodeIdentity getParent() {
+        final NodeType parentType = type.getParentType();
+        NodeIdentity id = parent;
+        if (parentType == null || id != null) {
+            return id;
+        }
+        final List<String> attributes = parentType.getIdentityAttributes();
+        final String[] parentValues = new String[attributes.size()];
+        for (int i = 0; i < parentValues.length; i++) {
+            parentValues[i] = get(attributes.get(i));
+        }
+        id = new NodeIdentity(parentType, parentValues);
+        parent = id;
+        return id;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof NodeIdentity)) {
+            return false;
+        }
+        final NodeIdentity other = (NodeIdentity) obj;
+        return hash == other.hash && type == other.type
+                && Arrays.equals(values, other.values);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
      */
-    public final void setType(final NodeType type) {
-        this.type = type;
+    @Override
+    public String toString() {
+        return type + " " + getIdentity();
     }
 
 }
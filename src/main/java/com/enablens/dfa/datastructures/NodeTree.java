@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Node together with the Nodes found beneath it on the DCNM.
+ */
+public class NodeTree {
+
+    /** The node at the root of this tree. */
+    private final Node node;
+
+    /** The child trees. */
+    private final List<NodeTree> children = new ArrayList<NodeTree>();
+
+    /** The digest of the node's data, or null if not taken. */
+    private String digest;
+
+    /** The ETag of the listing the children came from, or null. */
+    private String listingEtag;
+
+    /** The digest of the listing the children came from, or null. */
+    private String listingDigest;
+
+    /**
+     * Instantiates a new node tree.
+     *
+     * @param newNode
+     *            the node at the root of this tree
+     */
+    public NodeTree(final Node newNode) {
+        node = newNode;
+    }
+
+    /**
+     * Adds a child tree.
+     *
+     * @param child
+     *            the child tree
+     */
+    public final void addChild(final NodeTree child) {
+        children.add(child);
+    }
+
+    /**
+     * Gets the node.
+     *
+     * @return the node
+     */
+    public final Node getNode() {
+        return node;
+    }
+
+    /**
+     * Gets the child trees.
+     *
+     * @return the child trees
+     */
+    public final List<NodeTree> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Gets the digest of the node's data, as taken when it was crawled.
+     *
+     * @return the digest, or null if not taken
+     */
+    public final String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Sets the digest of the node's data.
+     *
+     * @param newDigest
+     *            the digest
+     */
+    public final void setDigest(final String newDigest) {
+        digest = newDigest;
+    }
+
+    /**
+     * Gets the ETag of the listing the children came from.
+     *
+     * @return the ETag, or null if DCNM sent none
+     */
+    public final String getListingEtag() {
+        return listingEtag;
+    }
+
+    /**
+     * Sets the ETag of the listing the children came from.
+     *
+     * @param newListingEtag
+     *            the ETag
+     */
+    public final void setListingEtag(final String newListingEtag) {
+        listingEtag = newListingEtag;
+    }
+
+    /**
+     * Gets the digest of the listing the children came from.
+     *
+     * @return the digest, or null if not taken
+     */
+    public final String getListingDigest() {
+        return listingDigest;
+    }
+
+    /**
+     * Sets the digest of the listing the children came from.
+     *
+     * @param newListingDigest
+     *            the digest
+     */
+    public final void setListingDigest(final String newListingDigest) {
+        listingDigest = newListingDigest;
+    }
+
+    /**
+     * Counts the nodes in this tree, including the root.
+     *
+     * @return the node count
+     */
+    public final int size() {
+        int size = 1;
+        for (NodeTree child : children) {
+            size += child.size();
+        }
+        return size;
+    }
+
+    /**
+     * Counts the nodes of a given type in this tree.
+     *
+     * @param type
+     *            the node type
+     * @return the node count
+     */
+    public final int size(final NodeType type) {
+        int size = 0;
+        if (node.getType() == type) {
+            size++;
+        }
+        for (NodeTree child : children) {
+            size += child.size(type);
+        }
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public final String toString() {
+        return node.getType() + " " + node.getId() + " (" + children.size()
+                + " children)";
+    }
+}
@@ -10,9 +10,13 @@
  ******************************************************************************/
 package com.enablens.dfa.datastructures;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 /**
  * The Enum NodeType.
@@ -20,49 +24,100 @@ import java.util.List;
 public enum NodeType {
 
     /** Topology node type. */
-    TOPOLOGY(new String[]{"topologyName"}, new String[]{"description"}),
+    TOPOLOGY(new String[]{"topologyName"}, new String[]{"description"},
+            new String[]{"topologyName"}),
 
     /** Organization node type. */
     ORGANIZATION(new String[]{"organizationName"}, new String[]{"description",
-            "orchestrationSource"}),
+            "orchestrationSource"}, new String[]{"topologyName",
+            "organizationName"}),
 
     /** Partition node type. */
     PARTITION(new String[]{"partitionName", "partitionSegmentId",
             "organizationName"}, new String[]{"description",
-            "serviceNodeIpAddress"}),
+            "serviceNodeIpAddress"}, new String[]{"topologyName",
+            "organizationName", "partitionName"}),
 
     /** Network node type. */
     NETWORK(new String[]{"organizationName", "networkName", "segmentId",
             "vlanId", "mobilityDomainId", "profileName", "partitionName"},
             new String[]{"dvsId", "staticIpStart", "staticIpEnd",
                     "vSwitchControllerNetworkId", "description",
-                    "vSwitchControllerId", "configArg", "dhcpScope"});
+                    "vSwitchControllerId", "configArg", "dhcpScope"},
+            new String[]{"topologyName", "organizationName",
+                    "partitionName", "segmentId"});
 
     /** The mandatory attributes. */
-    private final List<String> mandatoryAttributes = new ArrayList<String>();
+    private final List<String> mandatoryAttributes;
 
     /** The optional attributes. */
-    private final List<String> optionalAttributes = new ArrayList<String>();
+    private final List<String> optionalAttributes;
+
+    /** All attributes, in slot order. */
+    private final List<String> allAttributes;
+
+    /** The identity attributes. */
+    private final List<String> identityAttributes;
 
-    /** All attributes. */
-    private final List<String> allAttributes = new ArrayList<String>();
+    /** The slot of each attribute. */
+    private final Map<String, Integer> slots;
+
+    /** The slots of the mandatory attributes, as a bitmask. */
+    private final int mandatoryMask;
+
+    /** The slots of the identity attributes, as a bitmask. */
+    private final int identityMask;
 
     /**
-     * Instantiates a new node type.
+     * Instantiates a new node type. Everything the Node checks is worked out
+     * here once, so that building a Node allocates nothing to validate it.
      * 
      * @param mandatory
      *            the mandatory attributes
      * @param optional
      *            the optional attributes
+     * @param identity
+     *            the identity attributes
      */
-    private NodeType(final String[] mandatory, final String[] optional) {
-        this.mandatoryAttributes.addAll(Arrays.asList(mandatory));
-        this.optionalAttributes.addAll(Arrays.asList(optional));
-        this.allAttributes.addAll(mandatoryAttributes);
-        this.allAttributes.addAll(optionalAttributes);
+    private NodeType(final String[] mandatory, final String[] optional,
+            final String[] identity) {
+        this.mandatoryAttributes = ImmutableList.copyOf(mandatory);
+        this.optionalAttributes = ImmutableList.copyOf(optional);
+        final Set<String> all = new LinkedHashSet<String>();
+        all.addAll(mandatoryAttributes);
+        all.addAll(optionalAttributes);
         // All nodes have topology name but this is not defined in API, so
         // specified separately
-        this.allAttributes.add("topologyName");
+        all.add("topologyName");
+        this.allAttributes = ImmutableList.copyOf(all);
+        if (allAttributes.size() > Integer.SIZE) {
+            throw new IllegalStateException("Too many attributes");
+        }
+        this.identityAttributes = ImmutableList.copyOf(identity);
+
+        final ImmutableMap.Builder<String, Integer> slotBuilder = ImmutableMap
+                .builder();
+        for (int slot = 0; slot < allAttributes.size(); slot++) {
+            slotBuilder.put(allAttributes.get(slot), slot);
+        }
+        this.slots = slotBuilder.build();
+        this.mandatoryMask = mask(mandatoryAttributes);
+        this.identityMask = mask(identityAttributes);
+    }
+
+    /**
+     * Gets the slots of attributes as a bitmask.
+     * 
+     * @param attributes
+     *            the attributes
+     * @return the bitmask
+     */
+    private int mask(final List<String> attributes) {
+        int mask = 0;
+        for (final String attribute : attributes) {
+            mask |= 1 << slots.get(attribute);
+        }
+        return mask;
     }
 
     /**
@@ -84,7 +139,7 @@ public enum NodeType {
     }
 
     /**
-     * Gets all attributes.
+     * Gets all attributes, each once, in slot order.
      * 
      * @return all attributes
      */
@@ -92,28 +147,43 @@ public enum NodeType {
         return allAttributes;
     }
 
+    /**
+     * Gets the identity attributes.
+     * 
+     * @return the identity attributes
+     */
     public List<String> getIdentityAttributes() {
-        String[] identityAttributes;
-        switch (this) {
-        case TOPOLOGY:
-            identityAttributes = new String[]{"topologyName"};
-            break;
-        case ORGANIZATION:
-            identityAttributes = new String[]{"topologyName",
-                    "organizationName"};
-            break;
-        case PARTITION:
-            identityAttributes = new String[]{"topologyName",
-                    "organizationName",
-                    "partitionName"};
-            break;
-        default:
-            identityAttributes = new String[]{"topologyName",
-                    "organizationName",
-                    "partitionName", "segmentId"};
-            break;
-        }
-        return Arrays.asList(identityAttributes);
+        return identityAttributes;
+    }
+
+    /**
+     * Gets an attribute's slot, its index in getAllAttributes.
+     * 
+     * @param attribute
+     *            the attribute
+     * @return the slot, or -1 if it is not an attribute of this type
+     */
+    int getSlot(final Object attribute) {
+        final Integer slot = slots.get(attribute);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Gets the slots of the mandatory attributes as a bitmask.
+     * 
+     * @return the bitmask
+     */
+    int getMandatoryMask() {
+        return mandatoryMask;
+    }
+
+    /**
+     * Gets the slots of the identity attributes as a bitmask.
+     * 
+     * @return the bitmask
+     */
+    int getIdentityMask() {
+        return identityMask;
     }
 
     public NodeType getChildType() {
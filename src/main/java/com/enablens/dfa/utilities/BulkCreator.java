@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.InventoryCache;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeType;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Creates many organizations, partitions and networks at once.
+ *
+ * The nodes are created a level at a time, parents first, so a node is only
+ * created once its parent has been. Within a level the creates are sent
+ * concurrently, with a bounded number in flight. A node whose parent could
+ * not be created is skipped rather than sent.
+ *
+ * Unlike Utils.putNode, a create is not followed by a GET of the node. With
+ * verification on, each level is read back instead with one child listing
+ * per parent, and a node missing from its parent's listing is reported as
+ * failed.
+ */
+public class BulkCreator {
+
+    /** Default number of creates in flight. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** Most creates in flight. */
+    private int window = DEFAULT_WINDOW;
+
+    /** Whether creates are read back. */
+    private boolean verify;
+
+    /**
+     * Instantiates a new bulk creator.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public BulkCreator(final DcnmAuthToken newDt) {
+        dt = newDt;
+    }
+
+    /**
+     * Gets the most creates in flight.
+     *
+     * @return the window
+     */
+    public final int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the most creates in flight. The same bound applies to the
+     * listings read to verify them.
+     *
+     * @param newWindow
+     *            the window
+     */
+    public final void setWindow(final int newWindow) {
+        if (newWindow < 1) {
+            throw new IllegalArgumentException("Window must be at least 1.");
+        }
+        window = newWindow;
+    }
+
+    /**
+     * Checks if creates are read back.
+     *
+     * @return true, if verification is on
+     */
+    public final boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * Sets whether creates are read back with one listing per parent.
+     *
+     * @param newVerify
+     *            true to verify
+     */
+    public final void setVerify(final boolean newVerify) {
+        verify = newVerify;
+    }
+
+    /**
+     * Creates nodes.
+     *
+     * @param nodes
+     *            the nodes, in any order
+     * @return a result per node, parents first
+     */
+    public final BulkReport create(final Iterable<? extends Node> nodes) {
+        return create(nodes.iterator());
+    }
+
+    /**
+     * Creates nodes, e.g. from a stream's iterator. The nodes are all read
+     * before any is created, so that parents can go first.
+     *
+     * @param nodes
+     *            the nodes, in any order
+     * @return a result per node, parents first
+     */
+    public final BulkReport create(final Iterator<? extends Node> nodes) {
+        final long start = System.nanoTime();
+        final List<NodeResult> results = new ArrayList<NodeResult>();
+        final Map<NodeType, List<Node>> levels =
+                new EnumMap<NodeType, List<Node>>(NodeType.class);
+        while (nodes.hasNext()) {
+            final Node node = nodes.next();
+            if (node.getType() == NodeType.TOPOLOGY) {
+                results.add(new NodeResult(node, NodeResult.Status.FAILED, 0,
+                        "A topology cannot be created."));
+                continue;
+            }
+            List<Node> level = levels.get(node.getType());
+            if (level == null) {
+                level = new ArrayList<Node>();
+                levels.put(node.getType(), level);
+            }
+            level.add(node);
+        }
+        final Set<NodeIdentity> notCreated = new HashSet<NodeIdentity>();
+        for (NodeType type = NodeType.TOPOLOGY.getChildType(); type != null;
+                type = type.getChildType()) {
+            final List<Node> level = levels.get(type);
+            if (level == null) {
+                continue;
+            }
+            final NodeResult[] done = createLevel(level, notCreated);
+            if (verify) {
+                verifyLevel(level, done);
+            }
+            for (NodeResult result : done) {
+                results.add(result);
+                if (!result.isSuccess()) {
+                    notCreated.add(result.getNode().getIdentity());
+                }
+            }
+        }
+        return new BulkReport(results, TimeUnit.NANOSECONDS.toMillis(System
+                .nanoTime() - start));
+    }
+
+    /**
+     * Creates the nodes of one level concurrently.
+     *
+     * @param level
+     *            the nodes
+     * @param notCreated
+     *            the nodes of earlier levels that were not created
+     * @return a result per node
+     */
+    private NodeResult[] createLevel(final List<Node> level,
+            final Set<NodeIdentity> notCreated) {
+        final NodeResult[] done = new NodeResult[level.size()];
+        final RequestWindow inFlight = new RequestWindow(window);
+        for (int i = 0; i < done.length; i++) {
+            final Node node = level.get(i);
+            if (notCreated.contains(node.getIdentity().getParent())) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "Parent was not created.");
+                continue;
+            }
+            final int slot = i;
+            if (!inFlight.send(node,
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return HttpOperations.postOperationAsync(dt,
+                                    Utils.uriBuilder("create",
+                                            node.getParentId()),
+                                    node.getDataAsJson());
+                        }
+                    }, new Consumer<NodeResult>() {
+                        @Override
+                        public void accept(final NodeResult result) {
+                            done[slot] = result;
+                        }
+                    })) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "Interrupted.");
+            }
+        }
+        inFlight.drain(dt.getServer(), done);
+        return done;
+    }
+
+    /**
+     * Reads back the nodes of one level that were created, with one listing
+     * per parent.
+     *
+     * @param level
+     *            the nodes
+     * @param done
+     *            a result per node, updated in place
+     */
+    private void verifyLevel(final List<Node> level,
+            final NodeResult[] done) {
+        final Map<NodeIdentity, List<Integer>> byParent =
+                new LinkedHashMap<NodeIdentity, List<Integer>>();
+        for (int i = 0; i < done.length; i++) {
+            if (done[i].getStatus() != NodeResult.Status.DONE) {
+                continue;
+            }
+            final NodeIdentity parent = level.get(i).getIdentity()
+                    .getParent();
+            List<Integer> children = byParent.get(parent);
+            if (children == null) {
+                children = new ArrayList<Integer>();
+                byParent.put(parent, children);
+            }
+            children.add(i);
+        }
+        final Map<NodeIdentity, CompletableFuture<HttpResponse<String>>>
+                listings = new LinkedHashMap<NodeIdentity,
+                        CompletableFuture<HttpResponse<String>>>();
+        final InventoryCache cache = InventoryCache.forServer(dt.getServer());
+        final long stamp = cache.getGeneration();
+        final RequestWindow inFlight = new RequestWindow(window);
+        for (NodeIdentity parent : byParent.keySet()) {
+            if (!inFlight.acquire()) {
+                break;
+            }
+            final CompletableFuture<HttpResponse<String>> listing =
+                    HttpOperations.getOperationAsync(dt,
+                            Utils.uriBuilder("list", parent.getIdentity()));
+            listing.whenComplete(
+                    new BiConsumer<HttpResponse<String>, Throwable>() {
+                        @Override
+                        public void accept(
+                                final HttpResponse<String> response,
+                                final Throwable failure) {
+                            inFlight.release();
+                        }
+                    });
+            listings.put(parent, listing);
+        }
+        inFlight.drain();
+        for (Map.Entry<NodeIdentity, List<Integer>> entry : byParent
+                .entrySet()) {
+            final HttpResponse<String> response = response(listings.get(entry
+                    .getKey()));
+            if (response == null || response.getCode() != HTTP_OK) {
+                for (int i : entry.getValue()) {
+                    done[i] = new NodeResult(done[i].getNode(),
+                            NodeResult.Status.DONE, done[i].getCode(),
+                            "Not verified; unable to list parent.");
+                }
+                continue;
+            }
+            final Node[] children = Utils.getNodesFromJson(response
+                    .getBody());
+            cache.cacheChildren(entry.getKey(), children, stamp);
+            final Set<NodeIdentity> listed = new HashSet<NodeIdentity>();
+            for (Node child : children) {
+                listed.add(child.getIdentity());
+            }
+            for (int i : entry.getValue()) {
+                final Node node = done[i].getNode();
+                done[i] = listed.contains(node.getIdentity())
+                        ? new NodeResult(node, NodeResult.Status.VERIFIED,
+                                done[i].getCode(), null)
+                        : new NodeResult(node, NodeResult.Status.FAILED,
+                                done[i].getCode(), "Not found after create.");
+            }
+        }
+    }
+
+    /**
+     * Gets the response of a completed request.
+     *
+     * @param future
+     *            the request, or null if it was not sent
+     * @return the response, or null if there is none
+     */
+    private static HttpResponse<String> response(
+            final CompletableFuture<HttpResponse<String>> future) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            return null;
+        }
+    }
+}
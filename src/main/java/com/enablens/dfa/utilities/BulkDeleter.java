@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeTree;
+import com.enablens.dfa.datastructures.NodeType;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Deletes a node and everything below it.
+ *
+ * The whole subtree is found first with a FabricCrawler, which lists each
+ * level in parallel. The nodes are then deleted a level at a time, leaves
+ * first, with a bounded number of deletes in flight. A failed delete does
+ * not stop the job: it is reported, and only the nodes above it are skipped,
+ * as they cannot be deleted while it remains. A node whose children could
+ * not be listed is reported as failed in the same way, and a node that is
+ * already gone counts as deleted.
+ *
+ * In a dry run the subtree is found as usual but nothing is deleted; each
+ * node is reported as PLANNED.
+ */
+public class BulkDeleter {
+
+    /** Default number of deletes in flight. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** The crawler that finds the subtree. */
+    private final FabricCrawler crawler;
+
+    /** Most deletes in flight. */
+    private int window = DEFAULT_WINDOW;
+
+    /** Whether nothing is deleted. */
+    private boolean dryRun;
+
+    /** Receives each result as it comes in, or null. */
+    private Consumer<NodeResult> progress;
+
+    /**
+     * Instantiates a new bulk deleter.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public BulkDeleter(final DcnmAuthToken newDt) {
+        dt = newDt;
+        crawler = new FabricCrawler(newDt);
+    }
+
+    /**
+     * Gets the crawler that finds the subtree, so that its parallelism can
+     * be set.
+     *
+     * @return the crawler
+     */
+    public final FabricCrawler getCrawler() {
+        return crawler;
+    }
+
+    /**
+     * Gets the most deletes in flight.
+     *
+     * @return the window
+     */
+    public final int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the most deletes in flight.
+     *
+     * @param newWindow
+     *            the window
+     */
+    public final void setWindow(final int newWindow) {
+        if (newWindow < 1) {
+            throw new IllegalArgumentException("Window must be at least 1.");
+        }
+        window = newWindow;
+    }
+
+    /**
+     * Checks if this is a dry run.
+     *
+     * @return true, if nothing is deleted
+     */
+    public final boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets whether this is a dry run, which finds and reports the nodes
+     * without deleting them.
+     *
+     * @param newDryRun
+     *            true for a dry run
+     */
+    public final void setDryRun(final boolean newDryRun) {
+        dryRun = newDryRun;
+    }
+
+    /**
+     * Sets what receives each node's result as it comes in. It is called
+     * from the client's I/O thread and must not block.
+     *
+     * @param newProgress
+     *            the consumer, or null for none
+     */
+    public final void setProgress(final Consumer<NodeResult> newProgress) {
+        progress = newProgress;
+    }
+
+    /**
+     * Deletes a node and everything below it. For a TOPOLOGY node, everything
+     * below it is deleted.
+     *
+     * @param root
+     *            the node
+     * @return a result per node, leaves first
+     */
+    public final BulkReport delete(final Node root) {
+        final long start = System.nanoTime();
+        final Set<NodeIdentity> unlisted = new HashSet<NodeIdentity>();
+        final Map<NodeType, List<NodeTree>> levels = discover(root, unlisted);
+        final List<NodeType> order = new ArrayList<NodeType>();
+        for (NodeType type = NodeType.TOPOLOGY.getChildType(); type != null;
+                type = type.getChildType()) {
+            order.add(0, type);
+        }
+        final List<NodeResult> results = new ArrayList<NodeResult>();
+        final Set<NodeIdentity> notDeleted = new HashSet<NodeIdentity>();
+        for (NodeType type : order) {
+            final List<NodeTree> level = levels.get(type);
+            if (level == null) {
+                continue;
+            }
+            final List<NodeTree> listed = new ArrayList<NodeTree>();
+            for (NodeTree tree : level) {
+                final Node node = tree.getNode();
+                if (unlisted.contains(node.getIdentity())) {
+                    results.add(report(new NodeResult(node,
+                            NodeResult.Status.FAILED, 0,
+                            "Unable to list its children.")));
+                    notDeleted.add(node.getIdentity());
+                } else {
+                    listed.add(tree);
+                }
+            }
+            for (NodeResult result : deleteLevel(listed, notDeleted)) {
+                results.add(result);
+                if (!result.isSuccess()) {
+                    notDeleted.add(result.getNode().getIdentity());
+                }
+            }
+        }
+        if (root.getType() == NodeType.TOPOLOGY
+                && unlisted.contains(root.getIdentity())) {
+            results.add(report(new NodeResult(root, NodeResult.Status.FAILED,
+                    0, "Unable to list its children.")));
+        }
+        return new BulkReport(results, TimeUnit.NANOSECONDS.toMillis(System
+                .nanoTime() - start));
+    }
+
+    /**
+     * Finds the subtree below a node, as far as it can be listed.
+     *
+     * @param root
+     *            the node
+     * @param unlisted
+     *            receives the nodes whose children could not be listed
+     * @return the nodes to delete, by type
+     */
+    private Map<NodeType, List<NodeTree>> discover(final Node root,
+            final Set<NodeIdentity> unlisted) {
+        final Map<NodeType, List<NodeTree>> levels =
+                new EnumMap<NodeType, List<NodeTree>>(NodeType.class);
+        final Deque<NodeTree> pending = new ArrayDeque<NodeTree>();
+        pending.push(crawler.crawl(root, unlisted));
+        while (!pending.isEmpty()) {
+            final NodeTree tree = pending.pop();
+            final NodeType type = tree.getNode().getType();
+            if (type != NodeType.TOPOLOGY) {
+                List<NodeTree> level = levels.get(type);
+                if (level == null) {
+                    level = new ArrayList<NodeTree>();
+                    levels.put(type, level);
+                }
+                level.add(tree);
+            }
+            for (NodeTree child : tree.getChildren()) {
+                pending.push(child);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Deletes the nodes of one level concurrently.
+     *
+     * @param level
+     *            the nodes, with their children
+     * @param notDeleted
+     *            the nodes of lower levels that were not deleted
+     * @return a result per node
+     */
+    private NodeResult[] deleteLevel(final List<NodeTree> level,
+            final Set<NodeIdentity> notDeleted) {
+        final NodeResult[] done = new NodeResult[level.size()];
+        final RequestWindow inFlight = new RequestWindow(window);
+        for (int i = 0; i < done.length; i++) {
+            final Node node = level.get(i).getNode();
+            if (blocked(level.get(i), notDeleted)) {
+                done[i] = report(new NodeResult(node,
+                        NodeResult.Status.SKIPPED, 0,
+                        "A child was not deleted."));
+                continue;
+            }
+            if (dryRun) {
+                done[i] = report(new NodeResult(node,
+                        NodeResult.Status.PLANNED, 0, null));
+                continue;
+            }
+            final int slot = i;
+            if (!inFlight.send(node,
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return HttpOperations.deleteOperationAsync(dt,
+                                    Utils.uriBuilder("delete", node.getId()),
+                                    "");
+                        }
+                    }, new Consumer<NodeResult>() {
+                        @Override
+                        public void accept(final NodeResult result) {
+                            done[slot] = report(NodeResult.deleted(result));
+                        }
+                    })) {
+                done[i] = report(new NodeResult(node,
+                        NodeResult.Status.SKIPPED, 0, "Interrupted."));
+            }
+        }
+        inFlight.drain(dt.getServer(), done);
+        return done;
+    }
+
+    /**
+     * Checks if any of a node's children was not deleted.
+     *
+     * @param tree
+     *            the node, with its children
+     * @param notDeleted
+     *            the nodes that were not deleted
+     * @return true, if the node cannot be deleted
+     */
+    private static boolean blocked(final NodeTree tree,
+            final Set<NodeIdentity> notDeleted) {
+        for (NodeTree child : tree.getChildren()) {
+            if (notDeleted.contains(child.getNode().getIdentity())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands a result to the progress consumer.
+     *
+     * @param result
+     *            the result
+     * @return the result
+     */
+    private NodeResult report(final NodeResult result) {
+        final Consumer<NodeResult> consumer = progress;
+        if (consumer != null) {
+            consumer.accept(result);
+        }
+        return result;
+    }
+}
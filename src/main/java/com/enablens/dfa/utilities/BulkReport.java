@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk operation: a result per node, in the order the nodes
+ * were done, how many nodes needed nothing done, and how long it took.
+ */
+public final class BulkReport {
+
+    /** Milliseconds per second. */
+    private static final double MILLIS = 1000.0;
+
+    /** The results. */
+    private final List<NodeResult> results;
+
+    /** The results by status. */
+    private final Map<NodeResult.Status, Integer> counts =
+            new EnumMap<NodeResult.Status, Integer>(NodeResult.Status.class);
+
+    /** Nodes that needed nothing done and have no result. */
+    private final int unchanged;
+
+    /** The time taken, in msec. */
+    private final long elapsed;
+
+    /**
+     * Instantiates a new bulk report.
+     *
+     * @param newResults
+     *            the results
+     * @param newElapsed
+     *            the time taken, in msec
+     */
+    BulkReport(final List<NodeResult> newResults, final long newElapsed) {
+        this(newResults, 0, newElapsed);
+    }
+
+    /**
+     * Instantiates a new bulk report.
+     *
+     * @param newResults
+     *            the results
+     * @param newUnchanged
+     *            the nodes that needed nothing done
+     * @param newElapsed
+     *            the time taken, in msec
+     */
+    BulkReport(final List<NodeResult> newResults, final int newUnchanged,
+            final long newElapsed) {
+        unchanged = newUnchanged;
+        results = Collections.unmodifiableList(new ArrayList<NodeResult>(
+                newResults));
+        elapsed = newElapsed;
+        for (NodeResult.Status status : NodeResult.Status.values()) {
+            counts.put(status, 0);
+        }
+        for (NodeResult result : results) {
+            counts.put(result.getStatus(), counts.get(result.getStatus()) + 1);
+        }
+    }
+
+    /**
+     * Gets the results.
+     *
+     * @return the results, one per node
+     */
+    public List<NodeResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Gets the results that did not succeed.
+     *
+     * @return the failed and skipped results
+     */
+    public List<NodeResult> getFailures() {
+        final List<NodeResult> failures = new ArrayList<NodeResult>();
+        for (NodeResult result : results) {
+            if (!result.isSuccess()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Gets the number of results with a status.
+     *
+     * @param status
+     *            the status
+     * @return the count
+     */
+    public int count(final NodeResult.Status status) {
+        return counts.get(status);
+    }
+
+    /**
+     * Gets the number of nodes that succeeded.
+     *
+     * @return the count
+     */
+    public int getSucceeded() {
+        return count(NodeResult.Status.DONE)
+                + count(NodeResult.Status.VERIFIED);
+    }
+
+    /**
+     * Gets the number of nodes that needed nothing done, such as those an
+     * update left as they were. They have no result.
+     *
+     * @return the count
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Gets the time taken.
+     *
+     * @return the time, in msec
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Gets the throughput.
+     *
+     * @return the nodes that succeeded per second
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : getSucceeded() * MILLIS / elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "BulkReport" + counts + ",unchanged=" + unchanged + " in "
+                + elapsed + " msec";
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Changes attributes, such as profileName or configArg, on many nodes at
+ * once.
+ *
+ * The nodes are chosen by a selector, e.g. the networks in a partition that
+ * match a predicate, and a mutation is applied to a copy of each. Each
+ * changed node is sent as a PUT of its whole data. The PUTs are sent
+ * concurrently, with a bounded number in flight. A node the mutation leaves
+ * as it was is not sent; it is counted by BulkReport.getUnchanged. One
+ * whose identity the mutation changes is reported as failed.
+ */
+public class BulkUpdater {
+
+    /** Default number of updates in flight. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** The crawler that finds the nodes to select from. */
+    private final FabricCrawler crawler;
+
+    /** Most updates in flight. */
+    private int window = DEFAULT_WINDOW;
+
+    /**
+     * Instantiates a new bulk updater.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public BulkUpdater(final DcnmAuthToken newDt) {
+        dt = newDt;
+        crawler = new FabricCrawler(newDt);
+    }
+
+    /**
+     * Gets the crawler that finds the nodes to select from, so that its
+     * parallelism can be set.
+     *
+     * @return the crawler
+     */
+    public final FabricCrawler getCrawler() {
+        return crawler;
+    }
+
+    /**
+     * Gets the most updates in flight.
+     *
+     * @return the window
+     */
+    public final int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the most updates in flight.
+     *
+     * @param newWindow
+     *            the window
+     */
+    public final void setWindow(final int newWindow) {
+        if (newWindow < 1) {
+            throw new IllegalArgumentException("Window must be at least 1.");
+        }
+        window = newWindow;
+    }
+
+    /**
+     * Updates the nodes below a node that the selector matches, e.g. the
+     * networks of a partition. The selector is called from the crawler's
+     * worker threads and must be thread safe.
+     *
+     * @param root
+     *            the node to select below; it is not itself selected
+     * @param selector
+     *            matches the nodes to update
+     * @param mutation
+     *            changes the data of a copy of each node
+     * @return a result per changed node
+     */
+    public final BulkReport update(final Node root,
+            final Predicate<Node> selector, final Consumer<Node> mutation) {
+        final List<Node> selected = Collections
+                .synchronizedList(new ArrayList<Node>());
+        crawler.crawl(root, new Consumer<Node>() {
+            @Override
+            public void accept(final Node node) {
+                if (selector.test(node)) {
+                    selected.add(node);
+                }
+            }
+        });
+        return update(selected, mutation);
+    }
+
+    /**
+     * Updates nodes.
+     *
+     * @param nodes
+     *            the nodes as they are now
+     * @param mutation
+     *            changes the data of a copy of each node
+     * @return a result per changed node
+     */
+    public final BulkReport update(final Iterable<? extends Node> nodes,
+            final Consumer<Node> mutation) {
+        final long start = System.nanoTime();
+        final List<Node> changed = new ArrayList<Node>();
+        final List<NodeResult> results = new ArrayList<NodeResult>();
+        int unchanged = 0;
+        for (Node node : nodes) {
+            final Node copy = new Node(node.getData());
+            mutation.accept(copy);
+            if (!copy.getIdentity().equals(node.getIdentity())) {
+                results.add(new NodeResult(node, NodeResult.Status.FAILED, 0,
+                        "Mutation changed the node's identity."));
+            } else if (copy.getData().equals(node.getData())) {
+                unchanged++;
+            } else {
+                changed.add(copy);
+            }
+        }
+        Collections.addAll(results, send(changed));
+        return new BulkReport(results, unchanged, TimeUnit.NANOSECONDS
+                .toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Sends the updates concurrently.
+     *
+     * @param changed
+     *            the nodes as they should be
+     * @return a result per node
+     */
+    private NodeResult[] send(final List<Node> changed) {
+        final NodeResult[] done = new NodeResult[changed.size()];
+        final RequestWindow inFlight = new RequestWindow(window);
+        for (int i = 0; i < done.length; i++) {
+            final Node node = changed.get(i);
+            final int slot = i;
+            if (!inFlight.send(node,
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return HttpOperations.putOperationAsync(dt,
+                                    Utils.uriBuilder("update", node.getId()),
+                                    node.getDataAsJson());
+                        }
+                    }, new Consumer<NodeResult>() {
+                        @Override
+                        public void accept(final NodeResult result) {
+                            done[slot] = result;
+                        }
+                    })) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "Interrupted.");
+            }
+        }
+        inFlight.drain(dt.getServer(), done);
+        return done;
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The differences between two node sets, by kind.
+ */
+public final class DiffReport {
+
+    /** Nodes only in the second set. */
+    private final List<NodeDiff> added;
+
+    /** Nodes only in the first set. */
+    private final List<NodeDiff> removed;
+
+    /** Nodes in both sets with different values. */
+    private final List<NodeDiff> modified;
+
+    /** Nodes in both sets with the same values. */
+    private final int unchanged;
+
+    /** The time taken, in msec. */
+    private final long elapsed;
+
+    /**
+     * Instantiates a new diff report.
+     *
+     * @param diffs
+     *            the differences
+     * @param newUnchanged
+     *            the nodes with no difference
+     * @param newElapsed
+     *            the time taken, in msec
+     */
+    DiffReport(final List<NodeDiff> diffs, final int newUnchanged,
+            final long newElapsed) {
+        final List<NodeDiff> newAdded = new ArrayList<NodeDiff>();
+        final List<NodeDiff> newRemoved = new ArrayList<NodeDiff>();
+        final List<NodeDiff> newModified = new ArrayList<NodeDiff>();
+        for (NodeDiff diff : diffs) {
+            switch (diff.getKind()) {
+            case ADDED:
+                newAdded.add(diff);
+                break;
+            case REMOVED:
+                newRemoved.add(diff);
+                break;
+            default:
+                newModified.add(diff);
+                break;
+            }
+        }
+        added = Collections.unmodifiableList(newAdded);
+        removed = Collections.unmodifiableList(newRemoved);
+        modified = Collections.unmodifiableList(newModified);
+        unchanged = newUnchanged;
+        elapsed = newElapsed;
+    }
+
+    /**
+     * Gets the nodes only in the second set.
+     *
+     * @return the added nodes
+     */
+    public List<NodeDiff> getAdded() {
+        return added;
+    }
+
+    /**
+     * Gets the nodes only in the first set.
+     *
+     * @return the removed nodes
+     */
+    public List<NodeDiff> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Gets the nodes in both sets with different values.
+     *
+     * @return the modified nodes
+     */
+    public List<NodeDiff> getModified() {
+        return modified;
+    }
+
+    /**
+     * Gets the number of nodes in both sets with the same values.
+     *
+     * @return the unchanged count
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Checks if the sets are the same.
+     *
+     * @return true, if nothing was added, removed or modified
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    /**
+     * Gets the time taken.
+     *
+     * @return the time, in msec
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "DiffReport[added=" + added.size() + ",removed="
+                + removed.size() + ",modified=" + modified.size()
+                + ",unchanged=" + unchanged + "] in " + elapsed + " msec";
+    }
+}
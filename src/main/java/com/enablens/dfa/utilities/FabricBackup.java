@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeType;
+
+/**
+ * Backs up a fabric, or part of one, to a snapshot file.
+ *
+ * The fabric is crawled with a streaming FabricCrawler and each node is
+ * written as soon as it is listed, so the fabric is never held in memory;
+ * heap use is bounded by the crawler's parallelism, not by the size of the
+ * fabric. Each node is written after its parent. See SnapshotWriter for the
+ * format.
+ */
+public class FabricBackup {
+
+    /** The crawler. */
+    private final FabricCrawler crawler;
+
+    /**
+     * Instantiates a new fabric backup.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public FabricBackup(final DcnmAuthToken newDt) {
+        crawler = new FabricCrawler(newDt);
+    }
+
+    /**
+     * Gets the crawler, so that its parallelism can be set.
+     *
+     * @return the crawler
+     */
+    public final FabricCrawler getCrawler() {
+        return crawler;
+    }
+
+    /**
+     * Backs up a node and everything below it to a file. For a TOPOLOGY
+     * node, everything below it is backed up.
+     *
+     * @param root
+     *            the node
+     * @param file
+     *            the file, replaced if it exists
+     * @return the number of nodes backed up
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public final int backup(final Node root, final File file)
+            throws IOException {
+        return backup(root, new FileOutputStream(file));
+    }
+
+    /**
+     * Backs up a node and everything below it to a stream. For a TOPOLOGY
+     * node, everything below it is backed up.
+     *
+     * @param root
+     *            the node
+     * @param out
+     *            the stream; it is closed
+     * @return the number of nodes backed up
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    public final int backup(final Node root, final OutputStream out)
+            throws IOException {
+        final SnapshotWriter writer = new SnapshotWriter(out);
+        try {
+            if (root.getType() != NodeType.TOPOLOGY) {
+                writer.write(root);
+            }
+            crawler.crawl(root, new Consumer<Node>() {
+                @Override
+                public void accept(final Node node) {
+                    try {
+                        writer.write(node);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (final IllegalStateException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            writer.close();
+        }
+        return writer.getCount();
+    }
+}
@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enablens.dfa.base.ChildListing;
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeFingerprint;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeTree;
+import com.enablens.dfa.datastructures.NodeType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Walks a DCNM fabric from a TOPOLOGY node down through its organizations,
+ * partitions and networks.
+ *
+ * Each level (ORGANIZATION, PARTITION, NETWORK) is listed by its own bounded
+ * pool of workers, so a slow partition listing cannot starve the
+ * organization listings. A global cap bounds the number of list requests in
+ * flight against the DCNM at any one time, regardless of level.
+ *
+ * A streaming crawl reads each listing as it arrives and hands each node
+ * over before the next is read, so no listing is held in memory whole.
+ * Streamed listings bypass the inventory cache and are not retried.
+ *
+ * A tree from an earlier crawl can be refreshed. Each listing is sent with
+ * the ETag of the earlier one, and a listing DCNM reports as unchanged, or
+ * whose body has the same digest, keeps its earlier children without
+ * parsing them again. A refresh still sends one request for every node that
+ * can have children, as a node's own data says nothing about what is below
+ * it. Where DCNM does not send ETags, each of those requests also downloads
+ * and hashes the whole listing, so a refresh saves parsing but still costs
+ * time in proportion to the size of the fabric.
+ */
+public class FabricCrawler {
+
+    /** Default number of concurrent list requests per level. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Default number of concurrent list requests across all levels. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    /** The Constant log. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(FabricCrawler.class);
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** Parallelism per level, keyed by the type of node being listed. */
+    private final Map<NodeType, Integer> parallelism =
+            new EnumMap<NodeType, Integer>(NodeType.class);
+
+    /** Maximum list requests in flight across all levels. */
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /** Fingerprints each node's data for the tree's digests. */
+    private NodeFingerprint fingerprint = NodeFingerprint.MURMUR;
+
+    /** Listings whose children were read in the last crawl. */
+    private volatile int listingsRead;
+
+    /** Listings found unchanged in the last crawl. */
+    private volatile int listingsUnchanged;
+
+    /**
+     * Instantiates a new fabric crawler.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public FabricCrawler(final DcnmAuthToken newDt) {
+        dt = newDt;
+        for (NodeType type = NodeType.TOPOLOGY.getChildType(); type != null;
+                type = type.getChildType()) {
+            parallelism.put(type, DEFAULT_PARALLELISM);
+        }
+    }
+
+    /**
+     * Gets the parallelism for a level.
+     *
+     * @param level
+     *            the type of node being listed
+     * @return the number of concurrent list requests for that level
+     */
+    public final int getParallelism(final NodeType level) {
+        return parallelism.get(level);
+    }
+
+    /**
+     * Sets the parallelism for a level.
+     *
+     * @param level
+     *            the type of node being listed; TOPOLOGY is never listed
+     * @param newParallelism
+     *            the number of concurrent list requests for that level
+     */
+    public final void setParallelism(final NodeType level,
+            final int newParallelism) {
+        if (!parallelism.containsKey(level)) {
+            throw new IllegalArgumentException(level
+                    + " is not a crawlable level.");
+        }
+        if (newParallelism < 1) {
+            throw new IllegalArgumentException(
+                    "Parallelism must be at least 1.");
+        }
+        parallelism.put(level, newParallelism);
+    }
+
+    /**
+     * Gets the global in-flight request cap.
+     *
+     * @return the maximum list requests in flight
+     */
+    public final int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the global in-flight request cap.
+     *
+     * @param newMaxInFlight
+     *            the maximum list requests in flight
+     */
+    public final void setMaxInFlight(final int newMaxInFlight) {
+        if (newMaxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "In-flight cap must be at least 1.");
+        }
+        maxInFlight = newMaxInFlight;
+    }
+
+    /**
+     * Gets the fingerprint used for each node's digest.
+     *
+     * @return the fingerprint
+     */
+    public final NodeFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Sets the fingerprint used for each node's digest. A tree is best
+     * refreshed with the fingerprint it was crawled with, as otherwise every
+     * node looks changed.
+     *
+     * @param newFingerprint
+     *            the fingerprint
+     */
+    public final void setFingerprint(final NodeFingerprint newFingerprint) {
+        if (newFingerprint == null) {
+            throw new IllegalArgumentException("Fingerprint cannot be null.");
+        }
+        fingerprint = newFingerprint;
+    }
+
+    /**
+     * Gets the number of listings whose children were read in the last crawl
+     * or refresh.
+     *
+     * @return the listings read
+     */
+    public final int getListingsRead() {
+        return listingsRead;
+    }
+
+    /**
+     * Gets the number of listings found unchanged in the last refresh.
+     *
+     * @return the unchanged listings
+     */
+    public final int getListingsUnchanged() {
+        return listingsUnchanged;
+    }
+
+    /**
+     * Crawls the fabric below a node and returns it as a tree. The tree keeps
+     * the digests needed to refresh it.
+     *
+     * @param root
+     *            the node to start from, normally a TOPOLOGY node
+     * @return the complete tree below root
+     */
+    public final NodeTree crawl(final Node root) {
+        final NodeTree tree = new NodeTree(root);
+        new Crawl(null).run(root, tree, null);
+        return tree;
+    }
+
+    /**
+     * Crawls the fabric below a node, carrying on past listings that fail.
+     * A node whose children could not be listed is added to unlisted and has
+     * no children in the tree.
+     *
+     * @param root
+     *            the node to start from, normally a TOPOLOGY node
+     * @param unlisted
+     *            receives the nodes whose listing failed
+     * @return the tree below root, less what could not be listed
+     */
+    public final NodeTree crawl(final Node root,
+            final Set<NodeIdentity> unlisted) {
+        final NodeTree tree = new NodeTree(root);
+        final Crawl crawl = new Crawl(null);
+        crawl.unlisted = Collections.newSetFromMap(
+                new ConcurrentHashMap<NodeIdentity, Boolean>());
+        try {
+            crawl.run(root, tree, null);
+        } finally {
+            unlisted.addAll(crawl.unlisted);
+        }
+        return tree;
+    }
+
+    /**
+     * Crawls the fabric again below the root of an earlier tree, listing
+     * every node again but reading only the listings that changed. The
+     * earlier tree is not changed.
+     *
+     * @param previous
+     *            the tree from the earlier crawl or refresh
+     * @return the refreshed tree
+     */
+    public final NodeTree refresh(final NodeTree previous) {
+        final NodeTree tree = new NodeTree(previous.getNode());
+        tree.setDigest(previous.getDigest());
+        new Crawl(null).run(previous.getNode(), tree, previous);
+        return tree;
+    }
+
+    /**
+     * Crawls the fabric below a node, handing each node to the consumer as
+     * soon as it is listed. No tree is retained.
+     *
+     * The consumer is called from the crawler's worker threads and must be
+     * thread safe. It is not called for the root node.
+     *
+     * @param root
+     *            the node to start from, normally a TOPOLOGY node
+     * @param consumer
+     *            receives every node found below root
+     */
+    public final void crawl(final Node root, final Consumer<Node> consumer) {
+        new Crawl(consumer).run(root, null, null);
+    }
+
+    /**
+     * State of a single crawl.
+     */
+    private final class Crawl {
+
+        /** Worker pools keyed by the type of node being listed. */
+        private final Map<NodeType, ExecutorService> executors =
+                new EnumMap<NodeType, ExecutorService>(NodeType.class);
+
+        /** Global in-flight cap. */
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        /** Listings submitted but not yet finished. */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /** Released when nothing is pending or a listing has failed. */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /** The first failure seen. */
+        private final AtomicReference<RuntimeException> failure =
+                new AtomicReference<RuntimeException>();
+
+        /** Receives each listed node; null when building a tree. */
+        private final Consumer<Node> consumer;
+
+        /**
+         * The nodes whose listing failed, or null to stop the crawl at the
+         * first failure.
+         */
+        private Set<NodeIdentity> unlisted;
+
+        /** Listings whose children were read. */
+        private final AtomicInteger read = new AtomicInteger();
+
+        /** Listings found unchanged. */
+        private final AtomicInteger unchanged = new AtomicInteger();
+
+        /**
+         * Instantiates a new crawl.
+         *
+         * @param newConsumer
+         *            the consumer, or null to build a tree
+         */
+        Crawl(final Consumer<Node> newConsumer) {
+            consumer = newConsumer;
+            for (Map.Entry<NodeType, Integer> level : parallelism.entrySet()) {
+                executors.put(level.getKey(), Executors.newFixedThreadPool(
+                        level.getValue(), new ThreadFactoryBuilder()
+                                .setNameFormat("dfa-crawler-"
+                                        + level.getKey() + "-%d")
+                                .setDaemon(true).build()));
+            }
+        }
+
+        /**
+         * Runs the crawl and waits for it to finish.
+         *
+         * @param root
+         *            the root node
+         * @param tree
+         *            the tree for root, or null when streaming
+         * @param previous
+         *            the earlier tree for root, or null
+         */
+        void run(final Node root, final NodeTree tree,
+                final NodeTree previous) {
+            submit(root, tree, previous);
+            try {
+                if (pending.get() > 0) {
+                    done.await();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new IllegalStateException(
+                        "Crawl interrupted", e));
+            } finally {
+                for (ExecutorService executor : executors.values()) {
+                    executor.shutdownNow();
+                }
+                listingsRead = read.get();
+                listingsUnchanged = unchanged.get();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        /**
+         * Queues the listing of a node's children.
+         *
+         * @param parent
+         *            the parent node
+         * @param tree
+         *            the tree for parent, or null when streaming
+         * @param previous
+         *            the earlier tree for parent, or null
+         */
+        private void submit(final Node parent, final NodeTree tree,
+                final NodeTree previous) {
+            final NodeType level = parent.getType().getChildType();
+            if (level == null) {
+                return;
+            }
+            pending.incrementAndGet();
+            try {
+                executors.get(level).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            list(parent, tree, previous);
+                        } finally {
+                            if (pending.decrementAndGet() == 0) {
+                                done.countDown();
+                            }
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // Crawl already aborted
+                pending.decrementAndGet();
+            }
+        }
+
+        /**
+         * Lists a node's children and queues the next level.
+         *
+         * @param parent
+         *            the parent node
+         * @param tree
+         *            the tree for parent, or null when streaming
+         * @param previous
+         *            the earlier tree for parent, or null
+         */
+        private void list(final Node parent, final NodeTree tree,
+                final NodeTree previous) {
+            if (failure.get() != null) {
+                return;
+            }
+            Node[] children;
+            ChildListing listing = null;
+            try {
+                inFlight.acquire();
+                try {
+                    if (tree == null) {
+                        children = null;
+                        Utils.forEachChild(dt, parent.getId(),
+                                new Consumer<Node>() {
+                                    @Override
+                                    public void accept(final Node child) {
+                                        consumer.accept(child);
+                                        submit(child, null, null);
+                                    }
+                                });
+                    } else if (previous == null) {
+                        listing = Utils.getChildListing(dt, parent.getId(),
+                                null, null);
+                        children = listing.getChildren();
+                    } else {
+                        listing = Utils.getChildListing(dt, parent.getId(),
+                                previous.getListingEtag(),
+                                previous.getListingDigest());
+                        children = listing.getChildren();
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final RuntimeException e) {
+                LOG.warn("Unable to list children of {}", parent.getId());
+                if (unlisted != null) {
+                    unlisted.add(parent.getIdentity());
+                    return;
+                }
+                failure.compareAndSet(null, new IllegalStateException(
+                        "Unable to list children of " + parent.getId(), e));
+                done.countDown();
+                return;
+            }
+            if (tree == null) {
+                read.incrementAndGet();
+                return;
+            }
+            tree.setListingEtag(listing.getEtag());
+            tree.setListingDigest(listing.getDigest());
+            if (listing.isModified()) {
+                read.incrementAndGet();
+                addChildren(tree, children, previous);
+            } else {
+                unchanged.incrementAndGet();
+                keepChildren(tree, previous);
+            }
+        }
+
+        /**
+         * Adds the children from a listing that was read, and queues the next
+         * level below each.
+         *
+         * @param tree
+         *            the tree for the parent
+         * @param children
+         *            the children
+         * @param previous
+         *            the earlier tree for the parent, or null
+         */
+        private void addChildren(final NodeTree tree, final Node[] children,
+                final NodeTree previous) {
+            final Map<NodeIdentity, NodeTree> before =
+                    new HashMap<NodeIdentity, NodeTree>();
+            if (previous != null) {
+                for (NodeTree child : previous.getChildren()) {
+                    before.put(child.getNode().getIdentity(), child);
+                }
+            }
+            for (Node child : children) {
+                next(tree, child, fingerprint.fingerprint(child),
+                        before.get(child.getIdentity()));
+            }
+        }
+
+        /**
+         * Keeps the children of an unchanged listing, and queues the next
+         * level below each.
+         *
+         * @param tree
+         *            the tree for the parent
+         * @param previous
+         *            the earlier tree for the parent
+         */
+        private void keepChildren(final NodeTree tree,
+                final NodeTree previous) {
+            for (NodeTree child : previous.getChildren()) {
+                next(tree, child.getNode(), child.getDigest(), child);
+            }
+        }
+
+        /**
+         * Adds a child to a tree and queues its listing.
+         *
+         * @param tree
+         *            the tree for the parent
+         * @param child
+         *            the child
+         * @param digest
+         *            the child's digest
+         * @param previous
+         *            the child's earlier tree, or null
+         */
+        private void next(final NodeTree tree, final Node child,
+                final String digest, final NodeTree previous) {
+            final NodeTree childTree = new NodeTree(child);
+            childTree.setDigest(digest);
+            tree.addChild(childTree);
+            submit(child, childTree, previous);
+        }
+    }
+}
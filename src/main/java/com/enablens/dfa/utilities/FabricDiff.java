@@ -0,0 +1,554 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeType;
+
+/**
+ * Compares two node sets, such as two snapshots or a snapshot and the live
+ * fabric. Nodes are matched by identity, and each node added, removed or
+ * modified is reported with the attributes that differ.
+ *
+ * Both sets are first split into partitions by identity hash and spilled to
+ * temporary snapshot files, so a node and its match always land in the same
+ * partition. The partitions are then compared in parallel, each by loading
+ * one side into a map and streaming the other past it. Heap use is bounded
+ * by one partition per thread and by the differences found, not by the size
+ * of the fabric.
+ */
+public class FabricDiff {
+
+    /** Default partitions. */
+    public static final int DEFAULT_PARTITIONS = 32;
+
+    /** Most partitions. */
+    private static final int MAX_PARTITIONS = 1024;
+
+    /** Orders differences parents first, then by identity. */
+    private static final Comparator<NodeDiff> ORDER =
+            new Comparator<NodeDiff>() {
+                @Override
+                public int compare(final NodeDiff a, final NodeDiff b) {
+                    final int byType = a.getIdentity().getType().compareTo(
+                            b.getIdentity().getType());
+                    return byType != 0 ? byType : a.getIdentity().toString()
+                            .compareTo(b.getIdentity().toString());
+                }
+            };
+
+    /** The partitions. */
+    private int partitions = DEFAULT_PARTITIONS;
+
+    /** The threads comparing partitions. */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the number of partitions each set is split into. More partitions
+     * use less heap per thread but open more files.
+     *
+     * @param newPartitions
+     *            the partitions
+     */
+    public final void setPartitions(final int newPartitions) {
+        if (newPartitions < 1 || newPartitions > MAX_PARTITIONS) {
+            throw new IllegalArgumentException("Partitions must be between 1"
+                    + " and " + MAX_PARTITIONS + ".");
+        }
+        partitions = newPartitions;
+    }
+
+    /**
+     * Gets the number of partitions.
+     *
+     * @return the partitions
+     */
+    public final int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Sets the number of threads comparing partitions.
+     *
+     * @param newParallelism
+     *            the threads
+     */
+    public final void setParallelism(final int newParallelism) {
+        if (newParallelism < 1) {
+            throw new IllegalArgumentException(
+                    "Parallelism must be at least 1.");
+        }
+        parallelism = newParallelism;
+    }
+
+    /**
+     * Gets the number of threads comparing partitions.
+     *
+     * @return the threads
+     */
+    public final int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Compares two snapshot files.
+     *
+     * @param before
+     *            the first snapshot
+     * @param after
+     *            the second snapshot
+     * @return the differences
+     * @throws IOException
+     *             if a snapshot cannot be read
+     */
+    public final DiffReport diff(final File before, final File after)
+            throws IOException {
+        final SnapshotReader first = new SnapshotReader(new FileInputStream(
+                before));
+        try {
+            final SnapshotReader second = new SnapshotReader(
+                    new FileInputStream(after));
+            try {
+                return diff(first, second);
+            } finally {
+                second.close();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    /**
+     * Compares a snapshot file with the live fabric below a node. For a
+     * TOPOLOGY node, everything below it is compared, as FabricBackup
+     * would have saved it.
+     *
+     * @param before
+     *            the snapshot
+     * @param crawler
+     *            the crawler for the live fabric
+     * @param root
+     *            the node
+     * @return the differences, with the live fabric as the second set
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    public final DiffReport diff(final File before,
+            final FabricCrawler crawler, final Node root) throws IOException {
+        final SnapshotReader first = new SnapshotReader(new FileInputStream(
+                before));
+        try {
+            return diff(first, crawler, root);
+        } finally {
+            first.close();
+        }
+    }
+
+    /**
+     * Compares a node set with the live fabric below a node. For a TOPOLOGY
+     * node, everything below it is compared.
+     *
+     * @param before
+     *            the first set
+     * @param crawler
+     *            the crawler for the live fabric
+     * @param root
+     *            the node
+     * @return the differences, with the live fabric as the second set
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    public final DiffReport diff(final Iterator<Node> before,
+            final FabricCrawler crawler, final Node root) throws IOException {
+        return diff(before, 1, crawler, root);
+    }
+
+    /**
+     * Compares the live fabric below a node with a node set, such as a
+     * desired state. For a TOPOLOGY node, everything below it is compared.
+     *
+     * @param crawler
+     *            the crawler for the live fabric
+     * @param root
+     *            the node
+     * @param after
+     *            the second set
+     * @return the differences, with the live fabric as the first set
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    public final DiffReport diff(final FabricCrawler crawler,
+            final Node root, final Iterator<Node> after) throws IOException {
+        return diff(after, 0, crawler, root);
+    }
+
+    /**
+     * Compares a node set with the live fabric below a node.
+     *
+     * @param nodes
+     *            the node set
+     * @param liveSide
+     *            0 if the live fabric is the first set, 1 if the second
+     * @param crawler
+     *            the crawler for the live fabric
+     * @param root
+     *            the node
+     * @return the differences
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    private DiffReport diff(final Iterator<Node> nodes, final int liveSide,
+            final FabricCrawler crawler, final Node root) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Spill spill = new Spill();
+        try {
+            spill.split(nodes, 1 - liveSide);
+            final Split live = spill.open(liveSide);
+            try {
+                if (root.getType() != NodeType.TOPOLOGY) {
+                    live.write(root);
+                }
+                crawler.crawl(root, new Consumer<Node>() {
+                    @Override
+                    public void accept(final Node node) {
+                        try {
+                            live.write(node);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (final IllegalStateException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            } finally {
+                live.close();
+            }
+            return spill.compare(start);
+        } finally {
+            spill.delete();
+        }
+    }
+
+    /**
+     * Compares two node sets.
+     *
+     * @param before
+     *            the first set
+     * @param after
+     *            the second set
+     * @return the differences
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    public final DiffReport diff(final Iterator<Node> before,
+            final Iterator<Node> after) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Spill spill = new Spill();
+        try {
+            spill.split(before, 0);
+            spill.split(after, 1);
+            return spill.compare(start);
+        } finally {
+            spill.delete();
+        }
+    }
+
+    /**
+     * Gets the partition of an identity. The identity hash is mixed first,
+     * as its low bits vary little between siblings.
+     *
+     * @param id
+     *            the identity
+     * @param count
+     *            the partitions
+     * @return the partition
+     */
+    static int partitionOf(final NodeIdentity id, final int count) {
+        int h = id.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * Compares one partition: the first side is loaded into a map and the
+     * second streamed past it.
+     *
+     * @param before
+     *            the first side
+     * @param after
+     *            the second side
+     * @param diffs
+     *            receives the differences
+     * @return the number of unchanged nodes
+     * @throws IOException
+     *             if a side cannot be read
+     */
+    static int compare(final File before, final File after,
+            final List<NodeDiff> diffs) throws IOException {
+        final Map<NodeIdentity, Node> first = new HashMap<NodeIdentity, Node>();
+        final SnapshotReader firstReader = new SnapshotReader(
+                new FileInputStream(before));
+        try {
+            while (firstReader.hasNext()) {
+                final Node node = firstReader.next();
+                first.put(node.getIdentity(), node);
+            }
+        } finally {
+            firstReader.close();
+        }
+        int unchanged = 0;
+        final SnapshotReader secondReader = new SnapshotReader(
+                new FileInputStream(after));
+        try {
+            while (secondReader.hasNext()) {
+                final Node node = secondReader.next();
+                final NodeDiff diff = NodeDiff.of(first.remove(node
+                        .getIdentity()), node);
+                if (diff == null) {
+                    unchanged++;
+                } else {
+                    diffs.add(diff);
+                }
+            }
+        } finally {
+            secondReader.close();
+        }
+        for (Node node : first.values()) {
+            diffs.add(NodeDiff.of(node, null));
+        }
+        return unchanged;
+    }
+
+    /**
+     * The partition files of one comparison, in a temporary directory.
+     */
+    private final class Spill {
+
+        /** The directory. */
+        private final File dir;
+
+        /** The partition count. */
+        private final int count = partitions;
+
+        /**
+         * Instantiates a new spill.
+         *
+         * @throws IOException
+         *             if the directory cannot be made
+         */
+        Spill() throws IOException {
+            dir = Files.createTempDirectory("dfa-diff").toFile();
+        }
+
+        /**
+         * Gets a partition file.
+         *
+         * @param side
+         *            0 for the first set, 1 for the second
+         * @param partition
+         *            the partition
+         * @return the file
+         */
+        File file(final int side, final int partition) {
+            return new File(dir, side + "-" + partition + ".ndjson.gz");
+        }
+
+        /**
+         * Opens the partition files of a side.
+         *
+         * @param side
+         *            0 for the first set, 1 for the second
+         * @return the writers
+         * @throws IOException
+         *             if a file cannot be opened
+         */
+        Split open(final int side) throws IOException {
+            final Split split = new Split(count);
+            try {
+                for (int p = 0; p < count; p++) {
+                    split.writers[p] = new SnapshotWriter(new FileOutputStream(
+                            file(side, p)), Deflater.BEST_SPEED);
+                }
+            } catch (final IOException e) {
+                split.close();
+                throw e;
+            }
+            return split;
+        }
+
+        /**
+         * Splits a node set into the partition files of a side.
+         *
+         * @param nodes
+         *            the nodes
+         * @param side
+         *            0 for the first set, 1 for the second
+         * @throws IOException
+         *             if a file cannot be written
+         */
+        void split(final Iterator<Node> nodes, final int side)
+                throws IOException {
+            final Split split = open(side);
+            try {
+                while (nodes.hasNext()) {
+                    split.write(nodes.next());
+                }
+            } finally {
+                split.close();
+            }
+        }
+
+        /**
+         * Compares the partitions in parallel.
+         *
+         * @param start
+         *            when the comparison started, in msec
+         * @return the differences
+         * @throws IOException
+         *             if a partition cannot be read
+         */
+        DiffReport compare(final long start) throws IOException {
+            final ExecutorService pool = Executors.newFixedThreadPool(Math
+                    .min(parallelism, count));
+            final List<NodeDiff> diffs = new ArrayList<NodeDiff>();
+            int unchanged = 0;
+            try {
+                final List<Future<Integer>> results =
+                        new ArrayList<Future<Integer>>();
+                final List<List<NodeDiff>> found =
+                        new ArrayList<List<NodeDiff>>();
+                for (int p = 0; p < count; p++) {
+                    final File before = file(0, p);
+                    final File after = file(1, p);
+                    final List<NodeDiff> partial = new ArrayList<NodeDiff>();
+                    found.add(partial);
+                    results.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return FabricDiff.compare(before, after, partial);
+                        }
+                    }));
+                }
+                for (int p = 0; p < count; p++) {
+                    unchanged += results.get(p).get();
+                    diffs.addAll(found.get(p));
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Diff interrupted", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Diff failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            Collections.sort(diffs, ORDER);
+            return new DiffReport(diffs, unchanged,
+                    System.currentTimeMillis() - start);
+        }
+
+        /**
+         * Deletes the partition files and the directory.
+         */
+        void delete() {
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * The open partition files of one side.
+     */
+    private static final class Split {
+
+        /** The writers, by partition. */
+        private final SnapshotWriter[] writers;
+
+        /**
+         * Instantiates a new split.
+         *
+         * @param count
+         *            the partitions
+         */
+        Split(final int count) {
+            writers = new SnapshotWriter[count];
+        }
+
+        /**
+         * Writes a node to its partition.
+         *
+         * @param node
+         *            the node
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        void write(final Node node) throws IOException {
+            writers[partitionOf(node.getIdentity(), writers.length)]
+                    .write(node);
+        }
+
+        /**
+         * Closes every writer.
+         *
+         * @throws IOException
+         *             if a file cannot be closed
+         */
+        void close() throws IOException {
+            IOException failure = null;
+            for (SnapshotWriter writer : writers) {
+                try {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Brings the live fabric below a node to a desired state, such as a
+ * snapshot written by FabricBackup.
+ *
+ * The live fabric is diffed against the desired state with a FabricDiff,
+ * and only what differs is changed: nodes only in the desired state are
+ * created, nodes only in the fabric are deleted, and nodes whose data
+ * differs are updated with a PUT of the desired data. The desired state is
+ * the whole state, so an attribute it leaves out is cleared.
+ *
+ * Deletes go first, a level at a time and leaves first, then updates and
+ * creates, a level at a time and parents first. Within a level the requests
+ * are sent concurrently, with a bounded number in flight. A node is skipped
+ * when a change it depends on failed: a delete when a child was not
+ * deleted, and a create when its parent was not created.
+ *
+ * In a dry run the plan is made as usual but nothing is sent; each change
+ * is reported as PLANNED. The plan itself can be printed with
+ * ReconcilePlan.print.
+ */
+public class FabricReconcile {
+
+    /** Default number of requests in flight. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /**
+     * A kind of change.
+     */
+    private enum Change {
+        /** Create a node. */
+        CREATE,
+        /** Update a node. */
+        UPDATE,
+        /** Delete a node. */
+        DELETE
+    }
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** The crawler that reads the live fabric. */
+    private final FabricCrawler crawler;
+
+    /** The diff of the live fabric against the desired state. */
+    private final FabricDiff diff = new FabricDiff();
+
+    /** Most requests in flight. */
+    private int window = DEFAULT_WINDOW;
+
+    /** Whether nothing is sent. */
+    private boolean dryRun;
+
+    /**
+     * Instantiates a new fabric reconcile.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public FabricReconcile(final DcnmAuthToken newDt) {
+        dt = newDt;
+        crawler = new FabricCrawler(newDt);
+    }
+
+    /**
+     * Gets the crawler that reads the live fabric, so that its parallelism
+     * can be set.
+     *
+     * @return the crawler
+     */
+    public final FabricCrawler getCrawler() {
+        return crawler;
+    }
+
+    /**
+     * Gets the diff of the live fabric against the desired state, so that
+     * its partitions and parallelism can be set.
+     *
+     * @return the diff
+     */
+    public final FabricDiff getDiff() {
+        return diff;
+    }
+
+    /**
+     * Gets the most requests in flight.
+     *
+     * @return the window
+     */
+    public final int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the most requests in flight.
+     *
+     * @param newWindow
+     *            the window
+     */
+    public final void setWindow(final int newWindow) {
+        if (newWindow < 1) {
+            throw new IllegalArgumentException("Window must be at least 1.");
+        }
+        window = newWindow;
+    }
+
+    /**
+     * Checks if this is a dry run.
+     *
+     * @return true, if nothing is sent
+     */
+    public final boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets whether this is a dry run, which plans the changes and reports
+     * them without sending them.
+     *
+     * @param newDryRun
+     *            true for a dry run
+     */
+    public final void setDryRun(final boolean newDryRun) {
+        dryRun = newDryRun;
+    }
+
+    /**
+     * Plans the changes that bring the fabric below a node to the desired
+     * state in a snapshot file. For a TOPOLOGY node, everything below it is
+     * compared.
+     *
+     * @param desired
+     *            the snapshot
+     * @param root
+     *            the node
+     * @return the plan
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    public final ReconcilePlan plan(final File desired, final Node root)
+            throws IOException {
+        final SnapshotReader reader = new SnapshotReader(new FileInputStream(
+                desired));
+        try {
+            return plan(reader, root);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Plans the changes that bring the fabric below a node to a desired
+     * state. For a TOPOLOGY node, everything below it is compared.
+     *
+     * @param desired
+     *            the desired nodes, in any order
+     * @param root
+     *            the node
+     * @return the plan
+     * @throws IOException
+     *             if the diff's partitions cannot be written
+     */
+    public final ReconcilePlan plan(final Iterator<Node> desired,
+            final Node root) throws IOException {
+        return new ReconcilePlan(diff.diff(crawler, root, desired));
+    }
+
+    /**
+     * Brings the fabric below a node to the desired state in a snapshot
+     * file.
+     *
+     * @param desired
+     *            the snapshot
+     * @param root
+     *            the node
+     * @return a result per change, in the order sent
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    public final BulkReport reconcile(final File desired, final Node root)
+            throws IOException {
+        return apply(plan(desired, root));
+    }
+
+    /**
+     * Applies a plan.
+     *
+     * @param plan
+     *            the plan
+     * @return a result per change, in the order sent
+     */
+    public final BulkReport apply(final ReconcilePlan plan) {
+        final long start = System.nanoTime();
+        final List<NodeResult> results = new ArrayList<NodeResult>();
+        final Set<NodeIdentity> kept = new HashSet<NodeIdentity>();
+        for (List<NodeDiff> level : levels(plan.getDeletes())) {
+            for (NodeResult result : send(level, Change.DELETE, kept)) {
+                results.add(result);
+                if (!result.isSuccess()) {
+                    kept.add(result.getNode().getIdentity().getParent());
+                }
+            }
+        }
+        for (List<NodeDiff> level : levels(plan.getUpdates())) {
+            for (NodeResult result : send(level, Change.UPDATE, null)) {
+                results.add(result);
+            }
+        }
+        final Set<NodeIdentity> notCreated = new HashSet<NodeIdentity>();
+        for (List<NodeDiff> level : levels(plan.getCreates())) {
+            for (NodeResult result : send(level, Change.CREATE, notCreated)) {
+                results.add(result);
+                if (!result.isSuccess()) {
+                    notCreated.add(result.getNode().getIdentity());
+                }
+            }
+        }
+        return new BulkReport(results, TimeUnit.NANOSECONDS.toMillis(System
+                .nanoTime() - start));
+    }
+
+    /**
+     * Splits changes, sorted by type, into one list per type.
+     *
+     * @param changes
+     *            the changes
+     * @return the levels, in the same order
+     */
+    private static List<List<NodeDiff>> levels(final List<NodeDiff> changes) {
+        final List<List<NodeDiff>> levels = new ArrayList<List<NodeDiff>>();
+        List<NodeDiff> level = null;
+        for (NodeDiff change : changes) {
+            if (level == null || level.get(0).getIdentity().getType()
+                    != change.getIdentity().getType()) {
+                level = new ArrayList<NodeDiff>();
+                levels.add(level);
+            }
+            level.add(change);
+        }
+        return levels;
+    }
+
+    /**
+     * Sends the changes of one level concurrently.
+     *
+     * @param level
+     *            the changes
+     * @param change
+     *            the kind of change
+     * @param blocked
+     *            for deletes, the nodes with a child not deleted; for
+     *            creates, the nodes not created; otherwise null
+     * @return a result per change
+     */
+    private NodeResult[] send(final List<NodeDiff> level,
+            final Change change, final Set<NodeIdentity> blocked) {
+        final NodeResult[] done = new NodeResult[level.size()];
+        final RequestWindow inFlight = new RequestWindow(window);
+        for (int i = 0; i < done.length; i++) {
+            final Node node = change == Change.DELETE ? level.get(i)
+                    .getBefore() : level.get(i).getAfter();
+            if (change == Change.DELETE
+                    && blocked.contains(node.getIdentity())) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "A child was not deleted.");
+                continue;
+            }
+            if (change == Change.CREATE
+                    && blocked.contains(node.getIdentity().getParent())) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "Parent was not created.");
+                continue;
+            }
+            if (dryRun) {
+                done[i] = new NodeResult(node, NodeResult.Status.PLANNED, 0,
+                        null);
+                continue;
+            }
+            final int slot = i;
+            if (!inFlight.send(node,
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return request(node, change);
+                        }
+                    }, new Consumer<NodeResult>() {
+                        @Override
+                        public void accept(final NodeResult result) {
+                            if (change == Change.DELETE) {
+                                done[slot] = NodeResult.deleted(result);
+                            } else {
+                                done[slot] = result;
+                            }
+                        }
+                    })) {
+                done[i] = new NodeResult(node, NodeResult.Status.SKIPPED, 0,
+                        "Interrupted.");
+            }
+        }
+        inFlight.drain(dt.getServer(), done);
+        return done;
+    }
+
+    /**
+     * Sends one change.
+     *
+     * @param node
+     *            the desired node, or the live node for a delete
+     * @param change
+     *            the kind of change
+     * @return the response
+     */
+    private CompletableFuture<HttpResponse<String>> request(final Node node,
+            final Change change) {
+        switch (change) {
+        case CREATE:
+            return HttpOperations.postOperationAsync(dt,
+                    Utils.uriBuilder("create", node.getParentId()),
+                    node.getDataAsJson());
+        case UPDATE:
+            return HttpOperations.putOperationAsync(dt,
+                    Utils.uriBuilder("update", node.getId()),
+                    node.getDataAsJson());
+        default:
+            return HttpOperations.deleteOperationAsync(dt,
+                    Utils.uriBuilder("delete", node.getId()), "");
+        }
+    }
+}
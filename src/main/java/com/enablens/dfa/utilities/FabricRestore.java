@@ -0,0 +1,560 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.InventoryCache;
+import com.enablens.dfa.base.RetryPolicy;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeJson;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Restores a snapshot written by FabricBackup into DCNM.
+ *
+ * The snapshot is read in one pass and each node is created as it is read,
+ * with a bounded number of creates in flight. A snapshot has every node
+ * after its parent, so each create waits only for its own parent's; siblings
+ * and cousins are created in parallel. A node whose parent is not in the
+ * snapshot is assumed to exist already. A node whose parent could not be
+ * created is skipped. When DCNM refuses a create, the node is read back: one
+ * that is already there, e.g. from an earlier run, counts as created.
+ *
+ * With a checkpoint file, the restore can be resumed. The file holds the
+ * number of nodes, from the start of the snapshot, that are settled: created,
+ * refused by DCNM, or skipped because a parent was refused. It also lists
+ * the settled nodes that were refused and may have children, so that a
+ * resumed restore skips their children again rather than assuming they
+ * exist. A node that failed without an answer from DCNM, e.g. while it was
+ * unreachable or busy, is not settled, and nor is anything after it. A
+ * resumed restore skips the settled nodes and sends the rest again, so a node
+ * may be sent twice.
+ */
+public class FabricRestore {
+
+    /** Default number of creates in flight. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /** Default number of nodes settled between checkpoint writes. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** HTTP Not Found. */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * What became of a node, as its children see it.
+     */
+    private enum Outcome {
+        /** It was created. */
+        CREATED,
+        /** DCNM refused it, or it was skipped for a refused parent. */
+        REFUSED,
+        /** It could not be sent, or DCNM did not answer or was busy. */
+        UNREACHED
+    }
+
+    /** The DCNM authentication token. */
+    private final DcnmAuthToken dt;
+
+    /** Most creates in flight. */
+    private int window = DEFAULT_WINDOW;
+
+    /** Nodes settled between checkpoint writes. */
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    /**
+     * Instantiates a new fabric restore.
+     *
+     * @param newDt
+     *            the DCNM authentication token
+     */
+    public FabricRestore(final DcnmAuthToken newDt) {
+        dt = newDt;
+    }
+
+    /**
+     * Gets the most creates in flight.
+     *
+     * @return the window
+     */
+    public final int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the most creates in flight.
+     *
+     * @param newWindow
+     *            the window
+     */
+    public final void setWindow(final int newWindow) {
+        if (newWindow < 1) {
+            throw new IllegalArgumentException("Window must be at least 1.");
+        }
+        window = newWindow;
+    }
+
+    /**
+     * Gets the number of nodes settled between checkpoint writes.
+     *
+     * @return the interval
+     */
+    public final int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the number of nodes settled between checkpoint writes.
+     *
+     * @param newCheckpointInterval
+     *            the interval
+     */
+    public final void setCheckpointInterval(final int newCheckpointInterval) {
+        if (newCheckpointInterval < 1) {
+            throw new IllegalArgumentException(
+                    "Checkpoint interval must be at least 1.");
+        }
+        checkpointInterval = newCheckpointInterval;
+    }
+
+    /**
+     * Restores a snapshot file.
+     *
+     * @param snapshot
+     *            the snapshot
+     * @return a result per node restored, in the order they finished
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    public final BulkReport restore(final File snapshot) throws IOException {
+        return restore(new FileInputStream(snapshot), 0, null);
+    }
+
+    /**
+     * Restores a snapshot file, resuming from a checkpoint file if there is
+     * one, and keeping the checkpoint file up to date.
+     *
+     * @param snapshot
+     *            the snapshot
+     * @param checkpoint
+     *            the checkpoint file
+     * @return a result per node restored in this run, in the order they
+     *         finished
+     * @throws IOException
+     *             if the snapshot cannot be read or the checkpoint written
+     */
+    public final BulkReport restore(final File snapshot, final File checkpoint)
+            throws IOException {
+        int skip = 0;
+        final List<NodeIdentity> refused = new ArrayList<NodeIdentity>();
+        if (checkpoint.exists()) {
+            final List<String> lines = Files.readAllLines(checkpoint.toPath(),
+                    StandardCharsets.UTF_8);
+            try {
+                skip = lines.isEmpty() ? 0 : Integer.parseInt(lines.get(0)
+                        .trim());
+                for (String line : lines.subList(Math.min(1, lines.size()),
+                        lines.size())) {
+                    if (line.trim().length() > 0) {
+                        final Map<String, String> id = NodeJson
+                                .readData(line);
+                        refused.add(new NodeIdentity(Node.getType(id), id));
+                    }
+                }
+            } catch (final RuntimeException e) {
+                throw new IllegalArgumentException(checkpoint
+                        + " is not a restore checkpoint.", e);
+            }
+        }
+        return restore(new FileInputStream(snapshot), skip, refused,
+                checkpoint);
+    }
+
+    /**
+     * Restores a snapshot.
+     *
+     * @param snapshot
+     *            the snapshot; it is closed
+     * @param skip
+     *            the number of nodes at the start already settled
+     * @param checkpoint
+     *            the checkpoint file, or null for none
+     * @return a result per node restored, in the order they finished
+     * @throws IOException
+     *             if the snapshot cannot be read or the checkpoint written
+     */
+    public final BulkReport restore(final InputStream snapshot,
+            final int skip, final File checkpoint) throws IOException {
+        return restore(snapshot, skip, new ArrayList<NodeIdentity>(),
+                checkpoint);
+    }
+
+    /**
+     * Restores a snapshot.
+     *
+     * @param snapshot
+     *            the snapshot; it is closed
+     * @param skip
+     *            the number of nodes at the start already settled
+     * @param refused
+     *            the settled nodes that were refused and may have children
+     * @param checkpoint
+     *            the checkpoint file, or null for none
+     * @return a result per node restored, in the order they finished
+     * @throws IOException
+     *             if the snapshot cannot be read or the checkpoint written
+     */
+    private BulkReport restore(final InputStream snapshot, final int skip,
+            final List<NodeIdentity> refused, final File checkpoint)
+            throws IOException {
+        final long start = System.nanoTime();
+        final Run run = new Run(skip, refused);
+        final SnapshotReader reader = new SnapshotReader(snapshot);
+        int saved = skip;
+        try {
+            while (reader.hasNext()) {
+                final Node node = reader.next();
+                final int index = reader.getCount() - 1;
+                if (index < skip) {
+                    continue;
+                }
+                if (!run.submit(index, node)) {
+                    break;
+                }
+                if (checkpoint != null
+                        && run.getSettled() - saved >= checkpointInterval) {
+                    saved = run.getSettled();
+                    save(checkpoint, run.getCheckpoint());
+                }
+            }
+        } finally {
+            run.inFlight.drain();
+            reader.close();
+        }
+        if (checkpoint != null) {
+            // An interrupt would close the file channel mid-write
+            final boolean interrupted = Thread.interrupted();
+            try {
+                save(checkpoint, run.getCheckpoint());
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return new BulkReport(run.getResults(), TimeUnit.NANOSECONDS
+                .toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Writes a checkpoint, replacing the file in one step.
+     *
+     * @param checkpoint
+     *            the checkpoint file
+     * @param text
+     *            the checkpoint
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void save(final File checkpoint, final String text)
+            throws IOException {
+        final File temp = new File(checkpoint.getPath() + ".tmp");
+        Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), checkpoint.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * State of a single restore.
+     */
+    private final class Run {
+
+        /** Creates in flight. */
+        private final RequestWindow inFlight = new RequestWindow(window);
+
+        /** Outcomes of the nodes that may have children, by identity. */
+        private final Map<NodeIdentity, CompletableFuture<Outcome>> parents =
+                new HashMap<NodeIdentity, CompletableFuture<Outcome>>();
+
+        /** The results, in the order they finished. */
+        private final List<NodeResult> results = new ArrayList<NodeResult>();
+
+        /** The nodes settled past the first unsettled one, by index. */
+        private final BitSet settled = new BitSet();
+
+        /**
+         * The nodes refused that may have children, by index; those before
+         * the mark are written to the checkpoint.
+         */
+        private final TreeMap<Integer, NodeIdentity> refused =
+                new TreeMap<Integer, NodeIdentity>();
+
+        /** The refused nodes carried over from an earlier run. */
+        private final List<NodeIdentity> carried;
+
+        /** The number of leading nodes settled. */
+        private int mark;
+
+        /**
+         * Instantiates a new run.
+         *
+         * @param skip
+         *            the number of nodes at the start already settled
+         * @param newCarried
+         *            the settled nodes that were refused and may have
+         *            children
+         */
+        Run(final int skip, final List<NodeIdentity> newCarried) {
+            mark = skip;
+            carried = newCarried;
+            final CompletableFuture<Outcome> refusal = CompletableFuture
+                    .completedFuture(Outcome.REFUSED);
+            for (NodeIdentity id : carried) {
+                parents.put(id, refusal);
+            }
+        }
+
+        /**
+         * Sends a node's create once its parent's is done. Called from the
+         * reading thread only.
+         *
+         * @param index
+         *            the node's place in the snapshot
+         * @param node
+         *            the node
+         * @return true, or false if the thread was interrupted
+         */
+        boolean submit(final int index, final Node node) {
+            if (!inFlight.acquire()) {
+                return false;
+            }
+            CompletableFuture<Outcome> parent = parents.get(node
+                    .getIdentity().getParent());
+            if (parent == null) {
+                parent = CompletableFuture.completedFuture(Outcome.CREATED);
+            }
+            final CompletableFuture<Outcome> outcome = parent.thenCompose(
+                    new Function<Outcome, CompletionStage<Outcome>>() {
+                        @Override
+                        public CompletionStage<Outcome> apply(
+                                final Outcome parentOutcome) {
+                            if (parentOutcome != Outcome.CREATED) {
+                                finish(index, new NodeResult(node,
+                                        NodeResult.Status.SKIPPED, 0,
+                                        "Parent was not restored."),
+                                        parentOutcome);
+                                return CompletableFuture.completedFuture(
+                                        parentOutcome);
+                            }
+                            return create(index, node);
+                        }
+                    });
+            if (node.getType().getChildType() != null) {
+                parents.put(node.getIdentity(), outcome);
+            }
+            return true;
+        }
+
+        /**
+         * Sends a node's create.
+         *
+         * @param index
+         *            the node's place in the snapshot
+         * @param node
+         *            the node
+         * @return the node's outcome
+         */
+        private CompletableFuture<Outcome> create(final int index,
+                final Node node) {
+            return RequestWindow.start(
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return HttpOperations.postOperationAsync(dt,
+                                    Utils.uriBuilder("create",
+                                            node.getParentId()),
+                                    node.getDataAsJson());
+                        }
+                    }).handle(
+                    new BiFunction<HttpResponse<String>, Throwable,
+                            NodeResult>() {
+                        @Override
+                        public NodeResult apply(
+                                final HttpResponse<String> response,
+                                final Throwable failure) {
+                            return NodeResult.of(node, response, failure);
+                        }
+                    }).thenCompose(
+                    new Function<NodeResult, CompletionStage<Outcome>>() {
+                        @Override
+                        public CompletionStage<Outcome> apply(
+                                final NodeResult result) {
+                            if (result.isSuccess()) {
+                                finish(index, result, Outcome.CREATED);
+                                return CompletableFuture.completedFuture(
+                                        Outcome.CREATED);
+                            }
+                            if (result.getCode() == 0 || RetryPolicy
+                                    .isRetryable(result.getCode())) {
+                                finish(index, result, Outcome.UNREACHED);
+                                return CompletableFuture.completedFuture(
+                                        Outcome.UNREACHED);
+                            }
+                            return readBack(index, result);
+                        }
+                    });
+        }
+
+        /**
+         * Reads back a node DCNM refused to create, to tell a node that is
+         * already there from one that was refused.
+         *
+         * @param index
+         *            the node's place in the snapshot
+         * @param refusal
+         *            the result of the create
+         * @return the node's outcome
+         */
+        private CompletableFuture<Outcome> readBack(final int index,
+                final NodeResult refusal) {
+            final Node node = refusal.getNode();
+            return RequestWindow.start(
+                    new Supplier<CompletableFuture<HttpResponse<String>>>() {
+                        @Override
+                        public CompletableFuture<HttpResponse<String>> get() {
+                            return HttpOperations.getOperationAsync(dt,
+                                    Utils.uriBuilder("get", node.getId()));
+                        }
+                    }).handle(
+                    new BiFunction<HttpResponse<String>, Throwable,
+                            Outcome>() {
+                        @Override
+                        public Outcome apply(
+                                final HttpResponse<String> response,
+                                final Throwable failure) {
+                            final int code = response == null ? 0
+                                    : response.getCode();
+                            if (code == HTTP_OK) {
+                                finish(index, new NodeResult(node,
+                                        NodeResult.Status.DONE,
+                                        refusal.getCode(),
+                                        "Already in DCNM."),
+                                        Outcome.CREATED);
+                                return Outcome.CREATED;
+                            }
+                            final Outcome outcome = code == HTTP_NOT_FOUND
+                                    ? Outcome.REFUSED : Outcome.UNREACHED;
+                            finish(index, refusal, outcome);
+                            return outcome;
+                        }
+                    });
+        }
+
+        /**
+         * Records a node's result and frees its place in the window.
+         *
+         * @param index
+         *            the node's place in the snapshot
+         * @param result
+         *            the result
+         * @param outcome
+         *            the outcome
+         */
+        private void finish(final int index, final NodeResult result,
+                final Outcome outcome) {
+            try {
+                synchronized (this) {
+                    results.add(result);
+                    if (outcome == Outcome.REFUSED && result.getNode()
+                            .getType().getChildType() != null) {
+                        refused.put(index, result.getNode().getIdentity());
+                    }
+                    if (outcome != Outcome.UNREACHED) {
+                        settled.set(index);
+                        while (settled.get(mark)) {
+                            settled.clear(mark);
+                            mark++;
+                        }
+                    }
+                }
+                if (outcome == Outcome.CREATED) {
+                    InventoryCache.forServer(dt.getServer()).invalidate(
+                            result.getNode().getIdentity());
+                }
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        /**
+         * Gets the number of leading nodes settled.
+         *
+         * @return the count
+         */
+        synchronized int getSettled() {
+            return mark;
+        }
+
+        /**
+         * Gets the checkpoint: the number of leading nodes settled, then a
+         * line per settled node that was refused and may have children.
+         *
+         * @return the checkpoint text
+         */
+        synchronized String getCheckpoint() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(mark).append('\n');
+            for (NodeIdentity id : carried) {
+                sb.append(NodeJson.toJson(id.getIdentity())).append('\n');
+            }
+            for (NodeIdentity id : refused.headMap(mark).values()) {
+                sb.append(NodeJson.toJson(id.getIdentity())).append('\n');
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Gets the results.
+         *
+         * @return a copy of the results
+         */
+        synchronized List<NodeResult> getResults() {
+            return new ArrayList<NodeResult>(results);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+
+/**
+ * A difference in one node between two node sets: the node was added,
+ * removed, or has attributes whose values differ. A null value and a
+ * missing attribute are the same.
+ */
+public final class NodeDiff {
+
+    /**
+     * The kind of difference.
+     */
+    public enum Kind {
+        /** The node is only in the second set. */
+        ADDED,
+        /** The node is only in the first set. */
+        REMOVED,
+        /** The node is in both sets, with different values. */
+        MODIFIED
+    }
+
+    /** The kind. */
+    private final Kind kind;
+
+    /** The node in the first set, or null. */
+    private final Node before;
+
+    /** The node in the second set, or null. */
+    private final Node after;
+
+    /** The attributes that differ, by name. */
+    private final List<Delta> deltas;
+
+    /**
+     * Instantiates a new node diff.
+     *
+     * @param newKind
+     *            the kind
+     * @param newBefore
+     *            the node in the first set, or null
+     * @param newAfter
+     *            the node in the second set, or null
+     * @param newDeltas
+     *            the attributes that differ
+     */
+    private NodeDiff(final Kind newKind, final Node newBefore,
+            final Node newAfter, final List<Delta> newDeltas) {
+        kind = newKind;
+        before = newBefore;
+        after = newAfter;
+        deltas = Collections.unmodifiableList(newDeltas);
+    }
+
+    /**
+     * Compares a node in two sets.
+     *
+     * @param before
+     *            the node in the first set, or null
+     * @param after
+     *            the node in the second set, or null
+     * @return the difference, or null if there is none
+     */
+    static NodeDiff of(final Node before, final Node after) {
+        if (before == null) {
+            return new NodeDiff(Kind.ADDED, null, after, deltas(null, after));
+        }
+        if (after == null) {
+            return new NodeDiff(Kind.REMOVED, before, null, deltas(before,
+                    null));
+        }
+        if (before.getData().equals(after.getData())) {
+            return null;
+        }
+        final List<Delta> deltas = deltas(before, after);
+        return deltas.isEmpty() ? null : new NodeDiff(Kind.MODIFIED, before,
+                after, deltas);
+    }
+
+    /**
+     * Lists the attributes whose values differ.
+     *
+     * @param before
+     *            the first node, or null
+     * @param after
+     *            the second node, or null
+     * @return the deltas, by name
+     */
+    private static List<Delta> deltas(final Node before, final Node after) {
+        final TreeSet<String> names = new TreeSet<String>();
+        if (before != null) {
+            names.addAll(before.getData().keySet());
+        }
+        if (after != null) {
+            names.addAll(after.getData().keySet());
+        }
+        final List<Delta> deltas = new ArrayList<Delta>();
+        for (String name : names) {
+            final String was = before == null ? null : before.getData().get(
+                    name);
+            final String is = after == null ? null : after.getData().get(
+                    name);
+            if (was == null ? is != null : !was.equals(is)) {
+                deltas.add(new Delta(name, was, is));
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Gets the kind.
+     *
+     * @return the kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the node's identity.
+     *
+     * @return the identity
+     */
+    public NodeIdentity getIdentity() {
+        return (after == null ? before : after).getIdentity();
+    }
+
+    /**
+     * Gets the node in the first set.
+     *
+     * @return the node, or null if it was added
+     */
+    public Node getBefore() {
+        return before;
+    }
+
+    /**
+     * Gets the node in the second set.
+     *
+     * @return the node, or null if it was removed
+     */
+    public Node getAfter() {
+        return after;
+    }
+
+    /**
+     * Gets the attributes that differ. For an added or removed node these
+     * are all of its attributes.
+     *
+     * @return the deltas, by name
+     */
+    public List<Delta> getDeltas() {
+        return deltas;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return kind + " " + getIdentity() + " " + deltas;
+    }
+
+    /**
+     * A difference in one attribute.
+     */
+    public static final class Delta {
+
+        /** The attribute. */
+        private final String attribute;
+
+        /** The value in the first set, or null. */
+        private final String before;
+
+        /** The value in the second set, or null. */
+        private final String after;
+
+        /**
+         * Instantiates a new delta.
+         *
+         * @param newAttribute
+         *            the attribute
+         * @param newBefore
+         *            the value in the first set, or null
+         * @param newAfter
+         *            the value in the second set, or null
+         */
+        Delta(final String newAttribute, final String newBefore,
+                final String newAfter) {
+            attribute = newAttribute;
+            before = newBefore;
+            after = newAfter;
+        }
+
+        /**
+         * Gets the attribute.
+         *
+         * @return the attribute
+         */
+        public String getAttribute() {
+            return attribute;
+        }
+
+        /**
+         * Gets the value in the first set.
+         *
+         * @return the value, or null
+         */
+        public String getBefore() {
+            return before;
+        }
+
+        /**
+         * Gets the value in the second set.
+         *
+         * @return the value, or null
+         */
+        public String getAfter() {
+            return after;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return attribute + ": " + before + " -> " + after;
+        }
+    }
+}
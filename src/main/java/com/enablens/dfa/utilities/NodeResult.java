@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.concurrent.CompletionException;
+
+import com.enablens.dfa.datastructures.Node;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * The outcome of a bulk operation on one node.
+ */
+public final class NodeResult {
+
+    /**
+     * What happened to the node.
+     */
+    public enum Status {
+        /** The operation was accepted by DCNM. */
+        DONE,
+        /** The operation was accepted and its effect read back. */
+        VERIFIED,
+        /** The operation failed. */
+        FAILED,
+        /** The operation was not tried, e.g. because a parent failed. */
+        SKIPPED,
+        /** The operation would be done, but this was a dry run. */
+        PLANNED
+    }
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** Lowest HTTP status that is not a success. */
+    private static final int HTTP_NOT_SUCCESS = 300;
+
+    /** HTTP Not Found. */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /** The node. */
+    private final Node node;
+
+    /** The status. */
+    private final Status status;
+
+    /** The HTTP status, or 0 if there was no response. */
+    private final int code;
+
+    /** What went wrong, or null. */
+    private final String message;
+
+    /**
+     * Instantiates a new node result.
+     *
+     * @param newNode
+     *            the node
+     * @param newStatus
+     *            the status
+     * @param newCode
+     *            the HTTP status, or 0 if there was no response
+     * @param newMessage
+     *            what went wrong, or null
+     */
+    NodeResult(final Node newNode, final Status newStatus, final int newCode,
+            final String newMessage) {
+        node = newNode;
+        status = newStatus;
+        code = newCode;
+        message = newMessage;
+    }
+
+    /**
+     * Builds the result of a request.
+     *
+     * @param node
+     *            the node
+     * @param response
+     *            the response, or null if the request failed
+     * @param failure
+     *            the failure, or null
+     * @return DONE for a 2xx response, or else FAILED
+     */
+    static NodeResult of(final Node node, final HttpResponse<String> response,
+            final Throwable failure) {
+        if (response == null) {
+            final Throwable cause = failure instanceof CompletionException
+                    && failure.getCause() != null ? failure.getCause()
+                    : failure;
+            return new NodeResult(node, Status.FAILED, 0,
+                    String.valueOf(cause));
+        }
+        final int code = response.getCode();
+        if (code >= HTTP_OK && code < HTTP_NOT_SUCCESS) {
+            return new NodeResult(node, Status.DONE, code, null);
+        }
+        return new NodeResult(node, Status.FAILED, code,
+                "DCNM refused the request.");
+    }
+
+    /**
+     * Treats a delete DCNM answered with 404 as done, as the node is already
+     * gone.
+     *
+     * @param result
+     *            the result of a delete
+     * @return DONE for a node that is already gone, or else the result
+     */
+    static NodeResult deleted(final NodeResult result) {
+        if (result.status == Status.FAILED && result.code == HTTP_NOT_FOUND) {
+            return new NodeResult(result.node, Status.DONE, result.code,
+                    "Already gone.");
+        }
+        return result;
+    }
+
+    /**
+     * Gets the node.
+     *
+     * @return the node
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * Gets the status.
+     *
+     * @return the status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Checks if the operation succeeded, or would in a dry run.
+     *
+     * @return true, unless FAILED or SKIPPED
+     */
+    public boolean isSuccess() {
+        return status != Status.FAILED && status != Status.SKIPPED;
+    }
+
+    /**
+     * Gets the HTTP status.
+     *
+     * @return the HTTP status, or 0 if there was no response
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Gets what went wrong.
+     *
+     * @return the message, or null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return status + " " + node.getIdentity()
+                + (code == 0 ? "" : " (" + code + ")")
+                + (message == null ? "" : ": " + message);
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes that bring the live fabric to a desired state: the nodes to
+ * create, parents first; the nodes to update; and the nodes to delete,
+ * leaves first. Nodes that are already as desired are not in the plan.
+ */
+public final class ReconcilePlan {
+
+    /** The nodes to create, parents first. */
+    private final List<NodeDiff> creates;
+
+    /** The nodes to update, parents first. */
+    private final List<NodeDiff> updates;
+
+    /** The nodes to delete, leaves first. */
+    private final List<NodeDiff> deletes;
+
+    /** The nodes already as desired. */
+    private final int unchanged;
+
+    /**
+     * Instantiates a new plan from a diff of the live fabric against the
+     * desired state.
+     *
+     * @param diff
+     *            the differences, with the live fabric as the first set
+     */
+    ReconcilePlan(final DiffReport diff) {
+        creates = diff.getAdded();
+        updates = diff.getModified();
+        final List<NodeDiff> leavesFirst = new ArrayList<NodeDiff>(diff
+                .getRemoved());
+        Collections.reverse(leavesFirst);
+        deletes = Collections.unmodifiableList(leavesFirst);
+        unchanged = diff.getUnchanged();
+    }
+
+    /**
+     * Gets the nodes to create. Each has the desired node as its after node.
+     *
+     * @return the creates, parents first
+     */
+    public List<NodeDiff> getCreates() {
+        return creates;
+    }
+
+    /**
+     * Gets the nodes to update. Each has the live node as its before node,
+     * the desired node as its after node, and the attributes that change.
+     *
+     * @return the updates, parents first
+     */
+    public List<NodeDiff> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Gets the nodes to delete. Each has the live node as its before node.
+     *
+     * @return the deletes, leaves first
+     */
+    public List<NodeDiff> getDeletes() {
+        return deletes;
+    }
+
+    /**
+     * Gets the number of nodes already as desired.
+     *
+     * @return the unchanged count
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Gets the number of changes.
+     *
+     * @return the creates, updates and deletes
+     */
+    public int size() {
+        return creates.size() + updates.size() + deletes.size();
+    }
+
+    /**
+     * Checks if the live fabric is already as desired.
+     *
+     * @return true, if there is nothing to change
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Prints the change set, a line per node in the order it would be
+     * applied: "-" for a delete, "~" for an update with the attributes that
+     * change, and "+" for a create.
+     *
+     * @param out
+     *            the stream
+     */
+    public void print(final PrintStream out) {
+        for (NodeDiff delete : deletes) {
+            out.println("- " + delete.getIdentity());
+        }
+        for (NodeDiff update : updates) {
+            out.println("~ " + update.getIdentity());
+            for (NodeDiff.Delta delta : update.getDeltas()) {
+                out.println("    " + delta);
+            }
+        }
+        for (NodeDiff create : creates) {
+            out.println("+ " + create.getIdentity());
+        }
+        out.println(this);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ReconcilePlan[create=" + creates.size() + ",update="
+                + updates.size() + ",delete=" + deletes.size()
+                + ",unchanged=" + unchanged + "]";
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.enablens.dfa.base.InventoryCache;
+import com.enablens.dfa.datastructures.Node;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * Bounds the requests a bulk operation has in flight. The thread issuing
+ * requests takes a place before each one, and the request's completion
+ * gives it back, so the issuing thread waits while the window is full but
+ * the client's I/O thread never does.
+ *
+ * A request that throws instead of returning its future fails like one
+ * that was sent, so its place is always given back.
+ */
+final class RequestWindow {
+
+    /** The size. */
+    private final int size;
+
+    /** The free places. */
+    private final Semaphore free;
+
+    /**
+     * Instantiates a new request window.
+     *
+     * @param newSize
+     *            the most requests in flight
+     */
+    RequestWindow(final int newSize) {
+        size = newSize;
+        free = new Semaphore(newSize);
+    }
+
+    /**
+     * Takes a place, waiting while the window is full.
+     *
+     * @return true, or false if the thread was interrupted
+     */
+    boolean acquire() {
+        try {
+            free.acquire();
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gives a place back once a request has completed.
+     */
+    void release() {
+        free.release();
+    }
+
+    /**
+     * Waits for every request in flight to complete. Requests complete or
+     * time out on their own, so this is not interruptible.
+     */
+    void drain() {
+        free.acquireUninterruptibly(size);
+        free.release(size);
+    }
+
+    /**
+     * Waits for every request in flight to complete, then drops the cached
+     * copies of the nodes whose request was done.
+     *
+     * @param server
+     *            the DCNM server
+     * @param done
+     *            a result per node
+     */
+    void drain(final String server, final NodeResult[] done) {
+        drain();
+        final InventoryCache cache = InventoryCache.forServer(server);
+        for (NodeResult result : done) {
+            if (result.getStatus() == NodeResult.Status.DONE) {
+                cache.invalidate(result.getNode().getIdentity());
+            }
+        }
+    }
+
+    /**
+     * Sends a node's request once a place is free, and records its result
+     * when it completes.
+     *
+     * @param node
+     *            the node
+     * @param request
+     *            starts the request
+     * @param record
+     *            takes the node's result, on the client's I/O thread
+     * @return true, or false if the thread was interrupted
+     */
+    boolean send(final Node node,
+            final Supplier<CompletableFuture<HttpResponse<String>>> request,
+            final Consumer<NodeResult> record) {
+        if (!acquire()) {
+            return false;
+        }
+        start(request).whenComplete(
+                new BiConsumer<HttpResponse<String>, Throwable>() {
+                    @Override
+                    public void accept(final HttpResponse<String> response,
+                            final Throwable failure) {
+                        try {
+                            record.accept(NodeResult.of(node, response,
+                                    failure));
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * Starts a request, turning a throw into a failed future.
+     *
+     * @param <T>
+     *            the response type
+     * @param request
+     *            starts the request
+     * @return the response future
+     */
+    static <T> CompletableFuture<T> start(
+            final Supplier<CompletableFuture<T>> request) {
+        try {
+            return request.get();
+        } catch (final RuntimeException e) {
+            final CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeJson;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a snapshot written by SnapshotWriter one Node at a time, in the
+ * order it was written, so that only the current Node is held in memory.
+ *
+ * Read errors are thrown as IllegalStateException.
+ */
+public final class SnapshotReader implements Iterator<Node>, Closeable {
+
+    /** Buffer size, in bytes. */
+    private static final int BUFFER = 65536;
+
+    /** The JSON parser. */
+    private final JsonParser parser;
+
+    /** Whether the parser is positioned at the next object. */
+    private boolean ready;
+
+    /** Nodes read. */
+    private int count;
+
+    /**
+     * Instantiates a new snapshot reader.
+     *
+     * @param in
+     *            the snapshot; it is closed with the reader
+     * @throws IOException
+     *             if the snapshot is not gzip-compressed
+     */
+    public SnapshotReader(final InputStream in) throws IOException {
+        parser = NodeJson.parser(new BufferedInputStream(
+                new GZIPInputStream(in, BUFFER), BUFFER));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        try {
+            final JsonToken token = parser.nextToken();
+            if (token != null && token != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("Expected a node but found "
+                        + token);
+            }
+            ready = token != null;
+            return ready;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read snapshot", e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public Node next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        try {
+            final Node node = new Node(NodeJson.readData(parser));
+            count++;
+            return node;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to read snapshot", e);
+        }
+    }
+
+    /**
+     * Gets the number of nodes read so far.
+     *
+     * @return the count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
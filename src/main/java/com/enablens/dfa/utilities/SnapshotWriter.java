@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeJson;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes a fabric snapshot: gzip-compressed NDJSON, with one Node's data per
+ * line as DCNM sends it. Null values are left out. Nodes are written as they
+ * are given, so only the current Node is held in memory.
+ *
+ * A snapshot written from a crawl has every node after its parent, so it
+ * can be replayed in one pass. Writes may come from several threads.
+ */
+public final class SnapshotWriter implements Closeable {
+
+    /** Buffer size, in bytes. */
+    private static final int BUFFER = 65536;
+
+    /** The generator. */
+    private final JsonGenerator generator;
+
+    /** Nodes written. */
+    private int count;
+
+    /**
+     * Instantiates a new snapshot writer.
+     *
+     * @param out
+     *            the stream to write to; it is closed with the writer
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    public SnapshotWriter(final OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Instantiates a new snapshot writer with a compression level. Short-lived
+     * snapshots, such as spill files, are written faster at BEST_SPEED.
+     *
+     * @param out
+     *            the stream to write to; it is closed with the writer
+     * @param level
+     *            the Deflater compression level
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    SnapshotWriter(final OutputStream out, final int level)
+            throws IOException {
+        generator = NodeJson.generator(new BufferedOutputStream(
+                new GZIPOutputStream(out, BUFFER) {
+                    {
+                        def.setLevel(level);
+                    }
+                }, BUFFER));
+        generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Writes a node.
+     *
+     * @param node
+     *            the node
+     * @throws IOException
+     *             if the node cannot be written
+     */
+    public synchronized void write(final Node node) throws IOException {
+        NodeJson.writeData(generator, node.getData());
+        generator.writeRaw('\n');
+        count++;
+    }
+
+    /**
+     * Gets the number of nodes written.
+     *
+     * @return the count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,15 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Terry Pattinson - initial API and implementation
+ ******************************************************************************/
+/**
+ * @author Terry
+ *
+ */
+package com.enablens.dfa.utilities;
\ No newline at end of file
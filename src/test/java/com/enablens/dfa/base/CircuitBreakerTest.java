@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Circuit Breaker Test Class.
+ */
+public class CircuitBreakerTest {
+
+    /** Failures before the breaker opens. */
+    private static final int THRESHOLD = 2;
+
+    /**
+     * A success from a request admitted before the breaker opened does not
+     * close it; only the probe does.
+     */
+    @Test
+    public final void staleSuccessIgnored() {
+        final CircuitBreaker breaker = CircuitBreaker
+                .forServer("stale-success.example");
+        breaker.setFailureThreshold(THRESHOLD);
+        breaker.setOpenInterval(0L);
+        final int slow = breaker.admit();
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.recordFailure(breaker.admit());
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+        breaker.recordSuccess(slow);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+
+        final int probe = breaker.admit();
+        assertTrue(probe >= 0);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertTrue(breaker.admit() < 0);
+        breaker.recordSuccess(slow);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        breaker.recordSuccess(probe);
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    }
+}
@@ -15,9 +15,18 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.annotations.Test;
 
+import com.enablens.dfa.mock.MockDcnmServer;
+
 /**
  * Dcnm Authentication Token Test Class.
  * 
@@ -42,6 +51,15 @@ public class DcnmAuthTokenTest {
     /** DCNM Authentication Token Username. */
     private static final String USERNAME = "admin";
 
+    /** Threads racing for a token. */
+    private static final int THREADS = 50;
+
+    /** Mock DCNM latency per request, in msec. */
+    private static final long LATENCY = 100L;
+
+    /** Token lifetime used by the renewal test, in msec. */
+    private static final long RENEWAL_LIFETIME = 2000L;
+
     /** The dt. */
     private DcnmAuthToken dt;
 
@@ -191,6 +209,202 @@ public class DcnmAuthTokenTest {
         assertEquals(dt.getState(), DcnmResponseStates.VALID);
     }
 
+    /**
+     * Threads racing for an uninitialised or stale token share one logon.
+     * 
+     * @throws Exception
+     *             if the mock DCNM cannot start or a thread fails
+     */
+    @Test
+    public final void singleFlightLogon() throws Exception {
+        final MockDcnmServer server = new MockDcnmServer();
+        server.start();
+        server.setLatency(LATENCY);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(server.getAddress(),
+                    USERNAME, PASSWORD, LIFETIME);
+            race(pool, token);
+            assertEquals(server.getLogonCount(), 1L);
+            Thread.sleep(LIFETIME + 1);
+            assertEquals(token.getState(), DcnmResponseStates.STALE);
+            race(pool, token);
+            assertEquals(server.getLogonCount(), 2L);
+        } finally {
+            pool.shutdownNow();
+            server.stop();
+        }
+    }
+
+    /**
+     * An asynchronous logon to a slow DCNM does not hold up the logon of a
+     * token for another DCNM.
+     *
+     * @throws Exception
+     *             if the mock DCNMs cannot start or a logon fails
+     */
+    @Test
+    public final void asyncLogonsIndependent() throws Exception {
+        final MockDcnmServer slow = new MockDcnmServer();
+        final MockDcnmServer fast = new MockDcnmServer();
+        slow.start();
+        fast.start();
+        slow.setLatency(LATENCY * 20);
+        try {
+            final DcnmAuthToken stalled = new DcnmAuthToken(
+                    slow.getAddress(), USERNAME, PASSWORD, LIFETIME);
+            final DcnmAuthToken token = new DcnmAuthToken(fast.getAddress(),
+                    USERNAME, PASSWORD, LIFETIME);
+            // Start both clients first so that only the logons are timed
+            stalled.getClient();
+            token.getClient();
+            final Future<String> waiting = stalled.getTokenAsync();
+            assertEquals(token.getTokenAsync().get(LATENCY * 10,
+                    TimeUnit.MILLISECONDS), MockDcnmServer.TOKEN);
+            assertTrue(!waiting.isDone());
+            assertEquals(waiting.get(), MockDcnmServer.TOKEN);
+            stalled.close();
+            token.close();
+        } finally {
+            slow.stop();
+            fast.stop();
+        }
+    }
+
+    /**
+     * A token with a renewal fraction is renewed before it goes stale, and a
+     * failed renewal leaves the current token in use.
+     * 
+     * @throws Exception
+     *             if the mock DCNM cannot start or the sleep is interrupted
+     */
+    @Test
+    public final void backgroundRenewal() throws Exception {
+        final MockDcnmServer server = new MockDcnmServer();
+        server.start();
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(server.getAddress(),
+                    USERNAME, PASSWORD, RENEWAL_LIFETIME);
+            token.setRenewalFraction(0.5);
+            token.getToken();
+            assertEquals(server.getLogonCount(), 1L);
+            // Renewed at 1/2 of the lifetime
+            Thread.sleep(RENEWAL_LIFETIME * 3 / 4);
+            assertEquals(server.getLogonCount(), 2L);
+            assertEquals(token.getRenewalState(), DcnmResponseStates.VALID);
+            assertEquals(token.getState(), DcnmResponseStates.VALID);
+            // Next renewal, at 1, fails but the token has life left
+            server.setLogonFailing(true);
+            Thread.sleep(RENEWAL_LIFETIME / 2);
+            assertEquals(token.getRenewalState(),
+                    DcnmResponseStates.WEB_FAILURE);
+            assertEquals(token.getState(), DcnmResponseStates.VALID);
+            final long logons = server.getLogonCount();
+            token.getToken();
+            assertEquals(server.getLogonCount(), logons);
+            token.setRenewalFraction(0);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * A logon still in flight when the token is closed does not schedule a
+     * renewal.
+     *
+     * @throws Exception
+     *             if the mock DCNM cannot start or the sleep is interrupted
+     */
+    @Test
+    public final void closeStopsRenewal() throws Exception {
+        final MockDcnmServer server = new MockDcnmServer();
+        server.start();
+        server.setLatency(LATENCY);
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(server.getAddress(),
+                    USERNAME, PASSWORD, RENEWAL_LIFETIME);
+            token.setRenewalFraction(0.5);
+            token.getClient();
+            final Future<String> pending = token.getTokenAsync();
+            token.close();
+            try {
+                pending.get();
+            } catch (final ExecutionException e) {
+                // The logon may fail with its client closed
+            }
+            final long logons = server.getLogonCount();
+            Thread.sleep(RENEWAL_LIFETIME * 3 / 4);
+            assertEquals(server.getLogonCount(), logons);
+            assertEquals(token.getRenewalState(),
+                    DcnmResponseStates.UNINITIALISED);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * A logon answered with a body that is not JSON leaves the token in an
+     * error state instead of failing.
+     *
+     * @throws Exception
+     *             if the mock DCNM cannot start
+     */
+    @Test
+    public final void malformedLogon() throws Exception {
+        final MockDcnmServer server = new MockDcnmServer();
+        server.start();
+        server.setLogonBody("<html>Service Unavailable</html>");
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(server.getAddress(),
+                    USERNAME, PASSWORD, LIFETIME);
+            assertEquals(token.getTokenAsync().get(), "");
+            assertEquals(token.getState(),
+                    DcnmResponseStates.SERVERSIDE_ERROR);
+            token.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Renewal fraction must be below 1.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public final void renewalFractionRange() {
+        getTestToken().setRenewalFraction(1);
+    }
+
+    /**
+     * Starts THREADS calls to getToken at once and checks they all succeed.
+     * 
+     * @param pool
+     *            the thread pool
+     * @param token
+     *            the shared token
+     * @throws Exception
+     *             if a thread fails
+     */
+    private void race(final ExecutorService pool, final DcnmAuthToken token)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Future<?>[] results = new Future<?>[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            results[i] = pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    start.await();
+                    return token.getToken();
+                }
+            });
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            assertEquals(result.get(LIFETIME, TimeUnit.MILLISECONDS),
+                    MockDcnmServer.TOKEN);
+        }
+        assertEquals(token.getState(), DcnmResponseStates.VALID);
+    }
+
     /**
      * toString.
      */
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.mock.MockDcnmServer;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * DCNM Client Test Class.
+ */
+public class DcnmClientTest {
+
+    /** Pool size used by the tests. */
+    private static final int POOL = 4;
+
+    /** Idle timeout used by the tests, in msec. */
+    private static final long IDLE = 200L;
+
+    /** Mock DCNM latency per request, in msec. */
+    private static final long LATENCY = 100L;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(1, 1, 1);
+        server.start();
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterClass
+    public final void afterClass() {
+        server.stop();
+    }
+
+    /**
+     * Gets a token on its own small client.
+     *
+     * @return the token
+     */
+    private DcnmAuthToken smallPoolToken() {
+        final DcnmClientConfig config = new DcnmClientConfig();
+        config.setMaxConnections(POOL);
+        config.setIdleTimeout(IDLE);
+        final DcnmAuthToken dt = new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L);
+        dt.setClient(new DcnmClient(config));
+        return dt;
+    }
+
+    /**
+     * Requests beyond the pool size wait for a connection, and connections
+     * are kept for reuse afterwards.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if a request fails
+     * @throws IOException
+     *             if the client does not close
+     */
+    @Test
+    public final void poolMetrics() throws InterruptedException,
+            ExecutionException, IOException {
+        final DcnmAuthToken dt = smallPoolToken();
+        final DcnmClient client = dt.getClient();
+        dt.getToken();
+        server.setLatency(LATENCY);
+        try {
+            final List<CompletableFuture<HttpResponse<String>>> futures =
+                    new ArrayList<CompletableFuture<HttpResponse<String>>>();
+            for (int i = 0; i < POOL * 2; i++) {
+                futures.add(HttpOperations.getOperationAsync(dt,
+                        "/rest/auto-config/organizations?n=" + i));
+            }
+            Thread.sleep(LATENCY / 2);
+            assertEquals(client.getLeased(), POOL);
+            // The rest wait for a leased connection; none are being opened
+            assertEquals(client.getPending(), 0);
+            for (CompletableFuture<HttpResponse<String>> future : futures) {
+                future.get();
+            }
+        } finally {
+            server.setLatency(0);
+        }
+        assertEquals(client.getLeased(), 0);
+        assertEquals(client.getIdle(), POOL);
+        client.close();
+    }
+
+    /**
+     * Idle connections are evicted.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws IOException
+     *             if the client does not close
+     */
+    @Test
+    public final void idleEviction() throws InterruptedException,
+            IOException {
+        final DcnmAuthToken dt = smallPoolToken();
+        HttpOperations.getOperation(dt, "/rest/auto-config/organizations");
+        assertTrue(dt.getClient().getIdle() > 0);
+        Thread.sleep(IDLE * 3);
+        assertEquals(dt.getClient().getIdle(), 0);
+        dt.getClient().close();
+    }
+
+    /**
+     * Each token creates its own client unless one is shared, and closes
+     * only the client it created.
+     */
+    @Test
+    public final void clientPerToken() {
+        final DcnmAuthToken first = new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L);
+        final DcnmAuthToken second = new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L);
+        assertSame(first.getClient(), first.getClient());
+        final DcnmClient own = second.getClient();
+        assertTrue(first.getClient() != own);
+        second.setClient(first.getClient());
+        assertSame(first.getClient(), second.getClient());
+        assertTrue(own.isClosed());
+        second.close();
+        assertFalse(first.getClient().isClosed());
+        final DcnmClient shared = first.getClient();
+        first.close();
+        assertTrue(shared.isClosed());
+        assertTrue(first.getClient() != shared);
+        first.close();
+    }
+
+    /**
+     * A request still waiting for its answer fails when the client closes.
+     *
+     * @throws Exception
+     *             if the mock DCNM cannot start or the wait is interrupted
+     */
+    @Test
+    public final void closeFailsUnanswered() throws Exception {
+        final MockDcnmServer slow = new MockDcnmServer();
+        slow.start();
+        slow.setLatency(LATENCY * 10);
+        final DcnmClient client = new DcnmClient();
+        try {
+            final CompletableFuture<HttpResponse<String>> future = client
+                    .execute(new HttpGet("http://" + slow.getAddress()
+                            + "/rest/auto-config/organizations"));
+            Thread.sleep(LATENCY);
+            client.close();
+            try {
+                future.get(LATENCY, TimeUnit.MILLISECONDS);
+                fail("Expected the request to fail");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            slow.stop();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.mock.MockDcnmServer;
+import com.mashape.unirest.http.HttpResponse;
+
+/**
+ * HTTP Operations Test Class.
+ */
+public class HttpOperationsTest {
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** HTTP Too Many Requests. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** HTTP Service Unavailable. */
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    /** Retry-After sent by the mock, in msec. */
+    private static final long RETRY_AFTER = 1000L;
+
+    /** Breaker failure threshold used by the tests. */
+    private static final int THRESHOLD = 3;
+
+    /** Breaker open interval used by the tests, in msec. */
+    private static final long OPEN_INTERVAL = 200L;
+
+    /** Rate limit used by the tests, per second. */
+    private static final int RATE = 20;
+
+    /** Allowance for timer rounding, in msec. */
+    private static final long RATE_SLACK = 20L;
+
+    /** Requests kept in flight at once. */
+    private static final int IN_FLIGHT = 100;
+
+    /** Requests sent with a token DCNM has forgotten. */
+    private static final int REJECTED = 20;
+
+    /** Mock DCNM latency per request, in msec. */
+    private static final long LATENCY = 200L;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The dt. */
+    private DcnmAuthToken dt;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(2, 2, 2);
+        server.start();
+        dt = new DcnmAuthToken(server.getAddress(), "admin", "admin", 60000L);
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterClass
+    public final void afterClass() {
+        server.stop();
+    }
+
+    /**
+     * Blocking get returns the response.
+     */
+    @Test
+    public final void getOperation() {
+        final HttpResponse<String> response = HttpOperations.getOperation(dt,
+                "/rest/auto-config/organizations?detail=true");
+        assertEquals(response.getCode(), HTTP_OK);
+        assertTrue(response.getBody().contains("org1"));
+    }
+
+    /**
+     * Many asynchronous gets overlap instead of running one after another.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if a request fails
+     */
+    @Test
+    public final void getOperationAsync() throws InterruptedException,
+            ExecutionException {
+        dt.getToken();
+        server.setLatency(LATENCY);
+        try {
+            final long start = System.currentTimeMillis();
+            final List<CompletableFuture<HttpResponse<String>>> futures =
+                    new ArrayList<CompletableFuture<HttpResponse<String>>>();
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                futures.add(HttpOperations.getOperationAsync(dt,
+                        "/rest/auto-config/organizations/org0?n=" + i));
+            }
+            for (CompletableFuture<HttpResponse<String>> future : futures) {
+                assertEquals(future.get().getCode(), HTTP_OK);
+            }
+            // Serially this would take IN_FLIGHT * LATENCY
+            assertTrue(System.currentTimeMillis() - start < IN_FLIGHT
+                    * LATENCY / 4);
+        } finally {
+            server.setLatency(0);
+        }
+    }
+
+    /**
+     * Identical GETs in flight at once share one request.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if a request fails
+     */
+    @Test
+    public final void coalesceGets() throws InterruptedException,
+            ExecutionException {
+        dt.getToken();
+        server.setLatency(LATENCY);
+        try {
+            final long requests = server.getRequestCount();
+            final long coalesced = HttpOperations.getCoalescedCount();
+            final List<CompletableFuture<HttpResponse<String>>> futures =
+                    new ArrayList<CompletableFuture<HttpResponse<String>>>();
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                futures.add(HttpOperations.getOperationAsync(dt,
+                        "/rest/auto-config/organizations/org1"));
+            }
+            // Cancelling one caller's future leaves the others waiting
+            futures.remove(0).cancel(false);
+            for (CompletableFuture<HttpResponse<String>> future : futures) {
+                assertEquals(future.get().getCode(), HTTP_OK);
+            }
+            assertEquals(server.getRequestCount(), requests + 1);
+            assertEquals(HttpOperations.getCoalescedCount(), coalesced
+                    + IN_FLIGHT - 1);
+            // Once the response is in, the next GET is sent
+            assertEquals(HttpOperations.getOperation(dt,
+                    "/rest/auto-config/organizations/org1").getCode(),
+                    HTTP_OK);
+            assertEquals(server.getRequestCount(), requests + 2);
+        } finally {
+            server.setLatency(0);
+        }
+    }
+
+    /**
+     * Identical GETs from different users are not shared.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if a request fails
+     */
+    @Test
+    public final void coalesceGetsPerUser() throws InterruptedException,
+            ExecutionException {
+        final DcnmAuthToken other = new DcnmAuthToken(server.getAddress(),
+                "operator", "operator", 60000L);
+        dt.getToken();
+        other.getToken();
+        server.setLatency(LATENCY);
+        try {
+            final long requests = server.getRequestCount();
+            final CompletableFuture<HttpResponse<String>> first =
+                    HttpOperations.getOperationAsync(dt,
+                            "/rest/auto-config/organizations/org0");
+            final CompletableFuture<HttpResponse<String>> second =
+                    HttpOperations.getOperationAsync(other,
+                            "/rest/auto-config/organizations/org0");
+            assertEquals(first.get().getCode(), HTTP_OK);
+            assertEquals(second.get().getCode(), HTTP_OK);
+            assertEquals(server.getRequestCount(), requests + 2);
+        } finally {
+            server.setLatency(0);
+            other.close();
+        }
+    }
+
+    /**
+     * Requests rejected after DCNM forgets its tokens are replayed, with one
+     * logon for the whole burst.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if a request fails
+     */
+    @Test
+    public final void replayAfterTokenExpiry() throws InterruptedException,
+            ExecutionException {
+        dt.getToken();
+        server.expireTokens();
+        final long logons = server.getLogonCount();
+        final List<CompletableFuture<HttpResponse<String>>> futures =
+                new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for (int i = 0; i < REJECTED; i++) {
+            futures.add(HttpOperations.getOperationAsync(dt,
+                    "/rest/auto-config/organizations/org0?n=" + i));
+        }
+        for (CompletableFuture<HttpResponse<String>> future : futures) {
+            assertEquals(future.get().getCode(), HTTP_OK);
+        }
+        assertEquals(server.getLogonCount(), logons + 1);
+        assertEquals(HttpOperations.getOperation(dt,
+                "/rest/auto-config/organizations").getCode(), HTTP_OK);
+        assertEquals(server.getLogonCount(), logons + 1);
+    }
+
+    /**
+     * Post, put and delete round trip.
+     */
+    @Test
+    public final void postPutDelete() {
+        final String body = "{\"organizationName\":\"orgX\"}";
+        assertEquals(HttpOperations.postOperation(dt,
+                "/rest/auto-config/organizations", body).getCode(), HTTP_OK);
+        assertEquals(HttpOperations.putOperation(dt,
+                "/rest/auto-config/organizations/orgX", body).getCode(),
+                HTTP_OK);
+        assertEquals(HttpOperations.deleteOperation(dt,
+                "/rest/auto-config/organizations/orgX", "").getCode(),
+                HTTP_OK);
+    }
+
+    /**
+     * Idempotent requests are retried while DCNM is busy.
+     */
+    @Test
+    public final void retryWhenBusy() {
+        final long requests = server.getRequestCount();
+        server.setBusy(2, HTTP_UNAVAILABLE, null);
+        assertEquals(HttpOperations.getOperation(dt,
+                "/rest/auto-config/organizations").getCode(), HTTP_OK);
+        assertEquals(server.getRequestCount(), requests + 3);
+    }
+
+    /**
+     * A Retry-After header sets the delay before the retry.
+     */
+    @Test
+    public final void retryAfter() {
+        server.setBusy(1, HTTP_TOO_MANY_REQUESTS, "1");
+        final long start = System.currentTimeMillis();
+        assertEquals(HttpOperations.getOperation(dt,
+                "/rest/auto-config/organizations").getCode(), HTTP_OK);
+        assertTrue(System.currentTimeMillis() - start >= RETRY_AFTER);
+    }
+
+    /**
+     * Posts are not idempotent and are not retried.
+     */
+    @Test
+    public final void postNotRetried() {
+        server.setBusy(1, HTTP_UNAVAILABLE, null);
+        assertEquals(HttpOperations.postOperation(dt,
+                "/rest/auto-config/organizations",
+                "{\"organizationName\":\"orgY\"}").getCode(),
+                HTTP_UNAVAILABLE);
+    }
+
+    /**
+     * The breaker opens after repeated failures, fails fast while open, and
+     * closes again after a successful probe.
+     *
+     * @throws Exception
+     *             if the mock DCNM cannot start or the sleep is interrupted
+     */
+    @Test
+    public final void circuitBreaker() throws Exception {
+        final MockDcnmServer busy = new MockDcnmServer();
+        busy.start();
+        try {
+            final DcnmAuthToken busyDt = new DcnmAuthToken(busy.getAddress(),
+                    "admin", "admin", 60000L);
+            busyDt.getClient().getConfig().getRetryPolicy().setBaseDelay(1L);
+            final CircuitBreaker breaker = CircuitBreaker.forServer(busy
+                    .getAddress());
+            breaker.setFailureThreshold(THRESHOLD);
+            breaker.setOpenInterval(OPEN_INTERVAL);
+            busy.setBusy(Integer.MAX_VALUE, HTTP_UNAVAILABLE, null);
+            assertNull(HttpOperations.getOperation(busyDt,
+                    "/rest/auto-config/organizations"));
+            assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+            final long requests = busy.getRequestCount();
+            assertNull(HttpOperations.getOperation(busyDt,
+                    "/rest/auto-config/organizations"));
+            assertEquals(busy.getRequestCount(), requests);
+            busy.setBusy(0, HTTP_UNAVAILABLE, null);
+            Thread.sleep(OPEN_INTERVAL);
+            assertEquals(HttpOperations.getOperation(busyDt,
+                    "/rest/auto-config/organizations").getCode(), HTTP_OK);
+            assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        } finally {
+            busy.stop();
+        }
+    }
+
+    /**
+     * Requests over the rate limit are queued, not rejected, and the wait is
+     * counted.
+     *
+     * @throws Exception
+     *             if the mock DCNM cannot start or a request fails
+     */
+    @Test
+    public final void rateLimit() throws Exception {
+        final MockDcnmServer limited = new MockDcnmServer();
+        limited.start();
+        try {
+            final DcnmAuthToken limitedDt = new DcnmAuthToken(limited
+                    .getAddress(), "admin", "admin", 60000L);
+            final RateLimiter limiter = RateLimiter.forServer(limited
+                    .getAddress());
+            limiter.setRate("GET", RATE, 1);
+            limitedDt.getToken();
+            final long start = System.currentTimeMillis();
+            final List<CompletableFuture<HttpResponse<String>>> futures =
+                    new ArrayList<CompletableFuture<HttpResponse<String>>>();
+            for (int i = 0; i < RATE; i++) {
+                futures.add(HttpOperations.getOperationAsync(limitedDt,
+                        "/rest/auto-config/organizations?n=" + i));
+            }
+            for (CompletableFuture<HttpResponse<String>> future : futures) {
+                assertEquals(future.get().getCode(), HTTP_OK);
+            }
+            // One burst permit, then RATE - 1 more at RATE per second
+            final long expected = (RATE - 1) * 1000L / RATE;
+            assertTrue(System.currentTimeMillis() - start >= expected
+                    - RATE_SLACK);
+            assertEquals(limiter.getQueued(), RATE - 1L);
+            assertTrue(limiter.getMaxWait() >= expected - RATE_SLACK);
+            // Other verbs are not limited
+            assertEquals(HttpOperations.postOperation(limitedDt,
+                    "/rest/auto-config/organizations",
+                    "{\"organizationName\":\"orgZ\"}").getCode(), HTTP_OK);
+            assertEquals(limiter.getQueued(), RATE - 1L);
+        } finally {
+            limited.stop();
+        }
+    }
+
+    /**
+     * Blocking operations return null when DCNM is unreachable.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test
+    public final void unreachable() throws IOException {
+        final MockDcnmServer dead = new MockDcnmServer();
+        final DcnmAuthToken deadDt = new DcnmAuthToken(dead.getAddress(),
+                "admin", "admin", 60000L);
+        dead.start();
+        dead.stop();
+        assertNull(HttpOperations.getOperation(deadDt, "/rest/auto-config"));
+        assertNull(HttpOperations.postOperation(deadDt, "/rest/auto-config",
+                "{}"));
+    }
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Inventory Cache Test Class.
+ */
+public class InventoryCacheTest {
+
+    /** Networks in the mock partition. */
+    private static final int NETWORKS = 10;
+
+    /** TTL long enough not to expire during a test, in msec. */
+    private static final long LONG_TTL = 60000L;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The dt. */
+    private DcnmAuthToken dt;
+
+    /** The cache. */
+    private InventoryCache cache;
+
+    /** The partition id. */
+    private Map<String, String> partition;
+
+    /**
+     * Starts a mock DCNM with the cache on.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(1, 1, NETWORKS);
+        server.start();
+        dt = new DcnmAuthToken(server.getAddress(), "admin", "admin", 60000L);
+        dt.getToken();
+        cache = InventoryCache.forServer(dt.getServer());
+        cache.setTtl(LONG_TTL);
+        partition = new HashMap<String, String>();
+        partition.put("organizationName", "org0");
+        partition.put("partitionName", "part0");
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        cache.setTtl(0);
+        server.stop();
+    }
+
+    /**
+     * A listing is answered from the cache, and fills in its nodes.
+     */
+    @Test
+    public final void readThrough() {
+        final long before = server.getRequestCount();
+        final Node[] first = Utils.getChildArray(dt, partition);
+        final Node[] second = Utils.getChildArray(dt, partition);
+        assertEquals(second, first);
+        assertNotNull(Utils.getNode(dt, first[0].getId()));
+        assertEquals(server.getRequestCount() - before, 1);
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    /**
+     * Writes drop the parent's listing.
+     */
+    @Test
+    public final void writesInvalidate() {
+        final Node[] networks = Utils.getChildArray(dt, partition);
+        final Map<String, String> data = new HashMap<String, String>(
+                networks[0].getData());
+        data.put("segmentId", "40000");
+        data.put("networkName", "new");
+        assertNotNull(Utils.putNode(dt, new Node(data)));
+        assertEquals(Utils.getChildArray(dt, partition).length,
+                NETWORKS + 1);
+
+        Utils.deleteNode(dt, networks[1].getId());
+        assertEquals(Utils.getChildArray(dt, partition).length, NETWORKS);
+        assertNull(Utils.getNode(dt, networks[1].getId()));
+    }
+
+    /**
+     * A create DCNM refuses returns null and leaves the cache alone.
+     */
+    @Test
+    public final void refusedCreate() {
+        final Node[] networks = Utils.getChildArray(dt, partition);
+        assertNull(Utils.putNode(dt, new Node(networks[0].getData())));
+        final long before = server.getRequestCount();
+        assertEquals(Utils.getChildArray(dt, partition).length, NETWORKS);
+        assertEquals(server.getRequestCount(), before);
+    }
+
+    /**
+     * Changing a node read through the cache does not change the cached copy.
+     */
+    @Test
+    public final void copiesReturned() {
+        final Node[] networks = Utils.getChildArray(dt, partition);
+        final String name = networks[0].getData().get("networkName");
+        networks[0].getData().put("networkName", "changed");
+        assertEquals(Utils.getChildArray(dt, partition)[0].getData().get(
+                "networkName"), name);
+        final Node node = Utils.getNode(dt, networks[1].getId());
+        node.getData().put("networkName", "changed");
+        assertEquals(Utils.getNode(dt, networks[1].getId()).getData().get(
+                "networkName"), networks[1].getData().get("networkName"));
+    }
+
+    /**
+     * A read that started before an invalidation is not cached.
+     */
+    @Test
+    public final void staleFillDropped() {
+        final Node[] networks = Utils.getChildArray(dt, partition);
+        final NodeIdentity parent = networks[0].getIdentity().getParent();
+        cache.invalidate(networks[0].getIdentity());
+        final long stamp = cache.getGeneration();
+        cache.invalidate(networks[0].getIdentity());
+        cache.cacheNode(networks[0], stamp);
+        cache.cacheChildren(parent, networks, stamp);
+        assertNull(cache.getNode(networks[0].getIdentity()));
+        assertNull(cache.getChildren(parent));
+        // Nodes not invalidated since the read are still cached
+        assertNotNull(cache.getNode(networks[1].getIdentity()));
+        cache.cacheNode(networks[0], cache.getGeneration());
+        assertNotNull(cache.getNode(networks[0].getIdentity()));
+    }
+
+    /**
+     * The least recently used entry is evicted when the cache is full.
+     */
+    @Test
+    public final void evictLeastRecentlyUsed() {
+        cache.setMaxEntries(2);
+        final Node[] networks = Utils.getChildArray(dt, partition);
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getEvictions(), NETWORKS - 1);
+        // Only the listing's last node is left
+        final long before = server.getRequestCount();
+        Utils.getNode(dt, networks[NETWORKS - 1].getId());
+        assertEquals(server.getRequestCount(), before);
+        Utils.getNode(dt, networks[0].getId());
+        assertEquals(server.getRequestCount(), before + 1);
+        cache.setMaxEntries(InventoryCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Entries expire after the TTL.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public final void expire() throws InterruptedException {
+        cache.setTtl(1);
+        Utils.getChildArray(dt, partition);
+        Thread.sleep(10);
+        final long before = server.getRequestCount();
+        Utils.getChildArray(dt, partition);
+        assertEquals(server.getRequestCount(), before + 1);
+        assertEquals(cache.getHits(), 0);
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.base;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Node Reader Test Class.
+ */
+public class NodeReaderTest {
+
+    /** Networks in the mock partition. */
+    private static final int NETWORKS = 20000;
+
+    /** A network as DCNM sends it, with numeric values. */
+    private static final String NETWORK = "{\"organizationName\":\"org0\","
+            + "\"partitionName\":\"part0\",\"networkName\":\"net0\","
+            + "\"segmentId\":30000,\"vlanId\":100,\"mobilityDomainId\":"
+            + "\"md0\",\"profileName\":\"p\",\"description\":null,"
+            + "\"dhcpScope\":{\"gateway\":\"10.0.0.1\"}}";
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The dt. */
+    private DcnmAuthToken dt;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(1, 1, NETWORKS);
+        server.start();
+        dt = new DcnmAuthToken(server.getAddress(), "admin", "admin", 60000L);
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterClass
+    public final void afterClass() {
+        server.stop();
+    }
+
+    /**
+     * Numbers stay as written, and nested JSON is kept as text.
+     */
+    @Test
+    public final void valuesAsStrings() {
+        final NodeReader reader = new NodeReader(new StringReader("[" + NETWORK
+                + "," + NETWORK.replace("30000", "30001") + "]"));
+        assertTrue(reader.hasNext());
+        final Node node = reader.next();
+        assertEquals(node.getType(), NodeType.NETWORK);
+        assertEquals(node.getData().get("segmentId"), "30000");
+        assertEquals(node.getData().get("vlanId"), "100");
+        assertEquals(node.getData().get("dhcpScope"),
+                "{\"gateway\":\"10.0.0.1\"}");
+        assertEquals(reader.next().getData().get("segmentId"), "30001");
+        assertFalse(reader.hasNext());
+    }
+
+    /**
+     * The array form matches the streaming form.
+     */
+    @Test
+    public final void getNodesFromJson() {
+        final Node[] nodes = Utils.getNodesFromJson(" [" + NETWORK + "] ");
+        assertEquals(nodes.length, 1);
+        assertEquals(nodes[0].getData().get("segmentId"), "30000");
+    }
+
+    /**
+     * An element that is not an object is an error, not the end.
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public final void nonObjectElement() {
+        Utils.getNodesFromJson("[" + NETWORK + ",null," + NETWORK + "]");
+    }
+
+    /**
+     * An array that is not closed is an error.
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public final void truncated() {
+        Utils.getNodesFromJson("[" + NETWORK + ",");
+    }
+
+    /**
+     * A large list is streamed from DCNM one node at a time.
+     */
+    @Test
+    public final void forEachChild() {
+        final Map<String, String> partition = new HashMap<String, String>();
+        partition.put("organizationName", "org0");
+        partition.put("partitionName", "part0");
+        final Set<String> segments = new HashSet<String>();
+        final AtomicInteger seen = new AtomicInteger();
+        final int count = Utils.forEachChild(dt, partition,
+                new Consumer<Node>() {
+                    @Override
+                    public void accept(final Node node) {
+                        seen.incrementAndGet();
+                        segments.add(node.getData().get("segmentId"));
+                    }
+                });
+        assertEquals(count, NETWORKS);
+        assertEquals(seen.get(), NETWORKS);
+        assertEquals(segments.size(), NETWORKS);
+    }
+
+    /**
+     * Closing the iterator early abandons the rest of the response.
+     *
+     * @throws IOException
+     *             if the iterator cannot be closed
+     */
+    @Test
+    public final void closeEarly() throws IOException {
+        final Map<String, String> partition = new HashMap<String, String>();
+        partition.put("organizationName", "org0");
+        partition.put("partitionName", "part0");
+        final NodeReader children = Utils.childIterator(dt, partition);
+        assertTrue(children.hasNext());
+        children.next();
+        children.close();
+        // The client is still usable
+        assertEquals(Utils.getChildArray(dt, partition).length, NETWORKS);
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Reading the VLAN from the configArg of each of 100k networks: split with
+ * regexes into a HashMap, as analytics code did; parsed with ConfigArgs; and
+ * read from the parsed form each Node keeps. Also times formatting a
+ * changed configArg back.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.datastructures.ConfigArgsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfigArgsBenchmark {
+
+    /** Networks. */
+    private static final int NETWORKS = 100000;
+
+    /** Networks per partition. */
+    private static final int PER_PARTITION = 100;
+
+    /** Splits parameters. */
+    private static final Pattern PARAMETERS = Pattern.compile(";");
+
+    /** Splits a parameter into name and value. */
+    private static final Pattern EQUALS = Pattern.compile("=");
+
+    /** The networks. */
+    private final List<Node> nodes = new ArrayList<Node>(NETWORKS);
+
+    /**
+     * Builds the networks.
+     */
+    @Setup
+    public void setUp() {
+        for (int n = 0; n < NETWORKS; n++) {
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part" + n / PER_PARTITION);
+            data.put("networkName", "net" + n);
+            data.put("segmentId", String.valueOf(30000 + n));
+            data.put("vlanId", String.valueOf(100 + n % 3900));
+            data.put("mobilityDomainId", "md0");
+            data.put("profileName", "defaultNetworkIpv4EfProfile");
+            data.put("configArg", "$gatewayIpAddress=10.0.0.1;"
+                    + "$netMaskLength=24;$vlanId=" + (100 + n % 3900)
+                    + ";$segmentId=" + (30000 + n) + ";$vrfName=org0:part"
+                    + n / PER_PARTITION);
+            nodes.add(new Node(data));
+        }
+    }
+
+    /**
+     * Splits each configArg with regexes.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void regex(final Blackhole bh) {
+        for (final Node node : nodes) {
+            final Map<String, String> args = new HashMap<String, String>();
+            for (final String parameter : PARAMETERS.split(node.getData()
+                    .get("configArg"))) {
+                final String[] pair = EQUALS.split(parameter, 2);
+                args.put(pair[0].substring(1), pair.length > 1 ? pair[1]
+                        : "");
+            }
+            bh.consume(Integer.parseInt(args.get("vlanId")));
+        }
+    }
+
+    /**
+     * Parses each configArg.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void parse(final Blackhole bh) {
+        for (final Node node : nodes) {
+            bh.consume(ConfigArgs.parse(node.getData().get("configArg"))
+                    .getInt("vlanId", -1));
+        }
+    }
+
+    /**
+     * Reads each node's kept parsed configArg.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void cached(final Blackhole bh) {
+        for (final Node node : nodes) {
+            bh.consume(node.getConfigArgs().getInt("vlanId", -1));
+        }
+    }
+
+    /**
+     * Changes the VLAN in each configArg and formats it back.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void format(final Blackhole bh) {
+        for (final Node node : nodes) {
+            final Map<String, String> args =
+                    new LinkedHashMap<String, String>(node.getConfigArgs());
+            args.put("vlanId", "4000");
+            bh.consume(ConfigArgs.format(args));
+        }
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                ConfigArgsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
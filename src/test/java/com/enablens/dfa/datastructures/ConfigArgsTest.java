@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Config Args Test Class.
+ */
+public class ConfigArgsTest {
+
+    /** A configArg as DCNM sends it. */
+    private static final String CONFIG_ARG = "$vlanId=101;$segmentId=34000;"
+            + "$vrfName=Green:Data1;$gatewayIpAddress=10.0.0.1;"
+            + "$netMaskLength=24";
+
+    /**
+     * Parameters are read by name, in order, with numbers read in place.
+     */
+    @Test
+    public final void parse() {
+        final ConfigArgs args = ConfigArgs.parse(CONFIG_ARG);
+        assertEquals(args.size(), 5);
+        assertEquals(args.get("vrfName"), "Green:Data1");
+        assertEquals(args.get("gatewayIpAddress"), "10.0.0.1");
+        assertEquals(args.getInt("segmentId", -1), 34000);
+        assertEquals(args.getInt("vrfName", -1), -1);
+        assertEquals(args.getInt("dhcpScope", -1), -1);
+        assertNull(args.get("$vlanId"));
+        final List<String> names = new ArrayList<String>(args.keySet());
+        assertEquals(names.get(0), "vlanId");
+        assertEquals(names.get(4), "netMaskLength");
+
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("vlanId", "101");
+        expected.put("segmentId", "34000");
+        expected.put("vrfName", "Green:Data1");
+        expected.put("gatewayIpAddress", "10.0.0.1");
+        expected.put("netMaskLength", "24");
+        assertEquals(args, expected);
+    }
+
+    /**
+     * Empty parameters are dropped, a parameter with no "=" has an empty
+     * value, and a value keeps any further "=".
+     */
+    @Test
+    public final void edgeCases() {
+        assertTrue(ConfigArgs.parse(null).isEmpty());
+        assertTrue(ConfigArgs.parse(";;").isEmpty());
+        final ConfigArgs args = ConfigArgs.parse(";$a;b=x=y;$=1;");
+        assertEquals(args.size(), 2);
+        assertEquals(args.get("a"), "");
+        assertEquals(args.get("b"), "x=y");
+    }
+
+    /**
+     * Formatting the parsed parameters gives back the configArg.
+     */
+    @Test
+    public final void roundTrip() {
+        final Map<String, String> args = new LinkedHashMap<String, String>(
+                ConfigArgs.parse(CONFIG_ARG));
+        assertEquals(ConfigArgs.format(args), CONFIG_ARG);
+        args.put("vlanId", "200");
+        args.put("dhcpScope", null);
+        assertEquals(ConfigArgs.parse(ConfigArgs.format(args)).get("vlanId"),
+                "200");
+        assertTrue(ConfigArgs.format(args).endsWith(";$dhcpScope="));
+    }
+
+    /**
+     * Names are shared between parses, whatever string they came from.
+     */
+    @Test
+    public final void internedNames() {
+        final String first = ConfigArgs.parse(new String(CONFIG_ARG))
+                .keySet().iterator().next();
+        final String second = ConfigArgs.parse(new String(CONFIG_ARG))
+                .keySet().iterator().next();
+        assertSame(first, second);
+    }
+
+    /**
+     * A node keeps its parsed configArg until the configArg changes.
+     */
+    @Test
+    public final void cachedOnNode() {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part0");
+        data.put("networkName", "net0");
+        data.put("segmentId", "34000");
+        data.put("vlanId", "101");
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "defaultNetworkIpv4EfProfile");
+        final Node node = new Node(data);
+        assertSame(node.getConfigArgs(), ConfigArgs.EMPTY);
+
+        node.getData().put("configArg", CONFIG_ARG);
+        final ConfigArgs args = node.getConfigArgs();
+        assertEquals(args.getInt("vlanId", -1), 101);
+        assertSame(node.getConfigArgs(), args);
+
+        node.getData().put("configArg", "$vlanId=102");
+        assertNotSame(node.getConfigArgs(), args);
+        assertEquals(node.getConfigArgs().getInt("vlanId", -1), 102);
+        node.getData().remove("configArg");
+        assertFalse(node.getConfigArgs().containsKey("vlanId"));
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Gson against Jackson on DCNM payloads: writing one network's data, as
+ * Node.getDataAsJson does for every create and fingerprint, and reading a
+ * list of networks into string maps, as a partition listing does.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.datastructures.JsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+
+    /** Networks in the list payload. */
+    private static final int NETWORKS = 1000;
+
+    /** Shared Gson instance. */
+    private final Gson gson = new Gson();
+
+    /** Shared Jackson writer for string maps. */
+    private final ObjectWriter jacksonWriter = new ObjectMapper()
+            .writerWithType(Map.class);
+
+    /** Shared Jackson factory. */
+    private final JsonFactory jacksonFactory = new JsonFactory();
+
+    /** One network's data. */
+    private Map<String, String> network;
+
+    /** A list of networks as DCNM sends it. */
+    private String list;
+
+    /**
+     * Builds the payloads.
+     */
+    @Setup
+    public void setUp() {
+        network = network(0);
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < NETWORKS; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(gson.toJson(network(i)));
+        }
+        list = sb.append(']').toString();
+    }
+
+    /**
+     * Builds a network's data.
+     *
+     * @param n
+     *            the network number
+     * @return the data
+     */
+    private static Map<String, String> network(final int n) {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("topologyName", "default");
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part0");
+        data.put("networkName", "net" + n);
+        data.put("segmentId", String.valueOf(30000 + n));
+        data.put("vlanId", String.valueOf(100 + n % 3900));
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "defaultNetworkIpv4EfProfile");
+        data.put("configArg", "$gatewayIpAddress=10.0.0.1;$netMaskLength=24;"
+                + "$vlanId=" + (100 + n % 3900) + ";$segmentId="
+                + (30000 + n) + ";$vrfName=org0:part0");
+        data.put("description", "network " + n);
+        return data;
+    }
+
+    /**
+     * Writes with a new Gson per call, as Node.getDataAsJson did.
+     *
+     * @return the JSON
+     */
+    @Benchmark
+    public String gsonNewWrite() {
+        return new Gson().toJson(network);
+    }
+
+    /**
+     * Writes with a shared Gson.
+     *
+     * @return the JSON
+     */
+    @Benchmark
+    public String gsonSharedWrite() {
+        return gson.toJson(network);
+    }
+
+    /**
+     * Writes with a shared Jackson writer.
+     *
+     * @return the JSON
+     * @throws IOException
+     *             if writing fails
+     */
+    @Benchmark
+    public String jacksonWrite() throws IOException {
+        return jacksonWriter.writeValueAsString(network);
+    }
+
+    /**
+     * Reads the list with a Gson streaming reader, as NodeReader does.
+     *
+     * @param bh
+     *            the blackhole
+     * @throws IOException
+     *             if reading fails
+     */
+    @Benchmark
+    public void gsonStreamRead(final Blackhole bh) throws IOException {
+        final JsonReader reader = new JsonReader(new StringReader(list));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final Map<String, String> data = new HashMap<String, String>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                data.put(reader.nextName(), reader.nextString());
+            }
+            reader.endObject();
+            bh.consume(data);
+        }
+        reader.endArray();
+        reader.close();
+    }
+
+    /**
+     * Reads the list with a Jackson streaming parser.
+     *
+     * @param bh
+     *            the blackhole
+     * @throws IOException
+     *             if reading fails
+     */
+    @Benchmark
+    public void jacksonStreamRead(final Blackhole bh) throws IOException {
+        final JsonParser parser = jacksonFactory.createParser(
+                new StringReader(list));
+        parser.nextToken();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            final Map<String, String> data = new HashMap<String, String>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                data.put(name, parser.getText());
+            }
+            bh.consume(data);
+        }
+        parser.close();
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                JsonBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Building and validating 100k network Nodes from parsed data, as reading a
+ * large listing does, and taking and hashing their identities.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.datastructures.NodeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NodeBenchmark {
+
+    /** Networks built per operation. */
+    private static final int NETWORKS = 100000;
+
+    /** Networks per partition. */
+    private static final int PER_PARTITION = 100;
+
+    /** The parsed data. */
+    private final List<Map<String, String>> parsed =
+            new ArrayList<Map<String, String>>(NETWORKS);
+
+    /** The nodes built from the parsed data. */
+    private final List<Node> nodes = new ArrayList<Node>(NETWORKS);
+
+    /**
+     * Builds the parsed data.
+     */
+    @Setup
+    public void setUp() {
+        for (int n = 0; n < NETWORKS; n++) {
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part" + n / PER_PARTITION);
+            data.put("networkName", "net" + n);
+            data.put("segmentId", String.valueOf(30000 + n));
+            data.put("vlanId", String.valueOf(100 + n % 3900));
+            data.put("mobilityDomainId", "md0");
+            data.put("profileName", "defaultNetworkIpv4EfProfile");
+            data.put("description", "network " + n);
+            parsed.add(data);
+            nodes.add(new Node(data));
+        }
+    }
+
+    /**
+     * Builds the nodes.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void construct(final Blackhole bh) {
+        for (final Map<String, String> data : parsed) {
+            bh.consume(new Node(data));
+        }
+    }
+
+    /**
+     * Takes each node's identity and parent identity.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void identities(final Blackhole bh) {
+        for (final Node node : nodes) {
+            bh.consume(node.getId());
+            bh.consume(node.getParentId());
+        }
+    }
+
+    /**
+     * Puts the nodes in a hash set, as dedup and diff code does.
+     *
+     * @return the set
+     */
+    @Benchmark
+    public Set<Node> hashSet() {
+        return new HashSet<Node>(nodes);
+    }
+
+    /**
+     * Maps the nodes by identity, as a cache does.
+     *
+     * @return the map
+     */
+    @Benchmark
+    public Map<NodeIdentity, Node> identityMap() {
+        final Map<NodeIdentity, Node> map = new HashMap<NodeIdentity, Node>(
+                nodes.size() * 2);
+        for (final Node node : nodes) {
+            map.put(node.getIdentity(), node);
+        }
+        return map;
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                NodeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
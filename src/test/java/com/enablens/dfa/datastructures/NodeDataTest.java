@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Node Data Test Class.
+ */
+public class NodeDataTest {
+
+    /**
+     * Builds a network's data as a parser would, with values not shared.
+     *
+     * @param segmentId
+     *            the segment id
+     * @return the data
+     */
+    private static Map<String, String> network(final String segmentId) {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", new String("org0"));
+        data.put("partitionName", new String("part0"));
+        data.put("networkName", "net" + segmentId);
+        data.put("segmentId", segmentId);
+        data.put("vlanId", "100");
+        data.put("mobilityDomainId", new String("md0"));
+        data.put("profileName", new String("defaultNetworkIpv4EfProfile"));
+        data.put("description", null);
+        return data;
+    }
+
+    /**
+     * Values read back exactly as they were put, numeric or not.
+     */
+    @Test
+    public final void valuesReadBack() {
+        final Map<String, String> data = network("30000");
+        data.put("staticIpStart", "");
+        final Node node = new Node(data);
+        data.put("topologyName", "default");
+        assertEquals(node.getData(), data);
+        assertEquals(data, node.getData());
+        assertEquals(node.getData().hashCode(), data.hashCode());
+        assertTrue(node.getData().containsKey("description"));
+        assertNull(node.getData().get("description"));
+        assertFalse(node.getData().containsKey("dvsId"));
+
+        for (final String value : new String[]{"0", "007", "-1", "x1",
+                "16777215", "99999999999" }) {
+            node.getData().put("vlanId", value);
+            assertEquals(node.getData().get("vlanId"), value);
+        }
+    }
+
+    /**
+     * Low-cardinality values are shared between nodes.
+     */
+    @Test
+    public final void sharedValues() {
+        final Node first = new Node(network("30000"));
+        final Node second = new Node(network("30001"));
+        assertSame(first.getData().get("profileName"),
+                second.getData().get("profileName"));
+        assertSame(first.getData().get("mobilityDomainId"),
+                second.getData().get("mobilityDomainId"));
+    }
+
+    /**
+     * Keys that are not attributes of the type are refused.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public final void unknownKey() {
+        new Node(network("30000")).getData().put("vlan", "100");
+    }
+
+    /**
+     * Equal nodes are equal whatever order their data was put in.
+     */
+    @Test
+    public final void nodesEqual() {
+        final Node node = new Node(network("30000"));
+        final Node other = new Node(network("30000"));
+        assertEquals(node, other);
+        assertEquals(node.hashCode(), other.hashCode());
+        other.getData().put("vlanId", "x");
+        other.getData().put("vlanId", "100");
+        assertEquals(node, other);
+        other.getData().put("segmentId", "30001");
+        assertFalse(node.equals(other));
+    }
+
+    /**
+     * Entries can be removed through the map view.
+     */
+    @Test
+    public final void removeThroughView() {
+        final Map<String, String> data = new Node(network("30000")).getData();
+        final int size = data.size();
+        final Iterator<Map.Entry<String, String>> entries = data.entrySet()
+                .iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getKey().equals("segmentId")) {
+                entries.remove();
+            }
+        }
+        assertEquals(data.size(), size - 1);
+        assertFalse(data.containsKey("segmentId"));
+        assertEquals(data.remove("vlanId"), "100");
+        assertEquals(data.size(), size - 2);
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Fingerprinting 100k network Nodes, as a refresh or diff of a large fabric
+ * does, with each NodeFingerprint.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.datastructures.NodeFingerprintBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NodeFingerprintBenchmark {
+
+    /** Networks fingerprinted per operation. */
+    private static final int NETWORKS = 100000;
+
+    /** Networks per partition. */
+    private static final int PER_PARTITION = 100;
+
+    /** Fingerprint to use: "md5" or "murmur". */
+    @Param({"md5", "murmur" })
+    public String algorithm;
+
+    /** The fingerprint. */
+    private NodeFingerprint fingerprint;
+
+    /** The nodes. */
+    private final List<Node> nodes = new ArrayList<Node>(NETWORKS);
+
+    /**
+     * Builds the nodes.
+     */
+    @Setup
+    public void setUp() {
+        fingerprint = "md5".equals(algorithm) ? NodeFingerprint.MD5
+                : NodeFingerprint.MURMUR;
+        for (int n = 0; n < NETWORKS; n++) {
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part" + n / PER_PARTITION);
+            data.put("networkName", "net" + n);
+            data.put("segmentId", String.valueOf(30000 + n));
+            data.put("vlanId", String.valueOf(100 + n % 3900));
+            data.put("mobilityDomainId", "md0");
+            data.put("profileName", "defaultNetworkIpv4EfProfile");
+            data.put("configArg", "$gatewayIpAddress=10.0.0.1;"
+                    + "$netMaskLength=24;$vlanId=" + (100 + n % 3900)
+                    + ";$segmentId=" + (30000 + n) + ";$vrfName=org0:part"
+                    + n / PER_PARTITION);
+            data.put("description", "network " + n);
+            nodes.add(new Node(data));
+        }
+    }
+
+    /**
+     * Fingerprints every node.
+     *
+     * @param bh
+     *            the blackhole
+     */
+    @Benchmark
+    public void fingerprint(final Blackhole bh) {
+        for (final Node node : nodes) {
+            bh.consume(fingerprint.fingerprint(node));
+        }
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                NodeFingerprintBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Node Fingerprint Test Class.
+ */
+public class NodeFingerprintTest {
+
+    /** The murmur fingerprint. */
+    private static final MurmurFingerprint MURMUR = new MurmurFingerprint();
+
+    /**
+     * Builds a network's data.
+     *
+     * @param segmentId
+     *            the segment id
+     * @return the data
+     */
+    private static Map<String, String> network(final String segmentId) {
+        final Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("topologyName", "default");
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part0");
+        data.put("networkName", "net" + segmentId);
+        data.put("segmentId", segmentId);
+        data.put("vlanId", "100");
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "defaultNetworkIpv4EfProfile");
+        data.put("description", null);
+        return data;
+    }
+
+    /**
+     * A Node hashes as a plain map of the same data, in any order, whether
+     * its numbers are held as ints or not.
+     */
+    @Test
+    public final void nodeMatchesMap() {
+        for (final String segmentId : new String[]{"0", "7", "30000",
+                "123456789", "007", "9999999999", "x" }) {
+            final Map<String, String> data = network(segmentId);
+            final Map<String, String> reversed =
+                    new LinkedHashMap<String, String>();
+            final String[] keys = data.keySet().toArray(new String[0]);
+            for (int i = keys.length - 1; i >= 0; i--) {
+                reversed.put(keys[i], data.get(keys[i]));
+            }
+            final Node node = new Node(data);
+            assertEquals(MURMUR.hash(node), MURMUR.hash(data));
+            assertEquals(MURMUR.hash(node), MURMUR.hash(reversed));
+            assertEquals(MURMUR.fingerprint(node).length(), 16);
+        }
+    }
+
+    /**
+     * Any change to the data changes the fingerprint.
+     */
+    @Test
+    public final void changesSeen() {
+        final Node node = new Node(network("30000"));
+        final String before = MURMUR.fingerprint(node);
+        final Map<String, String> changed = new HashMap<String, String>();
+        changed.put("description", "");
+        changed.put("vlanId", "1000");
+        changed.put("segmentId", "3000");
+        changed.put("networkName", "net3000");
+        for (final Map.Entry<String, String> entry : changed.entrySet()) {
+            final Node other = new Node(network("30000"));
+            other.getData().put(entry.getKey(), entry.getValue());
+            assertFalse(before.equals(MURMUR.fingerprint(other)),
+                    entry.getKey());
+        }
+        final Node removed = new Node(network("30000"));
+        removed.getData().remove("description");
+        assertFalse(before.equals(MURMUR.fingerprint(removed)));
+        assertEquals(MURMUR.fingerprint(new Node(network("30000"))), before);
+    }
+
+    /**
+     * The MD5 fingerprint is the one earlier versions gave, with Gson's
+     * escaping and HashMap order.
+     */
+    @Test
+    public final void md5Compatible() {
+        final Map<String, String> data = new HashMap<String, String>(
+                network("30000"));
+        data.put("networkName", "net<30000>");
+        data.put("configArg", "$gatewayIpAddress=10.0.0.1&$netMaskLength=24");
+        final Node node = new Node(data);
+        // Taken from the version before the Jackson mapper
+        assertEquals(NodeFingerprint.MD5.fingerprint(node),
+                "1437ad7180611c9480b437c72f43abe9");
+    }
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Heap held by a 100k-network fabric snapshot read from a DCNM listing, in
+ * the compact Node layout against the HashMap each Node used to hold. The
+ * main method prints the retained heap per network for each layout, then
+ * times reading the snapshot.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.datastructures.NodeHeapBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NodeHeapBenchmark {
+
+    /** Networks in the snapshot. */
+    private static final int NETWORKS = 100000;
+
+    /** Networks per partition. */
+    private static final int PER_PARTITION = 100;
+
+    /** Times to collect garbage before measuring the heap. */
+    private static final int COLLECTIONS = 4;
+
+    /** Layout to read into: "map" for HashMap, "compact" for Node. */
+    @Param({"map", "compact" })
+    public String layout;
+
+    /** The listing. */
+    private String listing;
+
+    /**
+     * Builds the listing.
+     */
+    @Setup
+    public void setUp() {
+        listing = listing();
+    }
+
+    /**
+     * Builds a listing of networks as DCNM sends it.
+     *
+     * @return the JSON
+     */
+    private static String listing() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int n = 0; n < NETWORKS; n++) {
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part" + n / PER_PARTITION);
+            data.put("networkName", "net" + n);
+            data.put("segmentId", String.valueOf(30000 + n));
+            data.put("vlanId", String.valueOf(100 + n % 3900));
+            data.put("mobilityDomainId", "md0");
+            data.put("profileName", "defaultNetworkIpv4EfProfile");
+            data.put("configArg", "$gatewayIpAddress=10.0.0.1;"
+                    + "$netMaskLength=24;$vlanId=" + (100 + n % 3900)
+                    + ";$segmentId=" + (30000 + n) + ";$vrfName=org0:part"
+                    + n / PER_PARTITION);
+            data.put("description", "network " + n);
+            if (n > 0) {
+                sb.append(',');
+            }
+            sb.append(NodeJson.toJson(data));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Reads a listing in a layout.
+     *
+     * @param json
+     *            the listing
+     * @param compact
+     *            whether to read into Nodes
+     * @return the snapshot
+     * @throws IOException
+     *             if reading fails
+     */
+    private static List<Object> read(final String json,
+            final boolean compact) throws IOException {
+        final List<Object> snapshot = new ArrayList<Object>(NETWORKS);
+        final JsonParser parser = NodeJson.parser(new StringReader(json));
+        parser.nextToken();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            final Map<String, String> data = NodeJson.readData(parser);
+            if (compact) {
+                snapshot.add(new Node(data));
+            } else {
+                data.put("topologyName", "default");
+                snapshot.add(data);
+            }
+        }
+        parser.close();
+        return snapshot;
+    }
+
+    /**
+     * Reads the listing into the layout.
+     *
+     * @return the snapshot
+     * @throws IOException
+     *             if reading fails
+     */
+    @Benchmark
+    public List<Object> read() throws IOException {
+        return read(listing, "compact".equals(layout));
+    }
+
+    /**
+     * Gets the heap in use after collecting garbage.
+     *
+     * @return the bytes in use
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < COLLECTIONS; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws IOException
+     *             if reading fails
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws IOException,
+            RunnerException {
+        final String json = listing();
+        for (final boolean compact : new boolean[]{false, true }) {
+            final long before = usedHeap();
+            final List<Object> snapshot = read(json, compact);
+            final long retained = usedHeap() - before;
+            System.out.printf("%-8s %,d bytes per network%n",
+                    compact ? "compact" : "map", retained / snapshot.size());
+        }
+        new Runner(new OptionsBuilder().include(
+                NodeHeapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
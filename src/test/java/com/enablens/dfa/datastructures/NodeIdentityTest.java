@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.datastructures;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Node Identity Test Class.
+ */
+public class NodeIdentityTest {
+
+    /**
+     * Builds a network's data.
+     *
+     * @param description
+     *            the description
+     * @return the data
+     */
+    private static Map<String, String> network(final String description) {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part0");
+        data.put("networkName", "net0");
+        data.put("segmentId", "30000");
+        data.put("vlanId", "100");
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "p");
+        data.put("description", description);
+        return data;
+    }
+
+    /**
+     * Only the type and identity values are compared.
+     */
+    @Test
+    public final void identityValuesOnly() {
+        final Node node = new Node(network("one"));
+        final Node other = new Node(network("two"));
+        assertFalse(node.equals(other));
+        assertEquals(node.getIdentity(), other.getIdentity());
+        assertEquals(node.getIdentity().hashCode(),
+                other.getIdentity().hashCode());
+        assertEquals(node.hashCode(), other.hashCode());
+        assertEquals(new NodeIdentity(NodeType.NETWORK, node.getId()),
+                node.getIdentity());
+        assertEquals(node.getId().size(), 4);
+        assertEquals(node.getIdentity().get("segmentId"), "30000");
+        assertNull(node.getIdentity().get("vlanId"));
+    }
+
+    /**
+     * The identity is kept until an identity value changes.
+     */
+    @Test
+    public final void keptUntilChanged() {
+        final Node node = new Node(network("one"));
+        final NodeIdentity id = node.getIdentity();
+        node.getData().put("description", "two");
+        assertSame(node.getIdentity(), id);
+        node.getData().put("segmentId", "30001");
+        assertEquals(node.getIdentity().get("segmentId"), "30001");
+        assertFalse(node.getIdentity().equals(id));
+    }
+
+    /**
+     * The parent identity is the parent type's identity values.
+     */
+    @Test
+    public final void parent() {
+        final NodeIdentity network = new Node(network("one")).getIdentity();
+        final Map<String, String> partition = new HashMap<String, String>();
+        partition.put("topologyName", "default");
+        partition.put("organizationName", "org0");
+        partition.put("partitionName", "part0");
+        assertEquals(network.getParent(), new NodeIdentity(
+                NodeType.PARTITION, partition));
+        assertEquals(network.getParent().getIdentity(), partition);
+        assertEquals(network.getParent().getParent().getParent().getType(),
+                NodeType.TOPOLOGY);
+        assertNull(network.getParent().getParent().getParent().getParent());
+    }
+
+    /**
+     * Identity values cannot be missing.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public final void blankValue() {
+        final Map<String, String> partition = new HashMap<String, String>();
+        partition.put("topologyName", "default");
+        partition.put("organizationName", "org0");
+        new NodeIdentity(NodeType.PARTITION, partition);
+    }
+}
@@ -0,0 +1,629 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small in-memory stand-in for the DCNM REST API, used by tests and
+ * benchmarks.
+ *
+ * Organizations, partitions and networks are held per collection, keyed by
+ * the collection's URI below /rest/auto-config. A fixed latency can be added
+ * to every request to model a remote controller.
+ */
+public class MockDcnmServer {
+
+    /** Token handed out by the logon resource. */
+    public static final String TOKEN = "mock-dcnm-token";
+
+    /** Base segment id for generated networks. */
+    private static final int SEGMENT_BASE = 30000;
+
+    /** Base vlan id for generated networks. */
+    private static final int VLAN_BASE = 100;
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** HTTP Not Modified. */
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /** HTTP Forbidden. */
+    private static final int HTTP_FORBIDDEN = 403;
+
+    /** HTTP Not Found. */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /** HTTP Bad Method. */
+    private static final int HTTP_BAD_METHOD = 405;
+
+    /** HTTP Conflict. */
+    private static final int HTTP_CONFLICT = 409;
+
+    /** HTTP Internal Server Error. */
+    private static final int HTTP_INTERNAL_ERROR = 500;
+
+    /** HTTP Unauthorized. */
+    private static final int HTTP_UNAUTHORIZED = 401;
+
+    /** Auto-config prefix. */
+    private static final String AUTO_CONFIG = "/rest/auto-config";
+
+    /** Map type used to read request bodies. */
+    private static final TypeReference<LinkedHashMap<String, String>>
+            DATA_TYPE = new TypeReference<LinkedHashMap<String, String>>() {
+            };
+
+    /** Identity attribute per collection name. */
+    private static final Map<String, String> KEYS =
+            new HashMap<String, String>();
+
+    static {
+        // Otherwise Nagle and delayed ACK add ~40ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        KEYS.put("organizations", "organizationName");
+        KEYS.put("partitions", "partitionName");
+        KEYS.put("networks", "segmentId");
+    }
+
+    /** The collections, keyed by collection URI. */
+    private final ConcurrentMap<String, Map<String, Map<String, String>>>
+            collections =
+            new ConcurrentHashMap<String, Map<String, Map<String, String>>>();
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /** The request executor. */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /** Requests served. */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** Logons served. */
+    private final AtomicLong logons = new AtomicLong();
+
+    /** Times the tokens have been expired. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The token currently accepted. */
+    private volatile String token = TOKEN;
+
+    /** Latency added to every request, in msec. */
+    private volatile long latency;
+
+    /** Whether GET responses carry an ETag. */
+    private volatile boolean etags;
+
+    /** GETs answered as not modified. */
+    private final AtomicLong notModified = new AtomicLong();
+
+    /** Requests refused as forbidden, as "METHOD path". */
+    private final Set<String> refused = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Whether logons are refused. */
+    private volatile boolean logonFailing;
+
+    /** Body sent with a successful logon instead of the token, if any. */
+    private volatile String logonBody;
+
+    /** REST requests still to be refused as busy. */
+    private final AtomicInteger busyLeft = new AtomicInteger();
+
+    /** Status sent while busy. */
+    private volatile int busyStatus;
+
+    /** Retry-After sent while busy, or null. */
+    private volatile String busyRetryAfter;
+
+    /** The JSON mapper. */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Instantiates a new mock DCNM server on an ephemeral local port.
+     *
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public MockDcnmServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/rest/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange)
+                    throws IOException {
+                try {
+                    dispatch(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the server.
+     */
+    public final void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public final void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the server address in the form expected by DcnmAuthToken.
+     *
+     * @return host:port
+     */
+    public final String getAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets the latency added to every request.
+     *
+     * @param newLatency
+     *            the latency in msec
+     */
+    public final void setLatency(final long newLatency) {
+        latency = newLatency;
+    }
+
+    /**
+     * Sets whether GET responses carry an ETag, and a GET whose If-None-Match
+     * matches is answered 304 with no body.
+     *
+     * @param newEtags
+     *            true to send ETags
+     */
+    public final void setEtags(final boolean newEtags) {
+        etags = newEtags;
+    }
+
+    /**
+     * Gets the number of GETs answered as not modified.
+     *
+     * @return the not modified count
+     */
+    public final long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Expires every token handed out so far, as DCNM does when it restarts.
+     * Requests carrying an old token get 401 until the client logs on again.
+     */
+    public final void expireTokens() {
+        token = TOKEN + "-" + generation.incrementAndGet();
+    }
+
+    /**
+     * Refuses the next REST requests as an overloaded DCNM would.
+     *
+     * @param count
+     *            the number of requests to refuse
+     * @param status
+     *            the HTTP status to refuse them with, e.g. 503
+     * @param retryAfter
+     *            the Retry-After header to send, or null for none
+     */
+    public final void setBusy(final int count, final int status,
+            final String retryAfter) {
+        busyStatus = status;
+        busyRetryAfter = retryAfter;
+        busyLeft.set(count);
+    }
+
+    /**
+     * Refuses every request with a method and path as forbidden, as DCNM
+     * does for an object that is in use.
+     *
+     * @param method
+     *            the method, e.g. DELETE
+     * @param path
+     *            the path, e.g. /rest/auto-config/organizations/org0
+     */
+    public final void refuse(final String method, final String path) {
+        refused.add(method + " " + path);
+    }
+
+    /**
+     * Makes logons fail with a server error, or succeed again.
+     *
+     * @param newLogonFailing
+     *            true to refuse logons
+     */
+    public final void setLogonFailing(final boolean newLogonFailing) {
+        logonFailing = newLogonFailing;
+    }
+
+    /**
+     * Sets the body sent with a successful logon in place of the token.
+     *
+     * @param newLogonBody
+     *            the body, or null to send the token
+     */
+    public final void setLogonBody(final String newLogonBody) {
+        logonBody = newLogonBody;
+    }
+
+    /**
+     * Gets the number of requests served.
+     *
+     * @return the request count
+     */
+    public final long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of logons served.
+     *
+     * @return the logon count
+     */
+    public final long getLogonCount() {
+        return logons.get();
+    }
+
+    /**
+     * Gets the number of items held in a collection.
+     *
+     * @param collection
+     *            the collection URI, e.g. /organizations
+     * @return the item count
+     */
+    public final int size(final String collection) {
+        final Map<String, Map<String, String>> items =
+                collections.get(collection);
+        return items == null ? 0 : items.size();
+    }
+
+    /**
+     * Fills the server with a generated fabric.
+     *
+     * @param organizations
+     *            organizations to create
+     * @param partitions
+     *            partitions per organization
+     * @param networks
+     *            networks per partition
+     */
+    public final void populate(final int organizations, final int partitions,
+            final int networks) {
+        int segment = SEGMENT_BASE;
+        for (int o = 0; o < organizations; o++) {
+            final String org = "org" + o;
+            final Map<String, String> orgData =
+                    new LinkedHashMap<String, String>();
+            orgData.put("organizationName", org);
+            orgData.put("description", "Organization " + o);
+            put("/organizations", orgData);
+            for (int p = 0; p < partitions; p++) {
+                final String part = "part" + p;
+                final Map<String, String> partData =
+                        new LinkedHashMap<String, String>();
+                partData.put("organizationName", org);
+                partData.put("partitionName", part);
+                partData.put("partitionSegmentId",
+                        String.valueOf(SEGMENT_BASE * 2 + o * partitions + p));
+                partData.put("description", "Partition " + p);
+                put("/organizations/" + org + "/partitions", partData);
+                for (int n = 0; n < networks; n++, segment++) {
+                    final int vlan = VLAN_BASE + n;
+                    final Map<String, String> netData =
+                            new LinkedHashMap<String, String>();
+                    netData.put("organizationName", org);
+                    netData.put("partitionName", part);
+                    netData.put("networkName", "net" + n);
+                    netData.put("segmentId", String.valueOf(segment));
+                    netData.put("vlanId", String.valueOf(vlan));
+                    netData.put("mobilityDomainId", "md0");
+                    netData.put("profileName",
+                            "defaultNetworkIpv4EfProfile");
+                    netData.put("configArg", "$vlanId=" + vlan
+                            + ";$segmentId=" + segment + ";$vrfName=" + org
+                            + ":" + part + ";$gatewayIpAddress=10." + o + "."
+                            + n + ".1;$netMaskLength=24");
+                    netData.put("description", "Network " + n);
+                    put("/organizations/" + org + "/partitions/" + part
+                            + "/networks", netData);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores an item in a collection.
+     *
+     * @param collection
+     *            the collection URI
+     * @param data
+     *            the item
+     */
+    private void put(final String collection, final Map<String, String> data) {
+        final String name = collection
+                .substring(collection.lastIndexOf('/') + 1);
+        Map<String, Map<String, String>> items = collections.get(collection);
+        if (items == null) {
+            collections.putIfAbsent(collection,
+                    new ConcurrentSkipListMap<String, Map<String, String>>());
+            items = collections.get(collection);
+        }
+        items.put(data.get(KEYS.get(name)), data);
+    }
+
+    /**
+     * Stores a new item in a collection.
+     *
+     * @param collection
+     *            the collection URI
+     * @param data
+     *            the item
+     * @return true, or false if the collection already holds the item
+     */
+    private boolean create(final String collection,
+            final Map<String, String> data) {
+        final String name = collection
+                .substring(collection.lastIndexOf('/') + 1);
+        collections.putIfAbsent(collection,
+                new ConcurrentSkipListMap<String, Map<String, String>>());
+        // The collections are concurrent, so this is atomic
+        return collections.get(collection).putIfAbsent(
+                data.get(KEYS.get(name)), data) == null;
+    }
+
+    /**
+     * Checks that the item a collection belongs to exists.
+     *
+     * @param segments
+     *            the collection's path segments
+     * @return true, if the collection is top level or its owner exists
+     */
+    private boolean parentExists(final String[] segments) {
+        final int length = segments.length;
+        if (length < 3) {
+            return true;
+        }
+        final Map<String, Map<String, String>> owners = collections.get(join(
+                Arrays.copyOf(segments, length - 2)));
+        return owners != null && owners.containsKey(segments[length - 2]);
+    }
+
+    /**
+     * Routes a request.
+     *
+     * @param exchange
+     *            the exchange
+     * @throws IOException
+     *             on write failure
+     */
+    private void dispatch(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/rest/logon")) {
+            logons.incrementAndGet();
+            if (logonFailing) {
+                send(exchange, HTTP_INTERNAL_ERROR, "{}");
+                return;
+            }
+            final String body = logonBody;
+            if (body != null) {
+                send(exchange, HTTP_OK, body);
+                return;
+            }
+            send(exchange, HTTP_OK, "{\"Dcnm-Token\":\"" + token + "\"}");
+            return;
+        }
+        if (!path.startsWith(AUTO_CONFIG)) {
+            send(exchange, HTTP_NOT_FOUND, "{}");
+            return;
+        }
+        if (takeBusy()) {
+            if (busyRetryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After",
+                        busyRetryAfter);
+            }
+            send(exchange, busyStatus, "{}");
+            return;
+        }
+        if (!token.equals(exchange.getRequestHeaders().getFirst(
+                "Dcnm-Token"))) {
+            send(exchange, HTTP_UNAUTHORIZED, "{}");
+            return;
+        }
+        if (refused.contains(method + " " + path)) {
+            send(exchange, HTTP_FORBIDDEN, "{}");
+            return;
+        }
+        String[] segments = path.substring(AUTO_CONFIG.length())
+                .replaceAll("^/+|/+$", "").split("/");
+        String collection;
+        String key = null;
+        final int length = segments.length;
+        if (length > 2 && "segment".equals(segments[length - 2])) {
+            collection = join(Arrays.copyOf(segments, length - 2));
+            key = segments[length - 1];
+        } else if (length % 2 == 1) {
+            collection = join(segments);
+        } else {
+            collection = join(Arrays.copyOf(segments, length - 1));
+            key = segments[length - 1];
+        }
+        final Map<String, Map<String, String>> items =
+                collections.get(collection);
+        if ("GET".equals(method)) {
+            if (key == null) {
+                sendTagged(exchange, items == null ? "[]"
+                        : mapper.writeValueAsString(items.values()));
+            } else if (items != null && items.containsKey(key)) {
+                sendTagged(exchange,
+                        mapper.writeValueAsString(items.get(key)));
+            } else {
+                send(exchange, HTTP_NOT_FOUND, "{}");
+            }
+        } else if ("POST".equals(method) && key == null) {
+            final Map<String, String> data = mapper.readValue(
+                    exchange.getRequestBody(), DATA_TYPE);
+            if (!parentExists(segments)) {
+                send(exchange, HTTP_NOT_FOUND, "{}");
+            } else if (!create(collection, data)) {
+                send(exchange, HTTP_CONFLICT, "{}");
+            } else {
+                send(exchange, HTTP_OK, "{}");
+            }
+        } else if ("PUT".equals(method) && key != null) {
+            if (items == null || !items.containsKey(key)) {
+                send(exchange, HTTP_NOT_FOUND, "{}");
+                return;
+            }
+            final Map<String, String> data = mapper.readValue(
+                    exchange.getRequestBody(), DATA_TYPE);
+            items.put(key, data);
+            send(exchange, HTTP_OK, "{}");
+        } else if ("DELETE".equals(method) && key != null) {
+            if (items == null || items.remove(key) == null) {
+                send(exchange, HTTP_NOT_FOUND, "{}");
+                return;
+            }
+            final String prefix = path.substring(AUTO_CONFIG.length()) + "/";
+            for (String nested : collections.keySet()) {
+                if (nested.startsWith(prefix)) {
+                    collections.remove(nested);
+                }
+            }
+            send(exchange, HTTP_OK, "{}");
+        } else {
+            send(exchange, HTTP_BAD_METHOD, "{}");
+        }
+    }
+
+    /**
+     * Joins path segments into a collection URI.
+     *
+     * @param segments
+     *            the segments
+     * @return the URI
+     */
+    private static String join(final String[] segments) {
+        final StringBuilder sb = new StringBuilder();
+        for (String segment : segments) {
+            sb.append('/').append(segment);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counts down the requests to refuse as busy.
+     *
+     * @return true if this request is to be refused
+     */
+    private boolean takeBusy() {
+        int left;
+        do {
+            left = busyLeft.get();
+            if (left <= 0) {
+                return false;
+            }
+        } while (!busyLeft.compareAndSet(left, left - 1));
+        return true;
+    }
+
+    /**
+     * Sends a GET response, tagged with an ETag if ETags are on, or 304 if
+     * the client already has it.
+     *
+     * @param exchange
+     *            the exchange
+     * @param body
+     *            the body
+     * @throws IOException
+     *             on write failure
+     */
+    private void sendTagged(final HttpExchange exchange, final String body)
+            throws IOException {
+        if (!etags) {
+            send(exchange, HTTP_OK, body);
+            return;
+        }
+        final String tag = "\"" + DigestUtils.md5Hex(body) + "\"";
+        exchange.getResponseHeaders().set("ETag", tag);
+        if (tag.equals(exchange.getRequestHeaders().getFirst(
+                "If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(HTTP_NOT_MODIFIED, -1);
+            return;
+        }
+        send(exchange, HTTP_OK, body);
+    }
+
+    /**
+     * Sends a response.
+     *
+     * @param exchange
+     *            the exchange
+     * @param code
+     *            the HTTP status
+     * @param body
+     *            the body
+     * @throws IOException
+     *             on write failure
+     */
+    private static void send(final HttpExchange exchange, final int code,
+            final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
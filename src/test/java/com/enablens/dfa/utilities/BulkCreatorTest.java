@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Bulk Creator Test Class.
+ */
+public class BulkCreatorTest {
+
+    /** Partitions to create. */
+    private static final int PARTITIONS = 3;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 20;
+
+    /** HTTP Service Unavailable. */
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The creator. */
+    private BulkCreator creator;
+
+    /**
+     * Starts an empty mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.start();
+        creator = new BulkCreator(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        server.stop();
+    }
+
+    /**
+     * Builds an organization, its partitions and their networks, children
+     * first.
+     *
+     * @return the nodes
+     */
+    private static List<Node> fabric() {
+        final List<Node> nodes = new ArrayList<Node>();
+        int segment = 30000;
+        for (int p = 0; p < PARTITIONS; p++) {
+            for (int n = 0; n < NETWORKS; n++, segment++) {
+                final Map<String, String> data =
+                        new HashMap<String, String>();
+                data.put("organizationName", "org0");
+                data.put("partitionName", "part" + p);
+                data.put("networkName", "net" + n);
+                data.put("segmentId", String.valueOf(segment));
+                data.put("vlanId", String.valueOf(100 + n));
+                data.put("mobilityDomainId", "md0");
+                data.put("profileName", "defaultNetworkIpv4EfProfile");
+                nodes.add(new Node(data));
+            }
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part" + p);
+            data.put("partitionSegmentId", String.valueOf(50000 + p));
+            nodes.add(new Node(data));
+        }
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        nodes.add(new Node(data));
+        return nodes;
+    }
+
+    /**
+     * Every node is created, parents first, and verified with one listing
+     * per parent.
+     */
+    @Test
+    public final void createVerified() {
+        creator.setVerify(true);
+        creator.setWindow(4);
+        final BulkReport report = creator.create(fabric());
+        final int total = 1 + PARTITIONS + PARTITIONS * NETWORKS;
+        assertEquals(report.count(NodeResult.Status.VERIFIED), total,
+                String.valueOf(report.getFailures()));
+        assertEquals(report.getResults().get(0).getNode().getData()
+                .get("organizationName"), "org0");
+        assertEquals(server.size("/organizations/org0/partitions/part0"
+                + "/networks"), NETWORKS);
+        // One logon, the creates, and a listing per parent
+        assertEquals(server.getRequestCount(), 1 + total + 1 + 1
+                + PARTITIONS);
+    }
+
+    /**
+     * Children of a node that failed are skipped, not sent.
+     */
+    @Test
+    public final void failedParentSkipsChildren() {
+        server.setBusy(1, HTTP_UNAVAILABLE, null);
+        final BulkReport report = creator.create(fabric());
+        assertEquals(report.count(NodeResult.Status.FAILED), 1);
+        assertEquals(report.count(NodeResult.Status.SKIPPED), PARTITIONS
+                + PARTITIONS * NETWORKS);
+        assertEquals(report.getFailures().get(0).getCode(),
+                HTTP_UNAVAILABLE);
+        assertEquals(server.size("/organizations"), 0);
+    }
+
+    /**
+     * A create that cannot be sent fails and gives its place in the window
+     * back, so the rest are still sent.
+     */
+    @Test(timeOut = 10000)
+    public final void unsendableFails() {
+        creator.setWindow(1);
+        final List<Node> nodes = new ArrayList<Node>();
+        final Map<String, String> org = new HashMap<String, String>();
+        org.put("organizationName", "bad org");
+        nodes.add(new Node(org));
+        for (int p = 0; p < PARTITIONS; p++) {
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "bad org");
+            data.put("partitionName", "part" + p);
+            data.put("partitionSegmentId", String.valueOf(50000 + p));
+            // The space in the parent's path makes the URI invalid
+            nodes.add(new Node(data));
+        }
+        final BulkReport report = creator.create(nodes);
+        assertEquals(report.count(NodeResult.Status.DONE), 1);
+        assertEquals(report.count(NodeResult.Status.FAILED), PARTITIONS);
+    }
+}
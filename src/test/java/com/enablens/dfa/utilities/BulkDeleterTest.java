@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Bulk Deleter Test Class.
+ */
+public class BulkDeleterTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 2;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 3;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 5;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The deleter. */
+    private BulkDeleter deleter;
+
+    /**
+     * Starts a populated mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        deleter = new BulkDeleter(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        server.stop();
+    }
+
+    /**
+     * Gets an organization node.
+     *
+     * @param name
+     *            the organization name
+     * @return the node
+     */
+    private static Node organization(final String name) {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", name);
+        return new Node(data);
+    }
+
+    /**
+     * Every node below an organization is deleted, leaves first, and other
+     * organizations are left alone.
+     */
+    @Test
+    public final void deleteOrganization() {
+        final AtomicInteger seen = new AtomicInteger();
+        deleter.setProgress(new Consumer<NodeResult>() {
+            @Override
+            public void accept(final NodeResult result) {
+                seen.incrementAndGet();
+            }
+        });
+        final BulkReport report = deleter.delete(organization("org0"));
+        final int total = 1 + PARTITIONS + PARTITIONS * NETWORKS;
+        assertEquals(report.count(NodeResult.Status.DONE), total,
+                String.valueOf(report.getFailures()));
+        assertEquals(seen.get(), total);
+        assertEquals(report.getResults().get(total - 1).getNode(),
+                organization("org0"));
+        assertEquals(server.size("/organizations"), ORGANIZATIONS - 1);
+        assertEquals(server.size("/organizations/org1/partitions"),
+                PARTITIONS);
+    }
+
+    /**
+     * A dry run finds the nodes but deletes nothing.
+     */
+    @Test
+    public final void dryRun() {
+        deleter.setDryRun(true);
+        final long before = server.getRequestCount();
+        final BulkReport report = deleter.delete(new Node(
+                new HashMap<String, String>()));
+        assertEquals(report.count(NodeResult.Status.PLANNED), ORGANIZATIONS
+                * (1 + PARTITIONS + PARTITIONS * NETWORKS));
+        assertEquals(report.getFailures().size(), 0);
+        assertEquals(server.size("/organizations"), ORGANIZATIONS);
+        // Logon and listings only
+        assertEquals(server.getRequestCount() - before, 1 + 1 + ORGANIZATIONS
+                + ORGANIZATIONS * PARTITIONS);
+    }
+
+    /**
+     * A failed delete skips only the nodes above it.
+     */
+    @Test
+    public final void failureSkipsAncestors() {
+        server.refuse("DELETE", "/rest/auto-config/organizations/org0"
+                + "/partitions/part1/networks/segment/30007");
+        final BulkReport report = deleter.delete(organization("org0"));
+        assertEquals(report.count(NodeResult.Status.FAILED), 1);
+        assertEquals(report.count(NodeResult.Status.SKIPPED), 2);
+        assertEquals(report.count(NodeResult.Status.DONE), PARTITIONS
+                * NETWORKS - 1 + PARTITIONS - 1);
+        assertEquals(server.size("/organizations/org0/partitions"), 1);
+        assertEquals(server.size("/organizations/org0/partitions/part1"
+                + "/networks"), 1);
+    }
+
+    /**
+     * A partition whose networks cannot be listed fails, its organization is
+     * skipped, and the other partitions are still deleted.
+     */
+    @Test
+    public final void listingFailureSkipsAncestors() {
+        server.refuse("GET", "/rest/auto-config/organizations/org0"
+                + "/partitions/part1/networks");
+        final BulkReport report = deleter.delete(organization("org0"));
+        assertEquals(report.count(NodeResult.Status.FAILED), 1);
+        assertEquals(report.getFailures().get(0).getNode().getData()
+                .get("partitionName"), "part1");
+        assertEquals(report.count(NodeResult.Status.SKIPPED), 1);
+        assertEquals(report.count(NodeResult.Status.DONE), (PARTITIONS - 1)
+                * (1 + NETWORKS));
+        assertEquals(server.size("/organizations/org0/partitions"), 1);
+        assertEquals(server.size("/organizations/org0/partitions/part1"
+                + "/networks"), NETWORKS);
+    }
+
+    /**
+     * A node that is already gone counts as deleted.
+     */
+    @Test
+    public final void missingCountsAsDeleted() {
+        final BulkReport report = deleter.delete(organization("gone"));
+        assertEquals(report.count(NodeResult.Status.DONE), 1,
+                String.valueOf(report.getFailures()));
+        assertEquals(report.getResults().get(0).getCode(), 404);
+        assertEquals(server.size("/organizations"), ORGANIZATIONS);
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Bulk Updater Test Class.
+ */
+public class BulkUpdaterTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 2;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 2;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 4;
+
+    /** The profile the updates set. */
+    private static final String PROFILE = "defaultNetworkL2Profile";
+
+    /**
+     * Matches networks other than net0.
+     */
+    private static final Predicate<Node> NOT_NET0 = new Predicate<Node>() {
+        @Override
+        public boolean test(final Node node) {
+            return node.getType() == NodeType.NETWORK
+                    && !"net0".equals(node.getData().get("networkName"));
+        }
+    };
+
+    /**
+     * Sets the profile.
+     */
+    private static final Consumer<Node> SET_PROFILE = new Consumer<Node>() {
+        @Override
+        public void accept(final Node node) {
+            node.getData().put("profileName", PROFILE);
+        }
+    };
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The token. */
+    private DcnmAuthToken token;
+
+    /** The updater. */
+    private BulkUpdater updater;
+
+    /**
+     * Starts a populated mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        token = new DcnmAuthToken(server.getAddress(), "admin", "admin",
+                60000L);
+        updater = new BulkUpdater(token);
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        server.stop();
+    }
+
+    /**
+     * Gets org0/part1.
+     *
+     * @return the partition
+     */
+    private static Node partition() {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part1");
+        data.put("partitionSegmentId", "60001");
+        return new Node(data);
+    }
+
+    /**
+     * Gets a network by segment id.
+     *
+     * @param segmentId
+     *            the segment id
+     * @return the network's id
+     */
+    private static Map<String, String> network(final String segmentId) {
+        final Map<String, String> id = new HashMap<String, String>();
+        id.put("organizationName", "org0");
+        id.put("partitionName", "part1");
+        id.put("segmentId", segmentId);
+        id.put("networkName", "");
+        id.put("mobilityDomainId", "");
+        return id;
+    }
+
+    /**
+     * Only the selected networks of the partition are updated.
+     */
+    @Test
+    public final void updateSelected() {
+        final BulkReport report = updater.update(partition(), NOT_NET0,
+                SET_PROFILE);
+        assertEquals(report.count(NodeResult.Status.DONE), NETWORKS - 1,
+                report.toString());
+        assertEquals(Utils.getNode(token, network("30005")).getData().get(
+                "profileName"), PROFILE);
+        assertEquals(Utils.getNode(token, network("30004")).getData().get(
+                "profileName"), "defaultNetworkIpv4EfProfile");
+
+        final BulkReport again = updater.update(partition(), NOT_NET0,
+                SET_PROFILE);
+        assertEquals(again.getResults().size(), 0);
+        assertEquals(again.getUnchanged(), NETWORKS - 1);
+    }
+
+    /**
+     * A refused PUT is reported with its code and the rest go through, and
+     * a mutation may not change a node's identity.
+     */
+    @Test
+    public final void failures() {
+        server.refuse("PUT", "/rest/auto-config/organizations/org0"
+                + "/partitions/part1/networks/segment/30006");
+        final BulkReport report = updater.update(partition(), NOT_NET0,
+                SET_PROFILE);
+        assertEquals(report.getFailures().size(), 1);
+        assertEquals(report.getFailures().get(0).getCode(), 403);
+        assertEquals(report.getSucceeded(), NETWORKS - 2);
+
+        final BulkReport renamed = updater.update(partition(), NOT_NET0,
+                new Consumer<Node>() {
+                    @Override
+                    public void accept(final Node node) {
+                        node.getData().put("segmentId", "99999");
+                    }
+                });
+        assertEquals(renamed.count(NodeResult.Status.FAILED), NETWORKS - 1);
+    }
+}
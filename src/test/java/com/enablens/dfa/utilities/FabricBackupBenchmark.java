@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Time to back up a 100k-network fabric from a mock DCNM to a snapshot file.
+ * The main method also prints the file size. The forked JVM runs in a 512 MB
+ * heap, which also holds the mock's copy of the fabric.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.utilities.FabricBackupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class FabricBackupBenchmark {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 10;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 20;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 500;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The backup. */
+    private FabricBackup backup;
+
+    /** The topology. */
+    private Node topology;
+
+    /** The snapshot file. */
+    private File file;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        backup = new FabricBackup(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+        topology = new Node(new HashMap<String, String>());
+        file = File.createTempFile("dfa-backup", ".ndjson.gz");
+        file.deleteOnExit();
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    /**
+     * Backs up the whole fabric.
+     *
+     * @return the number of nodes
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Benchmark
+    public int backup() throws IOException {
+        return backup.backup(topology, file);
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws IOException
+     *             if the file cannot be written
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws IOException,
+            RunnerException {
+        final FabricBackupBenchmark benchmark = new FabricBackupBenchmark();
+        benchmark.setUp();
+        final int count = benchmark.backup();
+        System.out.printf("%,d nodes, %,d bytes%n", count,
+                benchmark.file.length());
+        benchmark.tearDown();
+        new Runner(new OptionsBuilder().include(
+                FabricBackupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeIdentity;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Fabric Backup Test Class.
+ */
+public class FabricBackupTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 3;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 4;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 5;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The backup. */
+    private FabricBackup backup;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        backup = new FabricBackup(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterClass
+    public final void afterClass() {
+        server.stop();
+    }
+
+    /**
+     * Every node is written, after its parent, and reads back as it was.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    @Test
+    public final void roundTrip() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int count = backup.backup(new Node(
+                new HashMap<String, String>()), out);
+        final int total = ORGANIZATIONS + ORGANIZATIONS * PARTITIONS
+                + ORGANIZATIONS * PARTITIONS * NETWORKS;
+        assertEquals(count, total);
+
+        final Set<NodeIdentity> seen = new HashSet<NodeIdentity>();
+        final SnapshotReader reader = new SnapshotReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        try {
+            while (reader.hasNext()) {
+                final Node node = reader.next();
+                final NodeIdentity parent = node.getIdentity().getParent();
+                assertTrue(parent.getType() == NodeType.TOPOLOGY
+                        || seen.contains(parent), node.toString());
+                seen.add(node.getIdentity());
+                if ("30000".equals(node.getData().get("segmentId"))) {
+                    assertEquals(node.getData().get("configArg"),
+                            "$vlanId=100;$segmentId=30000;$vrfName=org0:"
+                                    + "part0;$gatewayIpAddress=10.0.0.1;"
+                                    + "$netMaskLength=24");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(reader.getCount(), total);
+    }
+
+    /**
+     * Backing up an organization includes the organization.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    @Test
+    public final void organization() throws IOException {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org1");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(backup.backup(new Node(data), out), 1 + PARTITIONS
+                + PARTITIONS * NETWORKS);
+        final SnapshotReader reader = new SnapshotReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(reader.next(), new Node(data));
+        reader.close();
+    }
+}
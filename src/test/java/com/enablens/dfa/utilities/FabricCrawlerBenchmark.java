@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeTree;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Wall-clock time of a full crawl against a mock DCNM with a fixed
+ * per-request latency, at increasing concurrency.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.utilities.FabricCrawlerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FabricCrawlerBenchmark {
+
+    /** Mock DCNM latency per request, in msec. */
+    private static final long LATENCY = 5L;
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 4;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 16;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 25;
+
+    /** Concurrency per level and in flight. */
+    @Param({"1", "4", "16" })
+    public int concurrency;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The crawler. */
+    private FabricCrawler crawler;
+
+    /** The topology. */
+    private Node topology;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.setLatency(LATENCY);
+        server.start();
+        crawler = new FabricCrawler(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+        for (NodeType type = NodeType.ORGANIZATION; type != null;
+                type = type.getChildType()) {
+            crawler.setParallelism(type, concurrency);
+        }
+        crawler.setMaxInFlight(concurrency);
+        topology = new Node(new HashMap<String, String>());
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Crawls the whole fabric.
+     *
+     * @return the tree
+     */
+    @Benchmark
+    public NodeTree crawl() {
+        return crawler.crawl(topology);
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                FabricCrawlerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
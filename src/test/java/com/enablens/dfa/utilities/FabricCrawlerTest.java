@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeTree;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Fabric Crawler Test Class.
+ */
+public class FabricCrawlerTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 3;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 4;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 5;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The crawler. */
+    private FabricCrawler crawler;
+
+    /**
+     * Starts the mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        crawler = new FabricCrawler(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterClass
+    public final void afterClass() {
+        server.stop();
+    }
+
+    /**
+     * Gets a topology node.
+     *
+     * @return the topology node
+     */
+    private static Node topology() {
+        return new Node(new HashMap<String, String>());
+    }
+
+    /**
+     * Crawl returns the complete tree.
+     */
+    @Test
+    public final void crawlTree() {
+        final NodeTree tree = crawler.crawl(topology());
+        assertEquals(tree.size(NodeType.ORGANIZATION), ORGANIZATIONS);
+        assertEquals(tree.size(NodeType.PARTITION), ORGANIZATIONS
+                * PARTITIONS);
+        assertEquals(tree.size(NodeType.NETWORK), ORGANIZATIONS * PARTITIONS
+                * NETWORKS);
+        for (NodeTree org : tree.getChildren()) {
+            assertEquals(org.getChildren().size(), PARTITIONS);
+        }
+    }
+
+    /**
+     * Streaming crawl hands over every node once.
+     */
+    @Test
+    public final void crawlStream() {
+        final Map<NodeType, AtomicInteger> counts =
+                new ConcurrentHashMap<NodeType, AtomicInteger>();
+        for (NodeType type : NodeType.values()) {
+            counts.put(type, new AtomicInteger());
+        }
+        crawler.crawl(topology(), new Consumer<Node>() {
+            @Override
+            public void accept(final Node node) {
+                counts.get(node.getType()).incrementAndGet();
+            }
+        });
+        assertEquals(counts.get(NodeType.TOPOLOGY).get(), 0);
+        assertEquals(counts.get(NodeType.ORGANIZATION).get(), ORGANIZATIONS);
+        assertEquals(counts.get(NodeType.NETWORK).get(), ORGANIZATIONS
+                * PARTITIONS * NETWORKS);
+    }
+
+    /**
+     * Parallelism of one still walks the whole fabric.
+     */
+    @Test
+    public final void crawlSerial() {
+        final FabricCrawler serial = new FabricCrawler(new DcnmAuthToken(
+                server.getAddress(), "admin", "admin", 60000L));
+        serial.setParallelism(NodeType.NETWORK, 1);
+        serial.setMaxInFlight(1);
+        assertEquals(serial.crawl(topology()).size(), 1 + ORGANIZATIONS
+                + ORGANIZATIONS * PARTITIONS + ORGANIZATIONS * PARTITIONS
+                * NETWORKS);
+    }
+
+    /**
+     * Crawling a network node has nothing to list.
+     */
+    @Test
+    public final void crawlLeaf() {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part0");
+        data.put("networkName", "net0");
+        data.put("segmentId", "30000");
+        data.put("vlanId", "100");
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "defaultNetworkIpv4EfProfile");
+        assertEquals(crawler.crawl(new Node(data)).size(), 1);
+    }
+
+    /**
+     * An unreachable DCNM fails the crawl.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public final void crawlUnreachable() throws IOException {
+        final MockDcnmServer dead = new MockDcnmServer();
+        final String address = dead.getAddress();
+        dead.start();
+        dead.stop();
+        new FabricCrawler(new DcnmAuthToken(address, "admin", "admin",
+                60000L)).crawl(topology());
+    }
+
+    /**
+     * Starts a mock DCNM of its own that sends ETags, for tests that change
+     * the fabric.
+     *
+     * @return the server
+     * @throws IOException
+     *             if the server cannot start
+     */
+    private static MockDcnmServer taggedServer() throws IOException {
+        final MockDcnmServer tagged = new MockDcnmServer();
+        tagged.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        tagged.setEtags(true);
+        tagged.start();
+        return tagged;
+    }
+
+    /**
+     * Refreshing an unchanged fabric reads no listing again.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test
+    public final void refreshUnchanged() throws IOException {
+        final MockDcnmServer tagged = taggedServer();
+        try {
+            final FabricCrawler refresher = new FabricCrawler(
+                    new DcnmAuthToken(tagged.getAddress(), "admin", "admin",
+                            60000L));
+            final NodeTree tree = refresher.crawl(topology());
+            final int listings = 1 + ORGANIZATIONS + ORGANIZATIONS
+                    * PARTITIONS;
+            assertEquals(refresher.getListingsRead(), listings);
+            final NodeTree refreshed = refresher.refresh(tree);
+            assertEquals(refreshed.size(), tree.size());
+            assertEquals(refresher.getListingsRead(), 0);
+            assertEquals(refresher.getListingsUnchanged(), listings);
+            assertEquals(tagged.getNotModifiedCount(), listings);
+        } finally {
+            tagged.stop();
+        }
+    }
+
+    /**
+     * Refreshing reads only the listings that changed.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test
+    public final void refreshChanged() throws IOException {
+        final MockDcnmServer tagged = taggedServer();
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(
+                    tagged.getAddress(), "admin", "admin", 60000L);
+            final FabricCrawler refresher = new FabricCrawler(token);
+            final NodeTree tree = refresher.crawl(topology());
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("partitionName", "part0");
+            data.put("networkName", "added");
+            data.put("segmentId", "40000");
+            data.put("vlanId", "2000");
+            data.put("mobilityDomainId", "md0");
+            data.put("profileName", "defaultNetworkIpv4EfProfile");
+            Utils.putNode(token, new Node(data));
+
+            final NodeTree refreshed = refresher.refresh(tree);
+            assertEquals(refreshed.size(NodeType.NETWORK), ORGANIZATIONS
+                    * PARTITIONS * NETWORKS + 1);
+            assertEquals(tree.size(NodeType.NETWORK), ORGANIZATIONS
+                    * PARTITIONS * NETWORKS);
+            assertEquals(refresher.getListingsRead(), 1);
+            assertEquals(refresher.getListingsUnchanged(), ORGANIZATIONS
+                    + ORGANIZATIONS * PARTITIONS);
+        } finally {
+            tagged.stop();
+        }
+    }
+
+    /**
+     * A changed node is seen by a refresh, while the unchanged listings
+     * below it are not read again.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test
+    public final void refreshChangedNode() throws IOException {
+        final MockDcnmServer tagged = taggedServer();
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(
+                    tagged.getAddress(), "admin", "admin", 60000L);
+            final FabricCrawler refresher = new FabricCrawler(token);
+            final NodeTree tree = refresher.crawl(topology());
+            final Map<String, String> data = new HashMap<String, String>();
+            data.put("organizationName", "org0");
+            data.put("description", "Changed");
+            final Node changed = new Node(data);
+            HttpOperations.putOperation(token, Utils.uriBuilder("update",
+                    changed.getId()), changed.getDataAsJson());
+
+            final NodeTree refreshed = refresher.refresh(tree);
+            assertEquals(refreshed.size(), tree.size());
+            assertEquals(refresher.getListingsRead(), 1);
+            assertEquals(refresher.getListingsUnchanged(), ORGANIZATIONS
+                    + ORGANIZATIONS * PARTITIONS);
+            for (NodeTree org : refreshed.getChildren()) {
+                if ("org0".equals(org.getNode().getData().get(
+                        "organizationName"))) {
+                    assertEquals(org.getNode().getData().get("description"),
+                            "Changed");
+                }
+            }
+        } finally {
+            tagged.stop();
+        }
+    }
+
+    /**
+     * TOPOLOGY is not a crawlable level.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public final void topologyParallelism() {
+        crawler.setParallelism(NodeType.TOPOLOGY, 2);
+    }
+}
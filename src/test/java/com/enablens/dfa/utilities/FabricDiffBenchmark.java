@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.enablens.dfa.datastructures.Node;
+
+/**
+ * Time to diff two 100k-network snapshots that differ in 1% of networks, by
+ * the number of threads comparing partitions. The forked JVM runs in a
+ * 128 MB heap, less than either fabric would take in memory.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.utilities.FabricDiffBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class FabricDiffBenchmark {
+
+    /** Networks in each snapshot. */
+    private static final int NETWORKS = 100000;
+
+    /** Networks per partition. */
+    private static final int PER_PARTITION = 100;
+
+    /** One network in this many differs. */
+    private static final int CHANGED = 100;
+
+    /** Threads comparing partitions. */
+    @Param({"1", "4" })
+    public int parallelism;
+
+    /** The first snapshot. */
+    private File before;
+
+    /** The second snapshot. */
+    private File after;
+
+    /**
+     * Writes the snapshots.
+     *
+     * @throws IOException
+     *             if a snapshot cannot be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        before = snapshot(false);
+        after = snapshot(true);
+    }
+
+    /**
+     * Writes a snapshot.
+     *
+     * @param changed
+     *            whether to change one network in CHANGED
+     * @return the file
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    private static File snapshot(final boolean changed) throws IOException {
+        final File file = File.createTempFile("dfa-diff", ".ndjson.gz");
+        file.deleteOnExit();
+        final SnapshotWriter writer = new SnapshotWriter(new FileOutputStream(
+                file));
+        try {
+            for (int n = 0; n < NETWORKS; n++) {
+                final Map<String, String> data = new HashMap<String, String>();
+                data.put("organizationName", "org0");
+                data.put("partitionName", "part" + n / PER_PARTITION);
+                data.put("networkName", "net" + n);
+                data.put("segmentId", String.valueOf(30000 + n));
+                data.put("vlanId", String.valueOf(100 + n % 3900));
+                data.put("mobilityDomainId", "md0");
+                data.put("profileName", "defaultNetworkIpv4EfProfile");
+                data.put("description", changed && n % CHANGED == 0
+                        ? "changed " + n : "network " + n);
+                writer.write(new Node(data));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the snapshots.
+     */
+    @TearDown
+    public void tearDown() {
+        before.delete();
+        after.delete();
+    }
+
+    /**
+     * Diffs the snapshots.
+     *
+     * @return the differences
+     * @throws IOException
+     *             if a snapshot cannot be read
+     */
+    @Benchmark
+    public DiffReport diff() throws IOException {
+        final FabricDiff diff = new FabricDiff();
+        diff.setParallelism(parallelism);
+        return diff.diff(before, after);
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                FabricDiffBenchmark.class.getSimpleName()).build()).run();
+    }
+}
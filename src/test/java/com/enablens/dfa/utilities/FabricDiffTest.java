@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.base.HttpOperations;
+import com.enablens.dfa.base.Utils;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Fabric Diff Test Class.
+ */
+public class FabricDiffTest {
+
+    /** Networks in each set. */
+    private static final int NETWORKS = 500;
+
+    /**
+     * Builds a network.
+     *
+     * @param n
+     *            the network number
+     * @return the network
+     */
+    private static Node network(final int n) {
+        final Map<String, String> data = new HashMap<String, String>();
+        data.put("organizationName", "org0");
+        data.put("partitionName", "part" + n / 100);
+        data.put("networkName", "net" + n);
+        data.put("segmentId", String.valueOf(30000 + n));
+        data.put("vlanId", String.valueOf(100 + n));
+        data.put("mobilityDomainId", "md0");
+        data.put("profileName", "defaultNetworkIpv4EfProfile");
+        return new Node(data);
+    }
+
+    /**
+     * Builds a set of networks.
+     *
+     * @return the networks
+     */
+    private static List<Node> networks() {
+        final List<Node> nodes = new ArrayList<Node>();
+        for (int n = 0; n < NETWORKS; n++) {
+            nodes.add(network(n));
+        }
+        return nodes;
+    }
+
+    /**
+     * Equal sets have no differences, whatever their order.
+     *
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    @Test
+    public final void equalSets() throws IOException {
+        final List<Node> before = networks();
+        final List<Node> after = networks();
+        Collections.reverse(after);
+        final DiffReport report = new FabricDiff().diff(before.iterator(),
+                after.iterator());
+        assertTrue(report.isEmpty(), report.toString());
+        assertEquals(report.getUnchanged(), NETWORKS);
+    }
+
+    /**
+     * Added, removed and modified nodes are found, with the attributes that
+     * differ; a null value is the same as a missing one.
+     *
+     * @throws IOException
+     *             if the partitions cannot be written
+     */
+    @Test
+    public final void changes() throws IOException {
+        final List<Node> before = networks();
+        final List<Node> after = networks();
+        after.remove(NETWORKS - 1);
+        after.add(network(NETWORKS));
+        after.get(7).getData().put("vlanId", "3000");
+        after.get(7).getData().put("description", "Changed");
+        after.get(8).getData().put("description", null);
+
+        final FabricDiff diff = new FabricDiff();
+        diff.setPartitions(3);
+        diff.setParallelism(2);
+        final DiffReport report = diff.diff(before.iterator(),
+                after.iterator());
+        assertEquals(report.getAdded().size(), 1);
+        assertEquals(report.getAdded().get(0).getIdentity(),
+                network(NETWORKS).getIdentity());
+        assertNull(report.getAdded().get(0).getBefore());
+        assertEquals(report.getRemoved().size(), 1);
+        assertEquals(report.getRemoved().get(0).getBefore(),
+                network(NETWORKS - 1));
+        assertEquals(report.getModified().size(), 1);
+        final NodeDiff modified = report.getModified().get(0);
+        assertEquals(modified.getIdentity(), network(7).getIdentity());
+        assertEquals(modified.getDeltas().size(), 2);
+        assertEquals(modified.getDeltas().get(0).getAttribute(),
+                "description");
+        assertNull(modified.getDeltas().get(0).getBefore());
+        assertEquals(modified.getDeltas().get(0).getAfter(), "Changed");
+        assertEquals(modified.getDeltas().get(1).getAttribute(), "vlanId");
+        assertEquals(modified.getDeltas().get(1).getBefore(), "107");
+        assertEquals(modified.getDeltas().get(1).getAfter(), "3000");
+        assertEquals(report.getUnchanged(), NETWORKS - 2);
+    }
+
+    /**
+     * A backup compared with the live fabric shows what changed since.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Test
+    public final void againstLive() throws IOException {
+        final MockDcnmServer server = new MockDcnmServer();
+        server.populate(2, 2, 3);
+        server.start();
+        final File snapshot = File.createTempFile("dfa-diff", ".ndjson.gz");
+        try {
+            final DcnmAuthToken token = new DcnmAuthToken(
+                    server.getAddress(), "admin", "admin", 60000L);
+            final Node topology = new Node(new HashMap<String, String>());
+            new FabricBackup(token).backup(topology, snapshot);
+            final FabricCrawler crawler = new FabricCrawler(token);
+            final FabricDiff diff = new FabricDiff();
+            assertTrue(diff.diff(snapshot, crawler, topology).isEmpty());
+
+            final Map<String, String> org = new HashMap<String, String>();
+            org.put("organizationName", "org1");
+            org.put("description", "Changed");
+            final Node changed = new Node(org);
+            HttpOperations.putOperation(token, Utils.uriBuilder("update",
+                    changed.getId()), changed.getDataAsJson());
+            final Node added = network(NETWORKS);
+            added.getData().put("partitionName", "part0");
+            Utils.putNode(token, added);
+
+            final DiffReport report = diff.diff(snapshot, crawler, topology);
+            assertEquals(report.getAdded().size(), 1);
+            assertEquals(report.getRemoved().size(), 0);
+            assertEquals(report.getModified().size(), 1);
+            assertEquals(report.getModified().get(0).getDeltas().get(0)
+                    .getAfter(), "Changed");
+            assertEquals(report.getUnchanged(), 2 + 2 * 2 + 2 * 2 * 3 - 1);
+        } finally {
+            snapshot.delete();
+            server.stop();
+        }
+    }
+}
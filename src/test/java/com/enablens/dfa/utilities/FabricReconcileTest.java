@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Fabric Reconcile Test Class.
+ */
+public class FabricReconcileTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 2;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 2;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 3;
+
+    /** The mock DCNM. */
+    private MockDcnmServer server;
+
+    /** The reconcile. */
+    private FabricReconcile reconcile;
+
+    /** The topology. */
+    private final Node topology = new Node(new HashMap<String, String>());
+
+    /**
+     * Starts a fresh mock DCNM for each test.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        server.start();
+        reconcile = new FabricReconcile(new DcnmAuthToken(
+                server.getAddress(), "admin", "admin", 60000L));
+        reconcile.getDiff().setPartitions(4);
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        server.stop();
+    }
+
+    /**
+     * Reads the live fabric, as a starting point for a desired state.
+     *
+     * @return the nodes
+     * @throws IOException
+     *             if the fabric cannot be backed up
+     */
+    private List<Node> live() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FabricBackup(new DcnmAuthToken(server.getAddress(), "admin",
+                "admin", 60000L)).backup(topology, out);
+        final List<Node> nodes = new ArrayList<Node>();
+        final SnapshotReader reader = new SnapshotReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        while (reader.hasNext()) {
+            nodes.add(reader.next());
+        }
+        reader.close();
+        return nodes;
+    }
+
+    /**
+     * Builds the desired state: org1/part1 and its networks are gone,
+     * network 30000 has a new VLAN, and org0 has a new partition with one
+     * network.
+     *
+     * @return the nodes
+     * @throws IOException
+     *             if the fabric cannot be backed up
+     */
+    private List<Node> desired() throws IOException {
+        final List<Node> nodes = live();
+        final Iterator<Node> it = nodes.iterator();
+        while (it.hasNext()) {
+            final Map<String, String> data = it.next().getData();
+            if ("org1".equals(data.get("organizationName"))
+                    && "part1".equals(data.get("partitionName"))) {
+                it.remove();
+            } else if ("30000".equals(data.get("segmentId"))) {
+                data.put("vlanId", "2000");
+            }
+        }
+        final Map<String, String> part = new HashMap<String, String>();
+        part.put("organizationName", "org0");
+        part.put("partitionName", "added");
+        part.put("partitionSegmentId", "70000");
+        nodes.add(new Node(part));
+        final Map<String, String> net = new HashMap<String, String>(part);
+        net.remove("partitionSegmentId");
+        net.put("networkName", "added");
+        net.put("segmentId", "40000");
+        net.put("vlanId", "3000");
+        net.put("mobilityDomainId", "md0");
+        net.put("profileName", "defaultNetworkIpv4EfProfile");
+        nodes.add(new Node(net));
+        return nodes;
+    }
+
+    /**
+     * A fabric already as desired needs no changes.
+     *
+     * @throws IOException
+     *             if the fabric cannot be read
+     */
+    @Test
+    public final void alreadyReconciled() throws IOException {
+        final ReconcilePlan plan = reconcile.plan(live().iterator(),
+                topology);
+        assertTrue(plan.isEmpty(), plan.toString());
+        assertEquals(plan.getUnchanged(), ORGANIZATIONS + ORGANIZATIONS
+                * PARTITIONS + ORGANIZATIONS * PARTITIONS * NETWORKS);
+    }
+
+    /**
+     * Only what differs is planned, deletes leaves first and creates
+     * parents first, and a dry run sends nothing.
+     *
+     * @throws IOException
+     *             if the fabric cannot be read
+     */
+    @Test
+    public final void planOnly() throws IOException {
+        final ReconcilePlan plan = reconcile.plan(desired().iterator(),
+                topology);
+        assertEquals(plan.getDeletes().size(), 1 + NETWORKS);
+        assertEquals(plan.getDeletes().get(0).getIdentity().getType(),
+                NodeType.NETWORK);
+        assertEquals(plan.getDeletes().get(NETWORKS).getIdentity()
+                .getType(), NodeType.PARTITION);
+        assertEquals(plan.getUpdates().size(), 1);
+        assertEquals(plan.getUpdates().get(0).getDeltas().size(), 1);
+        assertEquals(plan.getUpdates().get(0).getDeltas().get(0)
+                .getAfter(), "2000");
+        assertEquals(plan.getCreates().size(), 2);
+        assertEquals(plan.getCreates().get(0).getIdentity().getType(),
+                NodeType.PARTITION);
+
+        final long requests = server.getRequestCount();
+        reconcile.setDryRun(true);
+        final BulkReport report = reconcile.apply(plan);
+        assertEquals(report.count(NodeResult.Status.PLANNED), plan.size());
+        assertEquals(server.getRequestCount(), requests);
+    }
+
+    /**
+     * Applying the plan brings the fabric to the desired state.
+     *
+     * @throws IOException
+     *             if the fabric cannot be read
+     */
+    @Test
+    public final void applied() throws IOException {
+        final List<Node> desired = desired();
+        final BulkReport report = reconcile.apply(reconcile.plan(desired
+                .iterator(), topology));
+        assertEquals(report.getFailures().size(), 0, report.toString());
+        assertEquals(report.count(NodeResult.Status.DONE), 1 + NETWORKS + 1
+                + 2);
+        assertEquals(server.size("/organizations/org1/partitions"), 1);
+        assertEquals(server.size("/organizations/org0/partitions/added"
+                + "/networks"), 1);
+        assertTrue(reconcile.plan(desired.iterator(), topology).isEmpty());
+    }
+
+    /**
+     * A failed create skips the nodes below it, and a failed delete the
+     * nodes above it.
+     *
+     * @throws IOException
+     *             if the fabric cannot be read
+     */
+    @Test
+    public final void failures() throws IOException {
+        server.refuse("POST", "/rest/auto-config/organizations/org0"
+                + "/partitions");
+        server.refuse("DELETE", "/rest/auto-config/organizations/org1"
+                + "/partitions/part1/networks/segment/30009");
+        final BulkReport report = reconcile.apply(reconcile.plan(desired()
+                .iterator(), topology));
+        assertEquals(report.count(NodeResult.Status.FAILED), 2);
+        assertEquals(report.count(NodeResult.Status.SKIPPED), 2);
+        assertEquals(report.count(NodeResult.Status.DONE), NETWORKS - 1 + 1);
+        assertEquals(server.size("/organizations/org1/partitions"),
+                PARTITIONS);
+    }
+}
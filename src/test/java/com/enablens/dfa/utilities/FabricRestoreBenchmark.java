@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Time to restore a 10k-network snapshot into a mock DCNM with a fixed
+ * per-request latency, at increasing windows.
+ *
+ * Run with: java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.enablens.dfa.utilities.FabricRestoreBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class FabricRestoreBenchmark {
+
+    /** Mock DCNM latency per request, in msec. */
+    private static final long LATENCY = 2L;
+
+    /** Organizations in the snapshot. */
+    private static final int ORGANIZATIONS = 4;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 10;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 250;
+
+    /** Creates in flight. */
+    @Param({"4", "16", "64" })
+    public int window;
+
+    /** The snapshot. */
+    private byte[] snapshot;
+
+    /** The mock DCNM to restore into. */
+    private MockDcnmServer server;
+
+    /** The token for the mock DCNM. */
+    private DcnmAuthToken token;
+
+    /** The restore. */
+    private FabricRestore restore;
+
+    /**
+     * Takes the snapshot.
+     *
+     * @throws IOException
+     *             if the backup fails
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final MockDcnmServer source = new MockDcnmServer();
+        source.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        source.start();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FabricBackup(new DcnmAuthToken(source.getAddress(), "admin",
+                "admin", 60000L)).backup(new Node(
+                new HashMap<String, String>()), out);
+        source.stop();
+        snapshot = out.toByteArray();
+    }
+
+    /**
+     * Starts an empty mock DCNM, as the mock refuses nodes that already
+     * exist.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @Setup(Level.Invocation)
+    public void startServer() throws IOException {
+        server = new MockDcnmServer();
+        server.setLatency(LATENCY);
+        server.start();
+        token = new DcnmAuthToken(server.getAddress(), "admin", "admin",
+                60000L);
+        restore = new FabricRestore(token);
+        restore.setWindow(window);
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @TearDown(Level.Invocation)
+    public void stopServer() {
+        token.close();
+        server.stop();
+    }
+
+    /**
+     * Restores the snapshot into an empty DCNM, so every create succeeds.
+     *
+     * @return the report
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Benchmark
+    public BulkReport restore() throws IOException {
+        return restore.restore(new ByteArrayInputStream(snapshot), 0, null);
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                FabricRestoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Terry Pattinson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Terry - initial API and implementation
+ ******************************************************************************/
+package com.enablens.dfa.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.enablens.dfa.base.DcnmAuthToken;
+import com.enablens.dfa.datastructures.Node;
+import com.enablens.dfa.datastructures.NodeType;
+import com.enablens.dfa.mock.MockDcnmServer;
+
+/**
+ * Fabric Restore Test Class.
+ */
+public class FabricRestoreTest {
+
+    /** Organizations in the mock fabric. */
+    private static final int ORGANIZATIONS = 3;
+
+    /** Partitions per organization. */
+    private static final int PARTITIONS = 4;
+
+    /** Networks per partition. */
+    private static final int NETWORKS = 5;
+
+    /** Mock DCNM latency while a restore is interrupted, in msec. */
+    private static final long LATENCY = 10L;
+
+    /** HTTP Service Unavailable. */
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    /** Nodes in the snapshot. */
+    private static final int TOTAL = ORGANIZATIONS + ORGANIZATIONS
+            * PARTITIONS + ORGANIZATIONS * PARTITIONS * NETWORKS;
+
+    /** The snapshot. */
+    private byte[] snapshot;
+
+    /** The empty mock DCNM to restore into. */
+    private MockDcnmServer server;
+
+    /** The restore. */
+    private FabricRestore restore;
+
+    /**
+     * Backs up a populated mock DCNM.
+     *
+     * @throws IOException
+     *             if the backup fails
+     */
+    @BeforeClass
+    public final void beforeClass() throws IOException {
+        final MockDcnmServer source = new MockDcnmServer();
+        source.populate(ORGANIZATIONS, PARTITIONS, NETWORKS);
+        source.start();
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new FabricBackup(new DcnmAuthToken(source.getAddress(), "admin",
+                    "admin", 60000L)).backup(new Node(
+                    new HashMap<String, String>()), out);
+            snapshot = out.toByteArray();
+        } finally {
+            source.stop();
+        }
+    }
+
+    /**
+     * Starts an empty mock DCNM.
+     *
+     * @throws IOException
+     *             if the server cannot start
+     */
+    @BeforeMethod
+    public final void beforeMethod() throws IOException {
+        server = new MockDcnmServer();
+        server.start();
+        restore = new FabricRestore(new DcnmAuthToken(server.getAddress(),
+                "admin", "admin", 60000L));
+    }
+
+    /**
+     * Stops the mock DCNM.
+     */
+    @AfterMethod
+    public final void afterMethod() {
+        server.stop();
+    }
+
+    /**
+     * Every node is restored.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public final void restoreAll() throws IOException {
+        final BulkReport report = restore.restore(new ByteArrayInputStream(
+                snapshot), 0, null);
+        assertEquals(report.count(NodeResult.Status.DONE), TOTAL,
+                String.valueOf(report.getFailures()));
+        assertEquals(server.size("/organizations"), ORGANIZATIONS);
+        assertEquals(server.size("/organizations/org2/partitions/part3"
+                + "/networks"), NETWORKS);
+    }
+
+    /**
+     * Children of a refused node are skipped, and settled.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public final void refusedParent() throws IOException {
+        server.refuse("POST", "/rest/auto-config/organizations/org1"
+                + "/partitions");
+        final File checkpoint = File.createTempFile("dfa-restore", ".txt");
+        checkpoint.delete();
+        try {
+            final BulkReport report = restore.restore(
+                    new ByteArrayInputStream(snapshot), 0, checkpoint);
+            assertEquals(report.count(NodeResult.Status.FAILED), PARTITIONS);
+            assertEquals(report.count(NodeResult.Status.SKIPPED), PARTITIONS
+                    * NETWORKS);
+            assertEquals(checkpoint(checkpoint), TOTAL);
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    /**
+     * A restore interrupted part way resumes from its checkpoint file.
+     *
+     * @throws Exception
+     *             if the snapshot cannot be read or the run is interrupted
+     */
+    @Test
+    public final void resumeAfterInterrupt() throws Exception {
+        final File file = snapshotFile();
+        final File checkpoint = File.createTempFile("dfa-restore", ".txt");
+        checkpoint.delete();
+        try {
+            restore.setWindow(1);
+            restore.setCheckpointInterval(1);
+            server.setLatency(LATENCY);
+            final long before = server.getRequestCount();
+            final Thread first = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        restore.restore(file, checkpoint);
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            first.start();
+            while (server.getRequestCount() - before < TOTAL / 4) {
+                Thread.sleep(LATENCY);
+            }
+            first.interrupt();
+            first.join();
+            final int settled = checkpoint(checkpoint);
+            assertTrue(settled > 0 && settled < TOTAL, "settled " + settled);
+
+            server.setLatency(0);
+            final BulkReport report = restore.restore(file, checkpoint);
+            assertEquals(report.getResults().size(), TOTAL - settled);
+            assertEquals(report.getFailures().size(), 0,
+                    String.valueOf(report.getFailures()));
+            assertEquals(checkpoint(checkpoint), TOTAL);
+            assertEquals(server.size("/organizations"), ORGANIZATIONS);
+            assertEquals(server.size("/organizations/org2/partitions/part3"
+                    + "/networks"), NETWORKS);
+        } finally {
+            checkpoint.delete();
+            file.delete();
+        }
+    }
+
+    /**
+     * Nodes already in DCNM count as restored, and so do their children.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public final void alreadyPresent() throws IOException {
+        server.populate(1, PARTITIONS, NETWORKS);
+        final BulkReport report = restore.restore(new ByteArrayInputStream(
+                snapshot), 0, null);
+        assertEquals(report.count(NodeResult.Status.DONE), TOTAL,
+                String.valueOf(report.getFailures()));
+        int present = 0;
+        for (NodeResult result : report.getResults()) {
+            if (result.getMessage() != null) {
+                present++;
+            }
+        }
+        assertEquals(present, 1 + PARTITIONS + PARTITIONS * NETWORKS);
+        assertEquals(server.size("/organizations/org2/partitions/part3"
+                + "/networks"), NETWORKS);
+    }
+
+    /**
+     * A node DCNM is too busy to create is not settled, nor are its
+     * children; a resumed restore creates them and finds the rest present.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public final void unreached() throws IOException {
+        final File file = snapshotFile();
+        final File checkpoint = File.createTempFile("dfa-restore", ".txt");
+        checkpoint.delete();
+        try {
+            // One at a time, so the first node is the one refused
+            restore.setWindow(1);
+            server.setBusy(1, HTTP_UNAVAILABLE, null);
+            BulkReport report = restore.restore(file, checkpoint);
+            assertEquals(report.count(NodeResult.Status.FAILED), 1);
+            assertEquals(report.count(NodeResult.Status.SKIPPED), PARTITIONS
+                    + PARTITIONS * NETWORKS);
+            assertEquals(checkpoint(checkpoint), 0);
+
+            report = restore.restore(file, checkpoint);
+            assertEquals(report.count(NodeResult.Status.DONE), TOTAL,
+                    String.valueOf(report.getFailures()));
+            assertEquals(checkpoint(checkpoint), TOTAL);
+        } finally {
+            checkpoint.delete();
+            file.delete();
+        }
+    }
+
+    /**
+     * A resumed restore skips the children of a parent refused before the
+     * checkpoint, rather than assuming the parent exists.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public final void resumeSkipsRefused() throws IOException {
+        server.refuse("POST", "/rest/auto-config/organizations/org1"
+                + "/partitions");
+        final File file = snapshotFile();
+        final File checkpoint = File.createTempFile("dfa-restore", ".txt");
+        checkpoint.delete();
+        try {
+            restore.restore(file, checkpoint);
+            final List<String> lines = Files.readAllLines(
+                    checkpoint.toPath(), StandardCharsets.UTF_8);
+            assertEquals(lines.size(), 1 + PARTITIONS);
+
+            // As if the run had stopped after org1's last partition
+            int mark = 0;
+            final List<Integer> networks = new ArrayList<Integer>();
+            final SnapshotReader reader = new SnapshotReader(
+                    new ByteArrayInputStream(snapshot));
+            while (reader.hasNext()) {
+                final Node node = reader.next();
+                if (!"org1".equals(node.getData().get("organizationName"))) {
+                    continue;
+                }
+                if (node.getType() == NodeType.PARTITION) {
+                    mark = reader.getCount();
+                } else if (node.getType() == NodeType.NETWORK) {
+                    networks.add(reader.getCount() - 1);
+                }
+            }
+            reader.close();
+            int skipped = 0;
+            for (int index : networks) {
+                if (index >= mark) {
+                    skipped++;
+                }
+            }
+            lines.set(0, String.valueOf(mark));
+            Files.write(checkpoint.toPath(), lines, StandardCharsets.UTF_8);
+
+            final BulkReport report = restore.restore(file, checkpoint);
+            assertEquals(report.getResults().size(), TOTAL - mark);
+            assertEquals(report.count(NodeResult.Status.FAILED), 0);
+            assertEquals(report.count(NodeResult.Status.SKIPPED), skipped);
+        } finally {
+            checkpoint.delete();
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file.
+     *
+     * @return the file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private File snapshotFile() throws IOException {
+        final File file = File.createTempFile("dfa-restore", ".ndjson.gz");
+        Files.write(file.toPath(), snapshot);
+        return file;
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param checkpoint
+     *            the file
+     * @return the nodes settled
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static int checkpoint(final File checkpoint) throws IOException {
+        return Integer.parseInt(Files.readAllLines(checkpoint.toPath(),
+                StandardCharsets.UTF_8).get(0));
+    }
+}